@@ -0,0 +1,191 @@
+package craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static craftinginterpreters.lox.AstWriter.*;
+
+//восстанавливает дерево, записанное AstWriter. поля, которые заполняет Resolver, читаются вместе с узлами
+class AstReader {
+    private static final TokenType[] tokenTypes = TokenType.values();
+
+    private final DataInputStream in;
+
+    AstReader(DataInputStream in){
+        this.in = in;
+    }
+
+    List<Stmt> read() throws IOException {
+        if(in.readInt()!=MAGIC || in.readInt()!=VERSION){
+            throw new IOException("not a compiled Lox program or compiled by another version of jloxc");
+        }
+        return statements();
+    }
+
+    //---------- примитивы ----------
+
+    private String string() throws IOException {
+        var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Object value() throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag){
+            case NIL: return null;
+            case NUMBER: return in.readDouble();
+            case STRING: return string();
+            case TRUE: return true;
+            case FALSE: return false;
+            default: throw new IOException("unknown literal tag "+tag);
+        }
+    }
+
+    private Token token() throws IOException {
+        int type = in.readUnsignedByte();
+        if(type==0) return null;
+        return new Token(tokenTypes[type-1], string(), value(), in.readInt());
+    }
+
+    private List<Token> tokens() throws IOException {
+        int size = in.readInt();
+        var tokens = new ArrayList<Token>(size);
+        for(int i=0;i<size;i++) tokens.add(token());
+        return tokens;
+    }
+
+    private int[] captures() throws IOException {
+        int size = in.readInt();
+        if(size<0) return null;
+        var captures = new int[size];
+        for(int i=0;i<size;i++) captures[i] = in.readInt();
+        return captures;
+    }
+
+    private List<Stmt> statements() throws IOException {
+        int size = in.readInt();
+        var statements = new ArrayList<Stmt>(size);
+        for(int i=0;i<size;i++) statements.add(stmt());
+        return statements;
+    }
+
+    //---------- выражения ----------
+
+    private Expr expr() throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag){
+            case 0: return null;
+            case ASSIGN: {
+                var expr = new Expr.Assign(token(), expr());
+                expr.depth = in.readInt();
+                expr.slot = in.readInt();
+                return Superinstructions.assign(expr);
+            }
+            case BINARY: {
+                var expr = new Expr.Binary(expr(), token(), expr());
+                return isComparison(expr.operator.type) ? Superinstructions.comparison(expr) : expr;
+            }
+            case TERNARY: return new Expr.Ternary(expr(), token(), expr(), token(), expr());
+            case GROUPING: return new Expr.Grouping(expr());
+            case LITERAL: return new Expr.Literal(value());
+            case LOGICAL: return new Expr.Logical(expr(), token(), expr());
+            case SET: return Superinstructions.set(new Expr.Set(expr(), token(), expr()));
+            case THIS: {
+                var expr = new Expr.This(token());
+                expr.depth = in.readInt();
+                expr.slot = in.readInt();
+                return expr;
+            }
+            case SUPER: {
+                var expr = new Expr.Super(token(), token());
+                expr.depth = in.readInt();
+                expr.slot = in.readInt();
+                return expr;
+            }
+            case UNARY: return new Expr.Unary(token(), expr());
+            case VARIABLE: return variable();
+            case CALL: {
+                var callee = expr();
+                var paren = token();
+                int size = in.readInt();
+                var arguments = new ArrayList<Expr>(size);
+                for(int i=0;i<size;i++) arguments.add(expr());
+                return new Expr.Call(callee, paren, arguments);
+            }
+            case ANON_FUN: {
+                var expr = new Expr.AnonFun(tokens(), statements());
+                expr.declaration = new Stmt.Function(null, expr.params, expr.body, false);
+                expr.declaration.frameSize = in.readInt();
+                expr.declaration.captures = captures();
+                return expr;
+            }
+            case GET: return new Expr.Get(expr(), token());
+            default: throw new IOException("unknown expression tag "+tag);
+        }
+    }
+
+    private static boolean isComparison(TokenType type){
+        return type==TokenType.LESS || type==TokenType.LESS_EQUAL
+            || type==TokenType.GREATER || type==TokenType.GREATER_EQUAL;
+    }
+
+    private Expr.Variable variable() throws IOException {
+        var expr = new Expr.Variable(token());
+        expr.depth = in.readInt();
+        expr.slot = in.readInt();
+        return expr;
+    }
+
+    //---------- инструкции ----------
+
+    private Stmt stmt() throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag){
+            case 0: return null;
+            case BLOCK: {
+                var stmt = new Stmt.Block(statements());
+                stmt.frameSize = in.readInt();
+                stmt.inline = in.readUnsignedByte()!=0;
+                return stmt;
+            }
+            case CLASS: {
+                var name = token();
+                var superclass = in.readUnsignedByte()==VARIABLE ? variable() : null;
+                int size = in.readInt();
+                var methods = new ArrayList<Stmt.Function>(size);
+                for(int i=0;i<size;i++) methods.add((Stmt.Function)stmt());
+                var stmt = new Stmt.Class(name, superclass, methods);
+                stmt.slot = in.readInt();
+                return stmt;
+            }
+            case EXPRESSION: return new Stmt.Expression(expr());
+            case IF: return new Stmt.If(expr(), stmt(), stmt());
+            case PRINT: return new Stmt.Print(expr());
+            case VAR: {
+                var stmt = new Stmt.Var(token(), expr());
+                stmt.slot = in.readInt();
+                return stmt;
+            }
+            case WHILE: return new Stmt.While(expr(), stmt());
+            case FOR: return CountedLoops.specialize(new Stmt.For(stmt(), expr(), stmt(), expr()));
+            case CONTROL: return new Stmt.ControlStatement(token());
+            case FUNCTION: {
+                var stmt = new Stmt.Function(token(), tokens(), statements(), in.readUnsignedByte()!=0);
+                stmt.slot = in.readInt();
+                stmt.frameSize = in.readInt();
+                stmt.captures = captures();
+                return stmt;
+            }
+            case RETURN: {
+                var stmt = new Stmt.Return(token(), expr());
+                stmt.tailCall = in.readUnsignedByte()!=0;
+                return stmt;
+            }
+            default: throw new IOException("unknown statement tag "+tag);
+        }
+    }
+}
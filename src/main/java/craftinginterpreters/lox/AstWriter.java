@@ -0,0 +1,385 @@
+package craftinginterpreters.lox;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+//записывает разрешённое дерево в двоичный вид вместе с результатами Resolver (глубины, слоты,
+//размеры окружений), чтобы программа, собранная jloxc, начинала исполнение без сканирования и разбора
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int MAGIC = 0x4c4f5841; //LOXA
+    static final int VERSION = 4;
+
+    //теги узлов, 0 означает отсутствующий узел
+    static final int ASSIGN = 1, BINARY = 2, TERNARY = 3, GROUPING = 4, LITERAL = 5, LOGICAL = 6, SET = 7,
+        THIS = 8, SUPER = 9, UNARY = 10, VARIABLE = 11, CALL = 12, ANON_FUN = 13, GET = 14;
+    static final int BLOCK = 1, CLASS = 2, EXPRESSION = 3, IF = 4, PRINT = 5, VAR = 6, WHILE = 7, FOR = 8,
+        CONTROL = 9, FUNCTION = 10, RETURN = 11;
+
+    //теги значений литералов
+    static final int NIL = 0, NUMBER = 1, STRING = 2, TRUE = 3, FALSE = 4;
+
+    private final DataOutputStream out;
+
+    AstWriter(DataOutputStream out){
+        this.out = out;
+    }
+
+    void write(List<Stmt> statements) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        try{
+            statements(statements);
+        }catch (UncheckedIOException e){
+            throw e.getCause();
+        }
+    }
+
+    //---------- примитивы ----------
+
+    private void u1(int value){
+        try{
+            out.writeByte(value);
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void i4(int value){
+        try{
+            out.writeInt(value);
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //writeUTF ограничен 64 КБ, а строковый литерал может быть длиннее
+    private void string(String value){
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        i4(bytes.length);
+        try{
+            out.write(bytes);
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void value(Object value){
+        if(value==null){
+            u1(NIL);
+        }else if(value instanceof Double){
+            u1(NUMBER);
+            try{
+                out.writeDouble((Double)value);
+            }catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }else if(value instanceof String){
+            u1(STRING);
+            string((String)value);
+        }else if(value instanceof Boolean){
+            u1((Boolean)value ? TRUE : FALSE);
+        }else{
+            throw new IllegalArgumentException("unexpected literal "+value);
+        }
+    }
+
+    private void token(Token token){
+        if(token==null){
+            u1(0);
+            return;
+        }
+        u1(token.type.ordinal()+1);
+        string(token.lexeme);
+        value(token.literal);
+        i4(token.line);
+    }
+
+    private void tokens(List<Token> tokens){
+        i4(tokens.size());
+        for(Token token : tokens) token(token);
+    }
+
+    private void expr(Expr expr){
+        if(expr==null){
+            u1(0);
+        }else{
+            expr.accept(this);
+        }
+    }
+
+    private void stmt(Stmt stmt){
+        if(stmt==null){
+            u1(0);
+        }else{
+            stmt.accept(this);
+        }
+    }
+
+    private void statements(List<Stmt> statements){
+        i4(statements.size());
+        for(Stmt stmt : statements) stmt(stmt);
+    }
+
+    //---------- выражения ----------
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr){
+        u1(ASSIGN);
+        token(expr.name);
+        expr(expr.value);
+        i4(expr.depth);
+        i4(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr){
+        u1(BINARY);
+        expr(expr.left);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr){
+        u1(TERNARY);
+        expr(expr.left);
+        token(expr.op1);
+        expr(expr.middle);
+        token(expr.op2);
+        expr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr){
+        u1(GROUPING);
+        expr(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr){
+        u1(LITERAL);
+        value(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr){
+        u1(LOGICAL);
+        expr(expr.left);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr){
+        u1(SET);
+        expr(expr.object);
+        token(expr.name);
+        expr(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr){
+        u1(THIS);
+        token(expr.keyword);
+        i4(expr.depth);
+        i4(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr){
+        u1(SUPER);
+        token(expr.keyword);
+        token(expr.method);
+        i4(expr.depth);
+        i4(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr){
+        u1(UNARY);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr){
+        u1(VARIABLE);
+        token(expr.name);
+        i4(expr.depth);
+        i4(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr){
+        u1(CALL);
+        expr(expr.calee);
+        token(expr.paren);
+        i4(expr.arguments.size());
+        for(Expr argument : expr.arguments) expr(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitAnonFunExpr(Expr.AnonFun expr){
+        u1(ANON_FUN);
+        tokens(expr.params);
+        statements(expr.body);
+        i4(expr.declaration.frameSize);
+        captures(expr.declaration.captures);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr){
+        u1(GET);
+        expr(expr.object);
+        token(expr.name);
+        return null;
+    }
+
+    //суперинструкции записываются исходным выражением, AstReader собирает их заново
+    @Override
+    public Void visitIncrementExpr(Expr.Increment expr){
+        return expr.assign.accept(this);
+    }
+
+    @Override
+    public Void visitCompareExpr(Expr.Compare expr){
+        return expr.binary.accept(this);
+    }
+
+    @Override
+    public Void visitFieldUpdateExpr(Expr.FieldUpdate expr){
+        return expr.set.accept(this);
+    }
+
+    //---------- инструкции ----------
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt){
+        u1(BLOCK);
+        statements(stmt.statements);
+        i4(stmt.frameSize);
+        u1(stmt.inline ? 1 : 0);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt){
+        u1(CLASS);
+        token(stmt.name);
+        expr(stmt.superclass);
+        i4(stmt.methods.size());
+        for(Stmt.Function method : stmt.methods) stmt(method);
+        i4(stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        u1(EXPRESSION);
+        expr(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        u1(IF);
+        expr(stmt.condition);
+        stmt(stmt.thenBranch);
+        stmt(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        u1(PRINT);
+        expr(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+        u1(VAR);
+        token(stmt.name);
+        expr(stmt.initializer);
+        i4(stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        u1(WHILE);
+        expr(stmt.condition);
+        stmt(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt){
+        u1(FOR);
+        stmt(stmt.init);
+        expr(stmt.condition);
+        stmt(stmt.body);
+        expr(stmt.increment);
+        return null;
+    }
+
+    @Override
+    public Void visitCountedForStmt(Stmt.CountedFor stmt){
+        return stmt.loop.accept(this);
+    }
+
+    @Override
+    public Void visitControlStatementStmt(Stmt.ControlStatement stmt){
+        u1(CONTROL);
+        token(stmt.parameter);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        u1(FUNCTION);
+        token(stmt.name);
+        tokens(stmt.params);
+        statements(stmt.body);
+        u1(stmt.isStaticClassMethod ? 1 : 0);
+        i4(stmt.slot);
+        i4(stmt.frameSize);
+        captures(stmt.captures);
+        return null;
+    }
+
+    //-1 - замыкание на всю цепочку окружений
+    private void captures(int[] captures){
+        if(captures==null){
+            i4(-1);
+            return;
+        }
+        i4(captures.length);
+        for(int address : captures) i4(address);
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        u1(RETURN);
+        token(stmt.keyword);
+        expr(stmt.value);
+        u1(stmt.tailCall ? 1 : 0);
+        return null;
+    }
+}
@@ -0,0 +1,9 @@
+package craftinginterpreters.lox;
+
+//результат исполнения инструкции: циклы и функции проверяют его вместо перехвата исключений
+public enum Completion {
+    NORMAL,
+    BREAK,
+    CONTINUE,
+    RETURN
+}
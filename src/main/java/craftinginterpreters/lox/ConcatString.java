@@ -0,0 +1,108 @@
+package craftinginterpreters.lox;
+
+//строка lox, полученная конкатенацией или повторением. значение - префикс длины length общего StringBuilder,
+//в который только дописывают. если левый операнд s + piece заканчивается там же, где буфер, piece дописывается
+//в этот буфер без копирования s, поэтому цикл s = s + piece работает за линейное время. старые значения
+//видят свой префикс и не меняются; если конец буфера уже занят другим значением, буфер копируется.
+//в обычную String значение превращается (и запоминается) при выводе, сравнении, хешировании и передаче в native
+public final class ConcatString implements CharSequence {
+    //результаты короче остаются обычными String: копировать их дешевле, чем держать буфер
+    static final int MIN_LENGTH = 128;
+
+    private final StringBuilder buffer;
+    private final int length;
+    private String flat = null;
+
+    private ConcatString(StringBuilder buffer, int length){
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    public static boolean isString(Object value){
+        return value instanceof String || value instanceof ConcatString;
+    }
+
+    public static Object flatten(Object value){
+        return value instanceof ConcatString ? value.toString() : value;
+    }
+
+    //операнды - строки или числа, хотя бы один из них строка
+    public static Object concat(Object left, Object right){
+        CharSequence l = text(left), r = text(right);
+        int length = l.length() + r.length();
+        if(length<0) throw new OutOfMemoryError("String is too long");
+        if(length<MIN_LENGTH) return l.toString().concat(r.toString());
+        if(l instanceof ConcatString){
+            var rope = (ConcatString)l;
+            if(rope.buffer.length()==rope.length){
+                append(rope.buffer, r);
+                return new ConcatString(rope.buffer, length);
+            }
+        }
+        var buffer = new StringBuilder(Math.max(length, length << 1));
+        append(buffer, l);
+        append(buffer, r);
+        return new ConcatString(buffer, length);
+    }
+
+    static Object repeat(Object value, int times){
+        CharSequence text = (CharSequence)value;
+        long length = (long)text.length() * times;
+        if(length>Integer.MAX_VALUE) throw new OutOfMemoryError("String is too long");
+        if(length<MIN_LENGTH) return text.toString().repeat(times);
+        var buffer = new StringBuilder((int)length);
+        for(int i = 0; i<times; i++) append(buffer, text);
+        return new ConcatString(buffer, (int)length);
+    }
+
+    static int compare(Object left, Object right){
+        return left.toString().compareTo(right.toString());
+    }
+
+    private static CharSequence text(Object value){
+        return value instanceof Double ? Interpreter.stringify((double)value) : (CharSequence)value;
+    }
+
+    private static void append(StringBuilder buffer, CharSequence text){
+        if(text instanceof ConcatString){
+            var rope = (ConcatString)text;
+            //s + s: буфер нельзя дописывать из самого себя, префикс берётся копией
+            if(rope.buffer==buffer) buffer.append(rope.toString());
+            else buffer.append(rope.buffer, 0, rope.length);
+        }else{
+            buffer.append(text);
+        }
+    }
+
+    @Override
+    public int length(){
+        return length;
+    }
+
+    @Override
+    public char charAt(int index){
+        if(index>=length) throw new IndexOutOfBoundsException(index);
+        return buffer.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end){
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString(){
+        if(flat==null) flat = buffer.substring(0, length);
+        return flat;
+    }
+
+    @Override
+    public boolean equals(Object other){
+        return isString(other) && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode(){
+        return toString().hashCode();
+    }
+}
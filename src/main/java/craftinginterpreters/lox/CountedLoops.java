@@ -0,0 +1,83 @@
+package craftinginterpreters.lox;
+
+import craftinginterpreters.lox.checkers.BaseChecker;
+
+//распознаёт циклы вида for (var i = <начало>; i < <граница>; i = i + <шаг>), в которых тело не меняет i
+//и не создаёт замыканий. такой цикл Interpreter исполняет со счётчиком double в переменной Java:
+//условие и шаг не обходят дерево, а в окружение значение попадает без упаковки и только если тело его читает
+final class CountedLoops {
+    private CountedLoops(){}
+
+    static Stmt specialize(Stmt.For loop){
+        if(!(loop.init instanceof Stmt.Var) || !(loop.condition instanceof Expr.Compare)
+            || !(loop.increment instanceof Expr.Increment)) return loop;
+        var variable = (Stmt.Var)loop.init;
+        var condition = (Expr.Compare)loop.condition;
+        var increment = (Expr.Increment)loop.increment;
+        String name = variable.name.lexeme;
+        if(variable.initializer==null || !condition.left.name.lexeme.equals(name)
+            || !increment.assign.name.lexeme.equals(name)) return loop;
+        //граница читается на каждой итерации из окружения, где счётчик может быть не записан
+        if(condition.right!=null && condition.right.name.lexeme.equals(name)) return loop;
+
+        var scan = new BodyScan(name);
+        scan.resolve(loop.body);
+        if(scan.writes || scan.closures) return loop;
+        return new Stmt.CountedFor(loop, variable, condition, increment, scan.reads);
+    }
+
+    //имена сравниваются без учёта областей видимости: переменная с тем же именем во вложенном блоке
+    //только отключает оптимизацию или добавляет лишнюю запись
+    private static final class BodyScan extends BaseChecker {
+        private final String name;
+        boolean reads = false;
+        boolean writes = false;
+        boolean closures = false; //замыкание могло бы прочитать или изменить счётчик в любой момент
+
+        BodyScan(String name){
+            this.name = name;
+        }
+
+        //после ошибки разбора в блоке остаются пустые инструкции; такое дерево не исполняется
+        @Override
+        public void resolve(Stmt stmt){
+            if(stmt!=null) super.resolve(stmt);
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr){
+            if(expr.name.lexeme.equals(name)) reads = true;
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr){
+            if(expr.name.lexeme.equals(name)) writes = true;
+            return super.visitAssignExpr(expr);
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt){
+            if(stmt.name.lexeme.equals(name)) writes = true;
+            return super.visitVarStmt(stmt);
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt){
+            closures = true;
+            return null;
+        }
+
+        @Override
+        public Void visitAnonFunExpr(Expr.AnonFun expr){
+            closures = true;
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt){
+            closures = true;
+            return null;
+        }
+    }
+}
@@ -5,63 +5,96 @@ import java.util.Map;
 
 public class Environment {
     final Environment enclosing; //добавим scope и shadowing
-    private final Map<String, Object> values = new HashMap<>();
+    //глобальное окружение хранит ячейки переменных по имени, локальные - значения в массиве по индексу,
+    //который Resolver назначает каждой локальной переменной
+    private final Map<String, GlobalCell> cells;
+    private final Object[] slots;
+    //числа, записанные типизированными узлами, лежат в numbers без упаковки, а в slots на их месте стоит UNBOXED
+    static final Object UNBOXED = new Object();
+    private double[] numbers;
 
     Environment(){
         enclosing = null;
+        cells = new HashMap<>();
+        slots = null;
     }
 
-    Environment(Environment enclosing){
+    public Environment(Environment enclosing, int size){
         this.enclosing = enclosing;
+        this.cells = null;
+        this.slots = new Object[size];
     }
 
     public Object get(Token name){
-        if(values.containsKey(name.lexeme)){
-            return values.get(name.lexeme);
-        }
-        if(enclosing!=null) return enclosing.get(name);
-        throw new RuntimeError(name, "Undefined variable `"+name.lexeme+"`.");
+        return cell(name).get();
     }
 
     public Object get(String name){
-        if(values.containsKey(name)){
-            return values.get(name);
-        }
-        if(enclosing!=null) return enclosing.get(name);
-        throw new RuntimeError(new Token(TokenType.IDENTIFIER, name, null, -1), "Undefined variable `"+name+"`.");
+        return cell(new Token(TokenType.IDENTIFIER, name, null, -1)).get();
     }
 
     void assign(Token name, Object value){
-        if(values.containsKey(name.lexeme)){
-            values.put(name.lexeme, value);
-            return;
-        }
-        if(enclosing!=null){
-            enclosing.assign(name, value);
-            return;
-        }
+        cell(name).set(value);
+    }
 
+    public GlobalCell cell(Token name){
+        if(cells!=null){
+            var cell = cells.get(name.lexeme);
+            if(cell!=null) return cell;
+        }
+        if(enclosing!=null) return enclosing.cell(name);
         throw new RuntimeError(name, "Undefined variable `"+name.lexeme+"`.");
     }
 
-    void define(String name, Object value){
-        values.put(name, value);
+    public void define(String name, Object value){
+        var cell = cells.get(name);
+        if(cell!=null){
+            cell.set(value); //повторное определение обновляет уже связанную ячейку
+        }else{
+            cells.put(name, new GlobalCell(name, value));
+        }
+    }
+
+    public void define(int slot, Object value){
+        slots[slot] = value;
     }
 
     Object getOrDefault(Token name, Object otherwise){
-        if(values.containsKey(name.lexeme)){
-            return values.get(name.lexeme);
+        if(cells!=null){
+            var cell = cells.get(name.lexeme);
+            if(cell!=null) return cell.get();
         }
         if(enclosing!=null) return enclosing.getOrDefault(name, otherwise);
         return otherwise;
     }
 
-    Object getAt(int distance, String name){
-        return ancestor(distance).values.get(name);
+    public void defineDouble(int slot, double value){
+        if(numbers==null) numbers = new double[slots.length];
+        numbers[slot] = value;
+        slots[slot] = UNBOXED;
+    }
+
+    public Object getAt(int distance, int slot){
+        var environment = ancestor(distance);
+        Object value = environment.slots[slot];
+        if(value==UNBOXED) return environment.numbers[slot];
+        return value;
+    }
+
+    public double getDoubleAt(int distance, int slot) throws UnexpectedResultException {
+        var environment = ancestor(distance);
+        Object value = environment.slots[slot];
+        if(value==UNBOXED) return environment.numbers[slot];
+        if(value instanceof Double) return (double)value;
+        throw new UnexpectedResultException(value);
+    }
+
+    public void assignAt(int distance, int slot, Object value){
+        ancestor(distance).slots[slot] = value;
     }
 
-    void assignAt(int distance, Token name, Object value){
-        ancestor(distance).values.put(name.lexeme, value);
+    public void assignDoubleAt(int distance, int slot, double value){
+        ancestor(distance).defineDouble(slot, value);
     }
 
     Environment ancestor(int distance){
@@ -18,6 +18,9 @@ public abstract class Expr {
     public R visitCallExpr(Call expr);
     public R visitAnonFunExpr(AnonFun expr);
     public R visitGetExpr(Get expr);
+    public R visitIncrementExpr(Increment expr);
+    public R visitCompareExpr(Compare expr);
+    public R visitFieldUpdateExpr(FieldUpdate expr);
   }
   public static class Assign extends Expr {
     Assign(Token name, Expr value) {
@@ -31,6 +34,9 @@ public abstract class Expr {
     }
     public final Token name;
     public final Expr value;
+    public int depth = -1;
+    public int slot = -1;
+    public GlobalCell cell = null;
   }
   public static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -46,6 +52,8 @@ public abstract class Expr {
     public final Expr left;
     public final Token operator;
     public final Expr right;
+    public Shape operatorShape = null;
+    public LoxFunction operatorMethod = null;
   }
   public static class Ternary extends Expr {
     Ternary(Expr left, Token op1, Expr middle, Token op2, Expr right) {
@@ -117,6 +125,7 @@ public abstract class Expr {
     public final Expr object;
     public final Token name;
     public final Expr value;
+    public PropertyCache cache = new PropertyCache();
   }
   public static class This extends Expr {
     This(Token keyword) {
@@ -128,6 +137,8 @@ public abstract class Expr {
     return visitor.visitThisExpr(this);
     }
     public final Token keyword;
+    public int depth = -1;
+    public int slot = -1;
   }
   public static class Super extends Expr {
     Super(Token keyword, Token method) {
@@ -141,6 +152,10 @@ public abstract class Expr {
     }
     public final Token keyword;
     public final Token method;
+    public int depth = -1;
+    public int slot = -1;
+    public LoxClass superclass = null;
+    public LoxFunction target = null;
   }
   public static class Unary extends Expr {
     Unary(Token operator, Expr right) {
@@ -165,6 +180,9 @@ public abstract class Expr {
     return visitor.visitVariableExpr(this);
     }
     public final Token name;
+    public int depth = -1;
+    public int slot = -1;
+    public GlobalCell cell = null;
   }
   public static class Call extends Expr {
     Call(Expr calee, Token paren, List<Expr> arguments) {
@@ -193,6 +211,7 @@ public abstract class Expr {
     }
     public final List<Token> params;
     public final List<Stmt> body;
+    public Stmt.Function declaration = null;
   }
   public static class Get extends Expr {
     Get(Expr object, Token name) {
@@ -206,6 +225,56 @@ public abstract class Expr {
     }
     public final Expr object;
     public final Token name;
+    public PropertyCache cache = new PropertyCache();
+  }
+  public static class Increment extends Expr {
+    Increment(Expr.Assign assign, Expr.Variable variable, Expr.Binary operation, double delta) {
+      this.assign = assign;
+      this.variable = variable;
+      this.operation = operation;
+      this.delta = delta;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+    return visitor.visitIncrementExpr(this);
+    }
+    public final Expr.Assign assign;
+    public final Expr.Variable variable;
+    public final Expr.Binary operation;
+    public final double delta;
+  }
+  public static class Compare extends Expr {
+    Compare(Expr.Binary binary, Expr.Variable left, Expr.Variable right, Object constant) {
+      this.binary = binary;
+      this.left = left;
+      this.right = right;
+      this.constant = constant;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+    return visitor.visitCompareExpr(this);
+    }
+    public final Expr.Binary binary;
+    public final Expr.Variable left;
+    public final Expr.Variable right;
+    public final Object constant;
+  }
+  public static class FieldUpdate extends Expr {
+    FieldUpdate(Expr.Set set, Expr.Get get, Expr.Binary operation) {
+      this.set = set;
+      this.get = get;
+      this.operation = operation;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+    return visitor.visitFieldUpdateExpr(this);
+    }
+    public final Expr.Set set;
+    public final Expr.Get get;
+    public final Expr.Binary operation;
   }
 
   public abstract <R> R accept(Visitor<R> visitor);
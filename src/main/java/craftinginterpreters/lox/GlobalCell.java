@@ -0,0 +1,44 @@
+package craftinginterpreters.lox;
+
+//ячейка глобальной переменной: создаётся при первом определении и больше не меняется,
+//поэтому место обращения может один раз сохранить ссылку на неё и дальше читать значение напрямую.
+//число, записанное через setDouble, хранится без упаковки
+public final class GlobalCell {
+    final String name;
+    private Object value;
+    private double number;
+
+    GlobalCell(String name, Object value){
+        this.name = name;
+        this.value = value;
+    }
+
+    public Object get(){
+        if(value==Environment.UNBOXED) return number;
+        return value;
+    }
+
+    public void set(Object value){
+        this.value = value;
+    }
+
+    public double getDouble() throws UnexpectedResultException {
+        if(value==Environment.UNBOXED) return number;
+        if(value instanceof Double) return (double)value;
+        throw new UnexpectedResultException(value);
+    }
+
+    //VM читает число без упаковки в свой стек чисел
+    public boolean isUnboxed(){
+        return value==Environment.UNBOXED;
+    }
+
+    public double number(){
+        return number;
+    }
+
+    public void setDouble(double number){
+        this.number = number;
+        this.value = Environment.UNBOXED;
+    }
+}
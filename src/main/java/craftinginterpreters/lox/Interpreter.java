@@ -1,5 +1,6 @@
 package craftinginterpreters.lox;
 
+import craftinginterpreters.lox.jit.Jit;
 import craftinginterpreters.lox.predefs.NativeLoxFunction;
 import craftinginterpreters.lox.predefs.NativeLoxInstance;
 
@@ -7,23 +8,19 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
-    static class LoxInterpreterControlException extends RuntimeException{} //хак, позволяющий не определять throws
-    static class BreakLoopException extends LoxInterpreterControlException{};
-    static class ContinueLoopException extends LoxInterpreterControlException{};
-    static class Return extends RuntimeException{
-        final Object value;
-        Return(Object value){
-            super(null, null, false, false);
-            this.value = value;
-        }
-    }
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion>{
 
 
     public final Map<String, Environment> importer_files = new HashMap<>();
-    final Environment globals = new Environment();
+    public final Environment globals = new Environment();
+    public Jit jit = null; //--jit: часто вызываемые функции переводятся в байткод JVM
+    LoxFunction profiled = null; //интерпретируемая функция, которой засчитываются итерации циклов
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    private Object returnValue = null; //значение последнего исполненного return
+    //хвостовой вызов, подготовленный return f(...): его исполнит LoxFunction.execute вызывающей функции
+    LoxFunction tailFunction = null;
+    Environment tailFrame = null;
+    LoxInstance tailInstance = null;
     Interpreter(){
         LoxPredefined.bake(this);
 
@@ -51,7 +48,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        return binaryOperation(expr, left, right);
+    }
 
+    //семантика бинарных операторов над уже вычисленными операндами, общая для всех способов исполнения
+    public Object binaryOperation(Expr.Binary expr, Object left, Object right){
         switch (expr.operator.type){
             case MINUS:
                 if(left instanceof LoxInstance){
@@ -64,13 +65,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
                 if(left instanceof Double && right instanceof Double){
                     return (double)left + (double)right;
                 }
-                if(left instanceof String && right instanceof String){
-                    return (String)left + (String)right;
-                }
-
-                if(left instanceof String && right instanceof Double
-                    || left instanceof Double && right instanceof String){
-                    return stringify(left)+stringify(right);
+                if(ConcatString.isString(left) && (ConcatString.isString(right) || right instanceof Double)
+                    || left instanceof Double && ConcatString.isString(right)){
+                    return ConcatString.concat(left, right);
                 }
 
                 if(left instanceof LoxInstance){
@@ -91,12 +88,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
                     checkNumberOperands(expr.operator, left, right);
                     return (double)left * (double)right;
                 }
-                if(left instanceof String){
+                if(ConcatString.isString(left)){
                     checkNumberOperand(expr.operator, right);
                     int repeat_number = (int) Math.round((Double)right);
                     if(repeat_number<=0) throw new RuntimeError(expr.operator,
                         "Right operand of string repetition should be >=1");
-                    return ((String)left).repeat(repeat_number);
+                    return ConcatString.repeat(left, repeat_number);
                 }
                 if(left instanceof LoxInstance){
                     return callSpecialMethod((LoxInstance)left, "star_", right, expr);
@@ -108,8 +105,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
                 if(left instanceof Double && right instanceof Double){
                     return (double)left > (double)right;
                 }
-                if(left instanceof String && right instanceof String){
-                    return ((String) left).compareTo((String)right)>0;
+                if(ConcatString.isString(left) && ConcatString.isString(right)){
+                    return ConcatString.compare(left, right)>0;
                 }
                 if(left instanceof LoxInstance){
                     return callSpecialMethod((LoxInstance)left, "g_", right, expr);
@@ -121,8 +118,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
                 if(left instanceof Double && right instanceof Double){
                     return (double)left >= (double)right;
                 }
-                if(left instanceof String && right instanceof String){
-                    return ((String) left).compareTo((String)right)>=0;
+                if(ConcatString.isString(left) && ConcatString.isString(right)){
+                    return ConcatString.compare(left, right)>=0;
                 }
                 if(left instanceof LoxInstance){
                     return callSpecialMethod((LoxInstance)left, "ge_", right, expr);
@@ -134,8 +131,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
                 if(left instanceof Double && right instanceof Double){
                     return (double)left < (double)right;
                 }
-                if(left instanceof String && right instanceof String){
-                    return ((String) left).compareTo((String)right)<0;
+                if(ConcatString.isString(left) && ConcatString.isString(right)){
+                    return ConcatString.compare(left, right)<0;
                 }
                 if(left instanceof LoxInstance){
                     return callSpecialMethod((LoxInstance)left, "l_", right, expr);
@@ -147,8 +144,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
                 if(left instanceof Double && right instanceof Double){
                     return (double)left <= (double)right;
                 }
-                if(left instanceof String && right instanceof String){
-                    return ((String) left).compareTo((String)right)<=0;
+                if(ConcatString.isString(left) && ConcatString.isString(right)){
+                    return ConcatString.compare(left, right)<=0;
                 }
                 if(left instanceof LoxInstance){
                     return callSpecialMethod((LoxInstance)left, "le_", right, expr);
@@ -169,6 +166,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     }
 
     Object callSpecialMethod(LoxInstance object, String methodName, Object right, Expr.Binary expr){
+        var method = operatorMethod(expr, object);
+        if(method!=null) return method.invoke1(this, object, right);
+        //медленный путь: поле с именем метода, нативные объекты и все случаи ошибок
         Object f;
         try{
             f = object.get(new Token(TokenType.IDENTIFIER, methodName, null, expr.operator.line));
@@ -178,19 +178,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         }
        if(f instanceof LoxFunction){
             LoxFunction ff = (LoxFunction)f;
-            if(!ff.arity().equals(Collections.singleton(1))){
+            if(!ff.acceptsArity(1) || ff.maxArity()!=1){
                 throw new RuntimeError(expr.operator,
                     "wrong arity of special method "+methodName+" on left operand.");
             }
-            return ff.call(this, Collections.singletonList(right));
+            return ff.call1(this, right);
         }
        else if(f instanceof NativeLoxFunction){
            NativeLoxFunction ff = (NativeLoxFunction)f;
-           if(!ff.arity().equals(Collections.singleton(1))){
+           if(!ff.acceptsArity(1) || ff.maxArity()!=1){
                throw new RuntimeError(expr.operator,
                    "wrong arity of special method "+methodName+" on left operand.");
            }
-           return ff.call(this, Collections.singletonList(right));
+           return ff.call1(this, right);
        }
 
        else{
@@ -202,6 +202,24 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
 
 
+    //метод Lox, перегружающий оператор для левого операнда, или null, если нужен медленный путь.
+    //метод оператора запоминается в узле вместе с формой левого операнда;
+    //поле с тем же именем перекрывает метод, такие объекты всегда идут медленным путём
+    public static LoxFunction operatorMethod(Expr.Binary expr, Object left){
+        if(left==null || left.getClass()!=LoxInstance.class) return null;
+        var object = (LoxInstance)left;
+        if(expr.operatorShape==object.shape) return expr.operatorMethod;
+        return findOperatorMethod(object, LoxClass.operatorMethodNames.get(expr.operator.type), expr);
+    }
+
+    private static LoxFunction findOperatorMethod(LoxInstance object, String methodName, Expr.Binary expr){
+        if(methodName==null || object.hasField(methodName)) return null;
+        var method = object.getLoxClass().operatorMethod(expr.operator.type);
+        expr.operatorShape = object.shape;
+        expr.operatorMethod = method;
+        return method;
+    }
+
     @Override
     public Object visitTernaryExpr(Expr.Ternary expr) {
 
@@ -242,51 +260,173 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     @Override
     public Object visitVariableExpr(Expr.Variable expr){
 
-        return lookupVariable(expr.name, expr);
-    }
-
-    private Object lookupVariable(Token name, Expr expr){
-        Integer distance = locals.get(expr);
-        if(distance!=null){
-            return environment.getAt(distance, name.lexeme);
-        }else{
-            return globals.get(name);
+        if(expr.depth>=0){
+            return environment.getAt(expr.depth, expr.slot);
         }
+        var cell = expr.cell;
+        if(cell==null){
+            cell = globals.cell(expr.name);
+            expr.cell = cell;
+        }
+        return cell.get();
     }
 
     @Override
+    //переполнение стека Java сообщается как ошибка Lox в месте вызова. если на её создание
+    //стека уже не хватило, ошибку создаст один из внешних вызовов
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.calee);
+        try{
+            return dispatchCall(expr, false);
+        }catch (RuntimeError e){
+            throw e.atCallSite(expr.paren);
+        }catch (StackOverflowError e){
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        }
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for(Expr argument : expr.arguments){
-            arguments.add(evaluate(argument));
+    //tail: вызов стоит в return, и функцию Lox можно не исполнять, а только подготовить её окружение
+    private Object dispatchCall(Expr.Call expr, boolean tail){
+        //obj.method(...) и super.method(...) вызываются напрямую, без создания связанного метода
+        if(expr.calee instanceof Expr.Get){
+            var get = (Expr.Get)expr.calee;
+            Object object = evaluate(get.object);
+            if(object!=null && object.getClass()==LoxInstance.class){
+                var instance = (LoxInstance)object;
+                var method = get.cache.findMethod(instance, get.name);
+                if(method!=null){
+                    return callFunction(method, instance, expr, tail);
+                }
+            }
+            return callValue(getProperty(object, get), expr, tail);
         }
+        if(expr.calee instanceof Expr.Super){
+            var superExpr = (Expr.Super)expr.calee;
+            var method = findSuperMethod(superExpr);
+            return callFunction(method, (LoxInstance)environment.getAt(superExpr.depth-1, 0), expr, tail);
+        }
+        return callValue(evaluate(expr.calee), expr, tail);
+    }
+
+    private Object callValue(Object callee, Expr.Call expr, boolean tail){
+        if(callee instanceof LoxFunction){
+            var function = (LoxFunction)callee;
+            return callFunction(function, function.receiver, expr, tail);
+        }
+        if(callee!=null && callee.getClass()==LoxClass.class){
+            var initializer = ((LoxClass)callee).initializer();
+            if(initializer!=null){
+                var instance = new LoxInstance((LoxClass)callee);
+                callFunction(initializer, instance, expr, false);
+                return instance;
+            }
+        }
+        //остальные вызываемые объекты получают аргументы через callK, список создаётся только для 4 и более
+        var arguments = expr.arguments;
         if(!(callee instanceof LoxCallable)){
+            evaluateArguments(expr);
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
         LoxCallable function = (LoxCallable) callee;
-        if(!function.arity().contains(arguments.size()))
+        switch (arguments.size()){
+            case 0:
+                checkArity(function, 0, expr.paren);
+                return function.call0(this);
+            case 1: {
+                Object a = evaluate(arguments.get(0));
+                checkArity(function, 1, expr.paren);
+                return function.call1(this, a);
+            }
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                checkArity(function, 2, expr.paren);
+                return function.call2(this, a, b);
+            }
+            case 3: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                checkArity(function, 3, expr.paren);
+                return function.call3(this, a, b, c);
+            }
+            default: {
+                List<Object> values = evaluateArguments(expr);
+                checkArity(function, values.size(), expr.paren);
+                return function.callN(this, values);
+            }
+        }
+    }
+
+    //аргументы вычисляются сразу в окружение вызова, минуя промежуточный список
+    private Object callFunction(LoxFunction function, LoxInstance instance, Expr.Call expr, boolean tail){
+        var arguments = expr.arguments;
+        if(arguments.size()!=function.minArity()){
+            evaluateArguments(expr);
+            checkArity(function, arguments.size(), expr.paren);
+        }
+        var frame = function.newFrame(instance);
+        for(int i=0;i<arguments.size();i++){
+            frame.define(function.parameterSlot(i), evaluate(arguments.get(i)));
+        }
+        //функции со своим циклом исполнения (VM) вызываются как обычно
+        if(tail && function.acceptsTailCall()){
+            prepareTailCall(function, frame, instance);
+            return null;
+        }
+        return function.execute(this, frame, instance);
+    }
+
+    private List<Object> evaluateArguments(Expr.Call expr){
+        List<Object> arguments = new ArrayList<>();
+        for(Expr argument : expr.arguments){
+            arguments.add(evaluate(argument));
+        }
+        return arguments;
+    }
+
+    public static void checkArity(LoxCallable function, int count, Token paren){
+        if(!function.acceptsArity(count))
             {
-            throw new RuntimeError(expr.paren,
+            var arity = function.arity();
+            if(arity.isEmpty()) throw new RuntimeError(paren,
+                String.format("Cannot be called with %d arguments.", count));
+            throw new RuntimeError(paren,
                 String.format("Expected %s arguments but got %d.",
-                    function.arity().stream().map(String::valueOf).collect(Collectors.joining(" or ")),
-                    arguments.size()));
+                    arity.stream().map(String::valueOf).collect(Collectors.joining(" or ")),
+                    count));
         }
-        return function.call(this, arguments, expr.paren);
     }
 
     @Override
     public Object visitAnonFunExpr(Expr.AnonFun expr) {
-        return new LoxFunction(new Stmt.Function(null, expr.params, expr.body, false), environment, false);
+        return new LoxFunction(expr.declaration, closure(expr.declaration, environment), false);
+    }
+
+    //плоское замыкание хранит только копии захваченных переменных (пары глубина-индекс в captures),
+    //поэтому не удерживает окружения, из которых функция ничего не берёт. без captures - вся цепочка
+    public Environment closure(Stmt.Function declaration, Environment environment){
+        var captures = declaration.captures;
+        if(captures==null) return environment;
+        if(captures.length==0) return globals;
+        var closure = new Environment(globals, captures.length/2);
+        for(int i=0;i<captures.length;i+=2){
+            closure.define(i/2, environment.getAt(captures[i], captures[i+1]));
+        }
+        return closure;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
+        return getProperty(evaluate(expr.object), expr);
+    }
+
+    public static Object getProperty(Object object, Expr.Get expr){
         if(object instanceof NativeLoxInstance){
             return ((NativeLoxInstance)object).get(expr.name);
         }
+        if(object!=null && object.getClass()==LoxInstance.class){
+            return expr.cache.get((LoxInstance)object, expr.name);
+        }
         if(object instanceof  LoxInstance){
             return ((LoxInstance)object).get(expr.name);
         }
@@ -298,23 +438,35 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt){
-        stmt.accept(this);
+    private Completion execute(Stmt stmt){
+        return stmt.accept(this);
     }
 
-    void resolve(Expr expr, int depth){
-        locals.put(expr, depth);
+    //объявления верхнего уровня попадают в глобальное окружение по имени, локальные - в свой индекс
+    private void define(int slot, Token name, Object value){
+        if(slot>=0){
+            environment.define(slot, value);
+        }else{
+            globals.define(name.lexeme, value);
+        }
     }
 
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        //переменные блока, которые не удерживает ни одно замыкание, Resolver разместил в текущем окружении
+        if(stmt.inline){
+            for(Stmt statement : stmt.statements){
+                Completion completion = execute(statement);
+                if(completion!=Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        }
+        return executeBlock(stmt.statements, new Environment(environment, stmt.frameSize));
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitClassStmt(Stmt.Class stmt) {
 
         Object superclass = null;
         if(stmt.superclass!=null){
@@ -325,40 +477,56 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         }
 
 
-        environment.define(stmt.name.lexeme, null);
+        define(stmt.slot, stmt.name, null);
 
         if(stmt.superclass!=null){
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment = new Environment(environment, 1);
+            environment.define(0, superclass);
         }
 
         Map<String, LoxCallable> methods = new HashMap<>();
         for(var method : stmt.methods){
-            var function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
+            var function = new LoxFunction(method, closure(method, environment),
+                method.name.lexeme.equals("init"), !method.isStaticClassMethod);
             methods.put(method.name.lexeme, function);
         }
         LoxClass loxClass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, methods);
 
         if(superclass!=null) environment = environment.enclosing;
 
-        environment.assign(stmt.name, loxClass);
-        return null;
+        define(stmt.slot, stmt.name, loxClass);
+        return Completion.NORMAL;
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment){
+    //исполнение прерывается первой инструкцией, завершившейся не NORMAL (break, continue или return)
+    Completion executeBlock(List<Stmt> statements, Environment environment){
         Environment previous = this.environment;
         try{
             this.environment = environment;
 
             for(Stmt statement : statements){
-                execute(statement);
+                Completion completion = execute(statement);
+                if(completion!=Completion.NORMAL) return completion;
             }
+            return Completion.NORMAL;
         } finally{
             this.environment = previous;
         }
     }
 
-    public boolean isTruthy(Object object){
+    public void prepareTailCall(LoxFunction function, Environment frame, LoxInstance instance){
+        tailFunction = function;
+        tailFrame = frame;
+        tailInstance = instance;
+    }
+
+    Object takeReturnValue(){
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    public static boolean isTruthy(Object object){
         if(object==null) return false;
         if(object instanceof Boolean) return (boolean)object;
         if(object instanceof Double){
@@ -368,28 +536,30 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         if(object instanceof String){
             return !"".equals(object);
         }
-        return true; // для ввсех остальных объектов положим true
+        return true; // для ввсех остальных объектов положим true (ConcatString не бывает пустой)
     }
-    private boolean isEqual(Object a, Object b){
+    public static boolean isEqual(Object a, Object b){
         if(a==null && b==null) return true; // nil == nil
         if(a==null) return false; // nil != Object
+        if(a instanceof ConcatString) return a.equals(b);
+        if(b instanceof ConcatString) return b.equals(a);
         return a.equals(b);
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt){
+    public Completion visitExpressionStmt(Stmt.Expression stmt){
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt){
+    public Completion visitIfStmt(Stmt.If stmt){
         if(isTruthy(evaluate(stmt.condition))){
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         }else if(stmt.elseBranch!=null){
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
@@ -408,140 +578,274 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         Object object = evaluate(expr.object);
         if(!(object instanceof LoxInstance)) throw new RuntimeError(expr.name, "Only instances have fields.");
         Object value = evaluate(expr.value);
-        if(object instanceof NativeLoxInstance){
+        setProperty((LoxInstance)object, expr, value);
+        return value;
+    }
+
+    public static void setProperty(LoxInstance object, Expr.Set expr, Object value){
+        if(object.getClass()==LoxInstance.class){
+            expr.cache.set(object, expr.name, value);
+        }else if(object instanceof NativeLoxInstance){
             ((NativeLoxInstance)object).set(expr.name, value);
         }else{
-            ((LoxInstance)object).set(expr.name, value);
+            object.set(expr.name, value);
         }
-
-        return value;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookupVariable(expr.keyword, expr);
+        return environment.getAt(expr.depth, expr.slot);
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        var superclass = (LoxClass)environment.getAt(distance, "super");
-        var object = (LoxInstance)environment.getAt(distance-1, "this");
+        var object = (LoxInstance)environment.getAt(expr.depth-1, 0);
+        return findSuperMethod(expr).bind(object);
+    }
 
+    //окружение с super непосредственно охватывает окружение метода, в нулевом индексе которого лежит this
+    //найденный метод запоминается в узле вместе с суперклассом, для которого он найден
+    private LoxFunction findSuperMethod(Expr.Super expr){
+        var superclass = (LoxClass)environment.getAt(expr.depth, expr.slot);
+        if(expr.superclass==superclass) return expr.target;
         var method = superclass.findMethod(expr.method.lexeme);
         if(method==null){
             throw new RuntimeError(expr.method, "Undefined property `"+expr.method.lexeme+"`.");
         }
-        return ((LoxFunction)method).bind(object);
+        expr.superclass = superclass;
+        expr.target = (LoxFunction)method;
+        return expr.target;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt){
+    public Completion visitWhileStmt(Stmt.While stmt){
         while(isTruthy(evaluate(stmt.condition))){
-            try{
-                execute(stmt.body);
-            }catch (BreakLoopException e){
-                break;
-            }catch (ContinueLoopException ignored){}
-
+            Completion completion = execute(stmt.body);
+            if(completion==Completion.BREAK) break;
+            if(completion==Completion.RETURN) return completion;
+            if(profiled!=null) profiled.countBackEdge(jit);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitForStmt(Stmt.For stmt) {
+    public Completion visitForStmt(Stmt.For stmt) {
         if(stmt.init!=null)
             execute(stmt.init);
+        return loop(stmt);
+    }
 
+    private Completion loop(Stmt.For stmt){
         while(isTruthy(evaluate(stmt.condition))){
-            try{
-                execute(stmt.body);
-            }catch (BreakLoopException e){
-                break;
-            }catch (ContinueLoopException ignored){}
+            Completion completion = execute(stmt.body);
+            if(completion==Completion.BREAK) break;
+            if(completion==Completion.RETURN) return completion;
             if(stmt.increment!=null) //исполняем инкремент даже если мы использовали continue
                 evaluate(stmt.increment);
+            if(profiled!=null) profiled.countBackEdge(jit);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
+    //счётчик живёт в переменной double. условие сравнивает его с границей, которая читается заново
+    //на каждой итерации, а в окружение счётчик записывается без упаковки перед телом, если тело его читает,
+    //и после выхода из цикла, потому что переменная из инициализатора видна и после него
     @Override
-    public Void visitControlStatementStmt(Stmt.ControlStatement stmt)  {
+    public Completion visitCountedForStmt(Stmt.CountedFor stmt){
+        int slot = stmt.variable.slot;
+        if(slot<0) return visitForStmt(stmt.loop); //глобальная переменная: значение видно из любой функции
+        execute(stmt.variable);
+        Object start = environment.getAt(0, slot);
+        if(!(start instanceof Double)) return loop(stmt.loop);
+
+        double counter = (double)start;
+        double step = stmt.increment.delta;
+        var condition = stmt.condition;
+        var operator = condition.binary.operator.type;
+        var result = Completion.NORMAL;
+        while(true){
+            Object bound = condition.right!=null ? visitVariableExpr(condition.right) : condition.constant;
+            if(bound instanceof Double){
+                double limit = (double)bound;
+                boolean proceed;
+                switch (operator){
+                    case LESS: proceed = counter<limit; break;
+                    case LESS_EQUAL: proceed = counter<=limit; break;
+                    case GREATER: proceed = counter>limit; break;
+                    default: proceed = counter>=limit; break;
+                }
+                if(!proceed) break;
+            }else if(!isTruthy(binaryOperation(condition.binary, counter, bound))){
+                break;
+            }
+            if(stmt.readsCounter) environment.defineDouble(slot, counter);
+            Completion completion = execute(stmt.loop.body);
+            if(completion==Completion.BREAK) break;
+            if(completion==Completion.RETURN){
+                result = completion;
+                break;
+            }
+            counter += step;
+            if(profiled!=null) profiled.countBackEdge(jit);
+        }
+        environment.defineDouble(slot, counter);
+        return result;
+    }
+
+    @Override
+    public Completion visitControlStatementStmt(Stmt.ControlStatement stmt)  {
         switch (stmt.parameter.type){
-            case BREAK -> throw new BreakLoopException();
-            case CONTINUE -> throw new ContinueLoopException();
-            default -> {return null;}
+            case BREAK -> {return Completion.BREAK;}
+            case CONTINUE -> {return Completion.CONTINUE;}
+            default -> {return Completion.NORMAL;}
         }
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        LoxFunction function = new LoxFunction(stmt, closure(stmt, environment), false);
+        define(stmt.slot, stmt.name, function);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt){
+    public Completion visitReturnStmt(Stmt.Return stmt){
         Object value = null;
-        if(stmt.value!=null) value = evaluate(stmt.value);
+        if(stmt.tailCall){
+            var call = (Expr.Call)stmt.value;
+            try{
+                value = dispatchCall(call, true);
+            }catch (RuntimeError e){
+                throw e.atCallSite(call.paren);
+            }
+        }else if(stmt.value!=null){
+            value = evaluate(stmt.value);
+        }
 
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt){
+    public Completion visitPrintStmt(Stmt.Print stmt){
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt){
+    public Completion visitVarStmt(Stmt.Var stmt){
         Object value = null;
         if(stmt.initializer != null){
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        define(stmt.slot, stmt.name, value);
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr){
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if(distance!=null){
-            environment.assignAt(distance, expr.name, value);
+        assign(expr, value);
+        return value;
+    }
+
+    private void assign(Expr.Assign expr, Object value){
+        if(expr.depth>=0){
+            environment.assignAt(expr.depth, expr.slot, value);
         }else{
-            globals.assign(expr.name, value);
+            var cell = expr.cell;
+            if(cell==null){
+                cell = globals.cell(expr.name);
+                expr.cell = cell;
+            }
+            cell.set(value);
         }
+    }
+
+    //суперинструкции: переменные читаются напрямую, без обхода дочерних узлов.
+    //если операнды не числа, работает общий binaryOperation с исходным узлом
+    @Override
+    public Object visitIncrementExpr(Expr.Increment expr){
+        Object value = visitVariableExpr(expr.variable);
+        Object result;
+        if(value instanceof Double){
+            result = (double)value + expr.delta;
+        }else{
+            result = binaryOperation(expr.operation, value, ((Expr.Literal)expr.operation.right).value);
+        }
+        assign(expr.assign, result);
+        return result;
+    }
+
+    @Override
+    public Object visitCompareExpr(Expr.Compare expr){
+        Object left = visitVariableExpr(expr.left);
+        Object right = expr.right!=null ? visitVariableExpr(expr.right) : expr.constant;
+        if(left instanceof Double && right instanceof Double){
+            double a = (double)left;
+            double b = (double)right;
+            switch (expr.binary.operator.type){
+                case LESS: return a<b;
+                case LESS_EQUAL: return a<=b;
+                case GREATER: return a>b;
+                case GREATER_EQUAL: return a>=b;
+            }
+        }
+        return binaryOperation(expr.binary, left, right);
+    }
+
+    @Override
+    public Object visitFieldUpdateExpr(Expr.FieldUpdate expr){
+        Object object = evaluate(expr.set.object);
+        if(!(object instanceof LoxInstance)) throw new RuntimeError(expr.set.name, "Only instances have fields.");
+        Object current = getProperty(object, expr.get);
+        Object value = binaryOperation(expr.operation, current, evaluate(expr.operation.right));
+        setProperty((LoxInstance)object, expr.set, value);
         return value;
     }
 
 
     public static String stringify(Object object){
         if(object==null) return "nil";
-        if(object instanceof Double){
-            String text = object.toString();
-            if(text.endsWith(".0")){
-                text = text.substring(0, text.length()-2);
+        if(object instanceof Double) return stringify((double)object);
+        return object.toString();
+    }
+
+    //строки неотрицательных целых, которые печатаются чаще всего
+    private static final String[] SMALL_INTEGERS = new String[1024];
+    static{
+        for(int i = 0; i<SMALL_INTEGERS.length; i++) SMALL_INTEGERS[i] = Integer.toString(i);
+    }
+
+    //целые числа меньше 10^7 по модулю Double.toString пишет как "<цифры>.0": их строка собирается сразу из long.
+    //дробные числа, -0, большие числа в записи с E, NaN и бесконечности форматирует Double.toString
+    public static String stringify(double value){
+        if(value>-1e7 && value<1e7){
+            long integer = (long)value;
+            if(integer==value && (integer!=0 || Double.doubleToRawLongBits(value)==0L)){
+                if(integer>=0 && integer<SMALL_INTEGERS.length) return SMALL_INTEGERS[(int)integer];
+                return Long.toString(integer);
             }
-            return text;
         }
-        return object.toString();
+        String text = Double.toString(value);
+        if(text.endsWith(".0")){
+            text = text.substring(0, text.length()-2);
+        }
+        return text;
     }
 
 
-    private void checkNumberOperand(Token operator, Object operand){
+    public static void checkNumberOperand(Token operator, Object operand){
         if(operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
-    private void checkNumberOperands(Token operator, Object left, Object right){
+    public static void checkNumberOperands(Token operator, Object left, Object right){
         if(left instanceof Double && right instanceof Double) return;
         throw new RuntimeError(operator, "Operands must be numbers");
     }
 
-    private void checkZeroDivision(Token operator, Double right) {
+    public static void checkZeroDivision(Token operator, double right) {
         if (right != 0.0) return;
         throw new RuntimeError(operator, "Zero division");
     }
@@ -0,0 +1,139 @@
+package craftinginterpreters.lox;
+
+import craftinginterpreters.lox.checkers.BaseChecker;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+//jloxc: заранее проводит скрипт и импортируемые им модули через сканер, парсер, Resolver и проверки
+//и собирает исполняемый JAR. в нём лежат разрешённые деревья и классы интерпретатора, а точкой входа
+//служит Precompiled, поэтому при запуске front end не работает вовсе
+public class Jloxc {
+
+    public static void main(String[] args) throws IOException {
+        String output = null;
+        int next = 0;
+        if(args.length>=2 && args[0].equals("-o")){
+            output = args[1];
+            next = 2;
+        }
+        if(args.length-next!=1){
+            System.out.println("usage: jloxc [-o program.jar] script");
+            System.exit(64);
+        }
+        String script = args[next];
+        if(output==null) output = script.replaceFirst("\\.jlox$", "") + ".jar";
+
+        var program = compile(script);
+        var modules = new LinkedHashMap<String, List<Stmt>>();
+        collectModules(program, modules);
+
+        var manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, Precompiled.class.getName());
+        try(var jar = new JarOutputStream(new BufferedOutputStream(Files.newOutputStream(Paths.get(output))), manifest)){
+            writeTree(jar, Precompiled.PROGRAM, program);
+            for(var module : modules.entrySet()){
+                writeTree(jar, Precompiled.MODULES + module.getKey() + ".ast", module.getValue());
+            }
+            copyRuntime(jar);
+        }
+    }
+
+    private static List<Stmt> compile(String filename) throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get(filename));
+        var statements = Lox.frontEnd(new String(bytes, Charset.defaultCharset()));
+        if(statements==null) System.exit(65);
+        return statements;
+    }
+
+    //модули подключаются вызовом import("dir.file.name") со строковым литералом, их можно найти заранее
+    private static void collectModules(List<Stmt> statements, Map<String, List<Stmt>> modules) throws IOException {
+        var imports = new ImportCollector();
+        imports.check(statements);
+        for(String path : imports.paths){
+            if(modules.containsKey(path)) continue;
+            if(!Files.isRegularFile(Paths.get(path))){
+                System.err.println("jloxc: module "+path+" not found, it will be looked up at run time");
+                continue;
+            }
+            modules.put(path, List.of()); //модули могут импортировать друг друга
+            var module = compile(path);
+            modules.put(path, module);
+            collectModules(module, modules);
+        }
+    }
+
+    private static class ImportCollector extends BaseChecker {
+        final List<String> paths = new ArrayList<>();
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr){
+            if(expr.calee instanceof Expr.Variable && ((Expr.Variable)expr.calee).name.lexeme.equals("import")
+                && expr.arguments.size()==1 && expr.arguments.get(0) instanceof Expr.Literal){
+                var argument = ((Expr.Literal)expr.arguments.get(0)).value;
+                if(argument instanceof String){
+                    var path = LoxPredefined.modulePath((String)argument);
+                    if(path!=null) paths.add(path);
+                }
+            }
+            return super.visitCallExpr(expr);
+        }
+    }
+
+    private static void writeTree(JarOutputStream jar, String name, List<Stmt> statements) throws IOException {
+        jar.putNextEntry(new JarEntry(name));
+        var out = new DataOutputStream(jar);
+        new AstWriter(out).write(statements);
+        out.flush();
+        jar.closeEntry();
+    }
+
+    //классы интерпретатора берутся оттуда же, откуда загружен сам jloxc: из каталога или из JAR
+    private static void copyRuntime(JarOutputStream jar) throws IOException {
+        Path root;
+        try{
+            root = Paths.get(Lox.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        }catch (URISyntaxException e){
+            throw new IOException(e);
+        }
+        String prefix = "craftinginterpreters/lox/";
+        if(Files.isDirectory(root)){
+            try(var files = Files.walk(root.resolve(prefix))){
+                for(Path file : (Iterable<Path>)files::iterator){
+                    if(!file.toString().endsWith(".class")) continue;
+                    jar.putNextEntry(new JarEntry(root.relativize(file).toString().replace(File.separatorChar, '/')));
+                    Files.copy(file, jar);
+                    jar.closeEntry();
+                }
+            }
+        }else{
+            try(var source = new JarFile(root.toFile())){
+                for(var entry : (Iterable<JarEntry>)source.stream()::iterator){
+                    if(!entry.getName().startsWith(prefix) || !entry.getName().endsWith(".class")) continue;
+                    jar.putNextEntry(new JarEntry(entry.getName()));
+                    try(var in = source.getInputStream(entry)){
+                        in.transferTo(jar);
+                    }
+                    jar.closeEntry();
+                }
+            }
+        }
+    }
+}
@@ -3,6 +3,9 @@ package craftinginterpreters.lox;
 import craftinginterpreters.lox.checkers.BaseChecker;
 import craftinginterpreters.lox.checkers.CheckExecutor;
 import craftinginterpreters.lox.checkers.PreResolveCheckExecutor;
+import craftinginterpreters.lox.jit.Jit;
+import craftinginterpreters.lox.nodes.NodeEngine;
+import craftinginterpreters.lox.vm.VM;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -15,37 +18,69 @@ import java.util.List;
 public class Lox {
 
     private static final Interpreter interpreter = new Interpreter();
+    private static NodeEngine nodeEngine = null; //--nodes: исполнение деревом узлов вместо обхода AST
+    private static VM vm = null; //--vm: компиляция в байткод и исполнение стековой машиной
 
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
     static boolean reportWarning = false;
+    static boolean reportStatistics = false;
     public static void main(String[] args) throws IOException {
         //у нас есть два варианта использования интерпретатора:
         //исполнение файла или исполнение команд из стандартного ввода
-        if(args.length>2){
-            System.out.println("usage: jlox [script]");
-            System.exit(64);
-        }else if(args.length==1){
-            runFile(args[0]);
-        }else if(args.length==2){
-            if(args[0].startsWith("-")){
-                if(args[0].contains("w")) reportWarning = true;
-                runFile(args[1]);
+        int next = 0;
+        boolean useVm = false;
+        long stackBudget = VM.DEFAULT_BUDGET;
+        while(next<args.length && args[next].startsWith("-")){
+            String option = args[next++];
+            if(option.equals("--nodes")){
+                nodeEngine = new NodeEngine(interpreter);
+            }else if(option.equals("--vm")){
+                useVm = true;
+            }else if(option.startsWith("--stack-budget=")){
+                //бюджет памяти на стек VM в мегабайтах
+                try{
+                    stackBudget = Long.parseLong(option.substring("--stack-budget=".length())) << 20;
+                }catch (NumberFormatException e){
+                    usage();
+                }
+                if(stackBudget<=0) usage();
+            }else if(option.equals("--jit")){
+                interpreter.jit = new Jit(interpreter, false);
+            }else if(option.equals("--jit-log")){
+                interpreter.jit = new Jit(interpreter, true);
+            }else if(!option.startsWith("--")){
+                if(option.contains("w")) reportWarning = true;
+                if(option.contains("s")){
+                    reportStatistics = true;
+                    PropertyCache.collectStatistics = true;
+                }
             }else{
-                System.out.println("usage: jlox [-w] script | jlox");
-                System.exit(64);
+                usage();
             }
+        }
+        if(useVm) vm = new VM(interpreter, stackBudget);
+        if(args.length-next>1){
+            usage();
+        }else if(args.length-next==1){
+            runFile(args[next]);
         } else{
             runPrompt();
         }
 
     }
 
+    private static void usage(){
+        System.out.println("usage: jlox [-ws] [--nodes | --vm [--stack-budget=<MB>] | --jit | --jit-log] [script]");
+        System.exit(64);
+    }
+
     private static void runFile(String filename) throws IOException {
         //благодаря тому, что ЭВМ стали маленькими и мощными, можно целиком прочитать
         // файл исходного кода и обработать его
         byte[] bytes = Files.readAllBytes(Paths.get(filename));
         run(new String(bytes, Charset.defaultCharset()));
+        if(reportStatistics) printStatistics();
         //проверим на наличие ошибок, при их возникновении прекратим исполнение
         if(hadError) System.exit(65);
         if(hadRuntimeError) System.exit(70);
@@ -70,6 +105,13 @@ public class Lox {
     }
 
     private static void run(String source) {
+        var statements = frontEnd(source);
+        if(statements==null) return; //в случае ошибки дерева у нас нет
+        execute(statements);
+    }
+
+    //сканирование, разбор, разрешение и проверки; null, если в исходном коде нашлись ошибки
+    static List<Stmt> frontEnd(String source){
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
         //System.out.println(tokens);
@@ -77,49 +119,57 @@ public class Lox {
         Parser parser = new Parser(tokens);
         List<Stmt> statements = parser.parse();
 
-        if(hadError) return; //в случае ошибки выходим так как дерева тогда у нас нет
+        if(hadError) return null;
 
         var preresolve_check = new PreResolveCheckExecutor();
         preresolve_check.check(statements);
-        if(hadError) return;
+        if(hadError) return null;
 
         var resolver = new Resolver(interpreter);
         resolver.resolve(statements);
-        if(hadError) return;
+        if(hadError) return null;
 
         var checker = new CheckExecutor();
         checker.check(statements);
-        if(hadError) return;
+        if(hadError) return null;
 
-        interpreter.interpret(statements);
+        return statements;
+    }
 
+    private static void execute(List<Stmt> statements){
+        if(nodeEngine==null && vm==null){
+            interpreter.interpret(statements);
+            return;
+        }
+        try{
+            if(vm!=null){
+                vm.execute(statements);
+            }else{
+                nodeEngine.execute(statements);
+            }
+        }catch (RuntimeError error){
+            runtimeError(error);
+        }
     }
 
     public static Environment runForEnvironment(String source){
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        if(hadError) throw new Parser.ParseError(); //в случае ошибки выходим так как дерева тогда у нас нет
-
-        var preresolve_check = new PreResolveCheckExecutor();
-        preresolve_check.check(statements);
-        if(hadError) throw new Resolver.ResolveError();
-
-        var resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-        if(hadError) throw new Resolver.ResolveError();
-
-        var checker = new CheckExecutor();
-        checker.check(statements);
-        if(hadError) throw new Resolver.ResolveError();
+        var statements = frontEnd(source);
+        if(statements==null) throw new Resolver.ResolveError();
+        return executeForEnvironment(statements);
+    }
 
-        interpreter.interpret(statements);
+    static Environment executeForEnvironment(List<Stmt> statements){
+        execute(statements);
         return interpreter.globals;
     }
 
+    //программа, собранная jloxc: дерево уже разрешено, горячие функции сразу уходят в JIT
+    static void runCompiled(List<Stmt> statements){
+        interpreter.jit = new Jit(interpreter, false);
+        execute(statements);
+        if(hadRuntimeError) System.exit(70);
+    }
+
     private static void runAsREPLExpression(String source){
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
@@ -128,7 +178,16 @@ public class Lox {
         try{
             Expr ex = parser.parseAsExpression();
             if(hadError) return; //в случае ошибки выходим так как дерева тогда у нас нет
-            String result = interpreter.interpret(ex);
+            new Resolver(interpreter).resolve(ex);
+            if(hadError) return;
+            String result;
+            if(vm!=null){
+                result = Interpreter.stringify(vm.evaluate(ex));
+            }else if(nodeEngine!=null){
+                result = Interpreter.stringify(nodeEngine.evaluate(ex));
+            }else{
+                result = interpreter.interpret(ex);
+            }
             System.out.println(result);
         }catch (Parser.ParseError ignored){
 
@@ -139,6 +198,11 @@ public class Lox {
     }
 
 
+    //статистика встроенных кэшей, выводится в stderr чтобы не смешиваться с выводом программы
+    private static void printStatistics(){
+        System.err.println(PropertyCache.statistics());
+    }
+
     //сообщения об ошибках
     public static void error(int line, String message){
         report(line, "", message);
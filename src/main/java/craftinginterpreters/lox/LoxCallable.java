@@ -1,25 +1,46 @@
 package craftinginterpreters.lox;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
+//соглашение о вызове: вызовы с 0-3 аргументами идут через callK без создания списка аргументов,
+//остальные - через callN. реализации с фиксированным числом параметров переопределяют нужный callK
 public interface LoxCallable {
-    Set<Integer>  arity();
+    int minArity();
 
-    default Object call(Interpreter interpreter, List<Object> arguments){
-        return call(interpreter, arguments, new Token(TokenType.LEFT_PAREN, "(", null, -1));
+    default int maxArity(){
+        return minArity();
     }
-    default Object call(Interpreter interpreter, List<Object> arguments, Token paren){
-        try{
-            return call(interpreter, arguments);
-        }catch (RuntimeError e){
-            if(e.token.line==-1){
-                throw new RuntimeError(new Token(e.token.type,e.token.lexeme,e.token.literal,paren.line),e.getMessage());
-            }else{
-                throw e;
-            }
-
-        }
 
+    default boolean acceptsArity(int count){
+        return count>=minArity() && count<=maxArity();
+    }
+
+    //допустимые числа аргументов, нужны только для сообщений об ошибках и функции arity
+    default Set<Integer> arity(){
+        Set<Integer> result = new LinkedHashSet<>();
+        for(int i=minArity();i<=maxArity();i++) result.add(i);
+        return result;
+    }
+
+    Object callN(Interpreter interpreter, List<Object> arguments);
+
+    default Object call0(Interpreter interpreter){
+        return callN(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object a){
+        return callN(interpreter, Collections.singletonList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b){
+        return callN(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        return callN(interpreter, Arrays.asList(a, b, c));
     }
 }
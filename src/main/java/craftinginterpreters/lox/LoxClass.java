@@ -3,15 +3,38 @@ package craftinginterpreters.lox;
 import java.util.*;
 
 public class LoxClass extends LoxInstance implements LoxCallable{
+    //методы, перегружающие бинарные операторы; у каждого класса они ищутся один раз при его определении
+    static final Map<TokenType, String> operatorMethodNames = Map.of(
+        TokenType.MINUS, "minus_", TokenType.PLUS, "plus_",
+        TokenType.SLASH, "slash_", TokenType.STAR, "star_",
+        TokenType.GREATER, "g_", TokenType.GREATER_EQUAL, "ge_",
+        TokenType.LESS, "l_", TokenType.LESS_EQUAL, "le_"
+    );
     public static final LoxClass anyClass = new LoxClass("any", null, new HashMap<>());
     final String name;
     final LoxClass superclass;
+    //плоская таблица методов: собственные методы поверх унаследованных, строится один раз при определении класса
     protected final Map<String, LoxCallable> methods;
+    private final LoxFunction initializer;
+    private final LoxFunction[] operators = new LoxFunction[TokenType.values().length];
+    final Shape rootShape = new Shape(this); //начальная форма экземпляров этого класса
+    int fieldCountHint = 0; //наибольшее число полей у экземпляров, под него сразу выделяется массив
     public LoxClass(String name,LoxClass superclass, Map<String, LoxCallable> methods){
         super(anyClass);
         this.name = name;
-        this.methods = methods;
         this.superclass = superclass;
+        var table = new HashMap<String, LoxCallable>();
+        if(superclass!=null) table.putAll(superclass.methods);
+        table.putAll(methods);
+        this.methods = Collections.unmodifiableMap(table);
+        var init = this.methods.get("init");
+        this.initializer = init instanceof LoxFunction ? (LoxFunction)init : null;
+        for(var entry : operatorMethodNames.entrySet()){
+            var method = this.methods.get(entry.getValue());
+            if(method instanceof LoxFunction && method.minArity()==1){
+                operators[entry.getKey().ordinal()] = (LoxFunction)method;
+            }
+        }
     }
 
     @Override
@@ -20,29 +43,55 @@ public class LoxClass extends LoxInstance implements LoxCallable{
     }
 
     @Override
-    public Set<Integer> arity() {
-        var initializer = findMethod("init");
-        if(initializer==null) return Collections.singleton(0);
-        return initializer.arity();
+    public int minArity() {
+        if(initializer==null) return 0;
+        return initializer.minArity();
+    }
+
+    //без инициализатора (в том числе у нативных классов) допустимо ровно minArity аргументов
+    @Override
+    public int maxArity() {
+        if(initializer==null) return minArity();
+        return initializer.maxArity();
+    }
+
+    public LoxFunction initializer(){
+        return initializer;
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call0(Interpreter interpreter) {
+        LoxInstance instance = new LoxInstance(this);
+        if(initializer!=null) initializer.execute(interpreter, initializer.newFrame(instance), instance);
+        return instance;
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        if(initializer==null) return callN(interpreter, Collections.singletonList(a));
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke1(interpreter, instance, a);
+        return instance;
+    }
+
+    @Override
+    public Object callN(Interpreter interpreter, List<Object> arguments) {
         LoxInstance instance = new LoxInstance(this);
 
-        var initializer = (LoxFunction)findMethod("init");
         if(initializer!=null){
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, arguments);
         }
 
         return instance;
     }
 
-    public LoxCallable findMethod(String name){
-        if(methods.containsKey(name)) return methods.get(name);
-        if(superclass!=null) return superclass.findMethod(name);
+    //метод оператора с одним параметром или null, если его нет или он не подходит
+    LoxFunction operatorMethod(TokenType operator){
+        return operators[operator.ordinal()];
+    }
 
-        return null;
+    public LoxCallable findMethod(String name){
+        return methods.get(name);
     }
 
     @Override
@@ -1,45 +1,146 @@
 package craftinginterpreters.lox;
 
-import java.util.Collections;
+import craftinginterpreters.lox.jit.Jit;
+
 import java.util.List;
-import java.util.Set;
 
 public class LoxFunction implements LoxCallable {
     private final Stmt.Function declaration;
     public final Environment closure;
-    private final boolean isInitializer;
+    public final LoxInstance receiver; //получатель связанного метода, у остальных функций null
+    protected final boolean isInitializer;
+    protected final boolean isMethod; //метод получает this в нулевом индексе собственного окружения
     protected LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer){
+        this(declaration, closure, isInitializer, false, null);
+    }
+
+    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, boolean isMethod){
+        this(declaration, closure, isInitializer, isMethod, null);
+    }
+
+    protected LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer,
+                        boolean isMethod, LoxInstance receiver){
         this.declaration = declaration;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.isMethod = isMethod;
+        this.receiver = receiver;
+    }
+
+    //связанный метод нужен только когда метод используется как значение, например var f = obj.m;
+    public LoxFunction bind(LoxInstance instance){
+        return new LoxFunction(declaration, closure, isInitializer, isMethod, instance);
+    }
+
+    @Override
+    public int minArity() {
+        return declaration.params.size();
     }
 
-    LoxFunction bind(LoxInstance instance){
-        var environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+    @Override
+    public Object call0(Interpreter interpreter){
+        return execute(interpreter, newFrame(receiver), receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a){
+        var frame = newFrame(receiver);
+        frame.define(parameterSlot(0), a);
+        return execute(interpreter, frame, receiver);
     }
 
     @Override
-    public Set<Integer> arity() {
-        return Collections.singleton(declaration.params.size());
+    public Object call2(Interpreter interpreter, Object a, Object b){
+        var frame = newFrame(receiver);
+        frame.define(parameterSlot(0), a);
+        frame.define(parameterSlot(1), b);
+        return execute(interpreter, frame, receiver);
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for(int i=0;i<declaration.params.size();i++){
-            environment.define(declaration.params.get(i).lexeme,
-                arguments.get(i));
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        var frame = newFrame(receiver);
+        frame.define(parameterSlot(0), a);
+        frame.define(parameterSlot(1), b);
+        frame.define(parameterSlot(2), c);
+        return execute(interpreter, frame, receiver);
+    }
+
+    @Override
+    public Object callN(Interpreter interpreter, List<Object> arguments) {
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    //вызов метода с явно переданным получателем, без создания связанного метода
+    Object invoke(Interpreter interpreter, LoxInstance instance, List<Object> arguments){
+        var frame = newFrame(instance);
+        for(int i=0;i<arguments.size();i++){
+            frame.define(parameterSlot(i), arguments.get(i));
         }
-        try{
-            interpreter.executeBlock(declaration.body, environment);
-        }catch (Interpreter.Return returnValue){
-            if(isInitializer) return closure.getAt(0,"this");
-            return returnValue.value;
+        return execute(interpreter, frame, instance);
+    }
+
+    Object invoke1(Interpreter interpreter, LoxInstance instance, Object a){
+        var frame = newFrame(instance);
+        frame.define(parameterSlot(0), a);
+        return execute(interpreter, frame, instance);
+    }
+
+    //окружение вызова: у метода в нулевом индексе лежит получатель, параметры идут следом
+    public Environment newFrame(LoxInstance instance){
+        var frame = new Environment(closure, declaration.frameSize);
+        if(isMethod) frame.define(0, instance);
+        return frame;
+    }
+
+    public int parameterSlot(int index){
+        return isMethod ? index + 1 : index;
+    }
+
+    //исполняет тело в уже заполненном окружении вызова; другие способы исполнения переопределяют executeBody.
+    //return f(...) оставляет в интерпретаторе подготовленный вызов, и цикл продолжается уже с телом f,
+    //так что хвостовые вызовы, в том числе взаимно рекурсивные, не увеличивают стек Java
+    public Object execute(Interpreter interpreter, Environment frame, LoxInstance instance){
+        var function = this;
+        while(true){
+            Object result = function.executeBody(interpreter, frame, instance);
+            if(function.isInitializer) return instance;
+            function = interpreter.tailFunction;
+            if(function==null) return result;
+            frame = interpreter.tailFrame;
+            instance = interpreter.tailInstance;
+            interpreter.tailFunction = null;
+            interpreter.tailFrame = null;
+            interpreter.tailInstance = null;
         }
-        if(isInitializer) return closure.getAt(0, "this");
-        return null;
+    }
+
+    //хвостовой вызов можно только подготовить, если функция исполняется циклом execute
+    public boolean acceptsTailCall(){
+        return true;
+    }
+
+    protected Object executeBody(Interpreter interpreter, Environment frame, LoxInstance instance){
+        var compiled = declaration.compiled;
+        if(compiled!=null) return compiled.execute(frame, instance);
+        Completion completion;
+        if(interpreter.jit==null){
+            completion = interpreter.executeBlock(declaration.body, frame);
+        }else{
+            interpreter.jit.countCall(declaration, isMethod);
+            var caller = interpreter.profiled;
+            interpreter.profiled = this;
+            try{
+                completion = interpreter.executeBlock(declaration.body, frame);
+            } finally{
+                interpreter.profiled = caller;
+            }
+        }
+        return completion==Completion.RETURN ? interpreter.takeReturnValue() : null;
+    }
+
+    void countBackEdge(Jit jit){
+        jit.countBackEdge(declaration, isMethod);
     }
 
     @Override
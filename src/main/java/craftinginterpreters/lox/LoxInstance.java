@@ -1,13 +1,19 @@
 package craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class LoxInstance {
+    private static final Object[] NO_VALUES = new Object[0];
     protected LoxClass loxClass;
-    public final Map<String, Object> fields = new HashMap<>();
+    Shape shape;
+    Object[] values;
     public LoxInstance(LoxClass loxClass){
         this.loxClass = loxClass;
+        if(loxClass!=null){
+            this.shape = loxClass.rootShape;
+            this.values = loxClass.fieldCountHint==0 ? NO_VALUES : new Object[loxClass.fieldCountHint];
+        }else{
+            this.shape = new Shape(null); //только для anyClass, который создаётся раньше своего класса
+            this.values = NO_VALUES;
+        }
     }
 
     @Override
@@ -16,13 +22,41 @@ public class LoxInstance {
     }
 
     public Object get(Token name){
-        if(fields.containsKey(name.lexeme)) return fields.get(name.lexeme);
+        int slot = shape.slotOf(name.lexeme);
+        if(slot>=0) return values[slot];
         var method = loxClass.findMethod(name.lexeme);
         if(method!=null) return ((LoxFunction)method).bind(this);
         throw new RuntimeError(name, "Undefined property '"+name.lexeme+"'.");
     }
     public void set(Token name, Object value){
-        fields.put(name.lexeme, value);
+        putField(name.lexeme, value);
+    }
+
+    public boolean hasField(String name){
+        return shape.slotOf(name)>=0;
+    }
+
+    public Object getField(String name){
+        int slot = shape.slotOf(name);
+        return slot>=0 ? values[slot] : null;
+    }
+
+    public void putField(String name, Object value){
+        int slot = shape.slotOf(name);
+        if(slot<0){
+            slot = shape.size;
+            changeShape(shape.withField(name));
+        }
+        values[slot] = value;
+    }
+
+    void changeShape(Shape next){
+        if(values.length<next.size){
+            var grown = new Object[Math.max(next.size, loxClass==null ? 0 : loxClass.fieldCountHint)];
+            System.arraycopy(values, 0, grown, 0, values.length);
+            values = grown;
+        }
+        shape = next;
     }
 
     public LoxClass getLoxClass(){
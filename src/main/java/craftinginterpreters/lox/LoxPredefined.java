@@ -36,14 +36,9 @@ public class LoxPredefined {
     }
 
     static void defineClock(Environment env){
-        env.define("clock", new NativeLoxFunction() {
+        env.define("clock", new NativeLoxFunction(0) {
             @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(0);
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call0(Interpreter interpreter) {
                 return (double)System.currentTimeMillis()/1000.0;
             }
             @Override
@@ -52,21 +47,16 @@ public class LoxPredefined {
     }
 
     static void defineSleep(Environment env) {
-        env.define("sleep", new NativeLoxFunction() {
-            @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(1);
-            }
-
+        env.define("sleep", new NativeLoxFunction(1) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                if(!(arguments.get(0) instanceof Double)){
+            public Object call1(Interpreter interpreter, Object argument) {
+                if(!(argument instanceof Double)){
                     throw new RuntimeError(new Token(TokenType.IDENTIFIER, "sleep", null, -1),
                         "argument must be a number");
                 }
 
                 try {
-                    long time = Math.round((double)arguments.get(0));
+                    long time = Math.round((double)argument);
                     if(time<0){
                         throw new RuntimeError(new Token(TokenType.IDENTIFIER, "sleep", null, -1),
                             "time cannot be negative.");
@@ -92,16 +82,10 @@ public class LoxPredefined {
     }
 
     static void defineType(Environment env){
-        env.define("type", new NativeLoxFunction() {
+        env.define("type", new NativeLoxFunction(1) {
             @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(1);
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                Object argument = arguments.get(0);
-                if(argument instanceof String){
+            public Object call1(Interpreter interpreter, Object argument) {
+                if(ConcatString.isString(argument)){
                     return env.get(new Token(TokenType.IDENTIFIER, "String", null, -1));
                 }
                 if(argument instanceof Double){
@@ -138,16 +122,11 @@ public class LoxPredefined {
     }
 
     static void defineArity(Environment env){
-        env.define("arity", new NativeLoxFunction() {
+        env.define("arity", new NativeLoxFunction(1) {
             @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(1);
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call1(Interpreter interpreter, Object argument) {
                 try{
-                    LoxFunction ff = (LoxFunction)arguments.get(0);
+                    LoxFunction ff = (LoxFunction)argument;
                     return ff.arity();
                 }catch (ClassCastException e){
                     throw new RuntimeError(new Token(TokenType.IDENTIFIER, "arity", null, -1),
@@ -162,37 +141,39 @@ public class LoxPredefined {
     }
 
     static void defineAssert(Environment env){
-        env.define("assert", new NativeLoxFunction() {
+        env.define("assert", new NativeLoxFunction(1) {
             @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(1);
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                Object argument = arguments.get(0);
-                if(!interpreter.isTruthy(argument)) throw new RuntimeError(new Token(TokenType.IDENTIFIER, "assert", null, -1),
+            public Object call1(Interpreter interpreter, Object argument) {
+                if(!Interpreter.isTruthy(argument)) throw new RuntimeError(new Token(TokenType.IDENTIFIER, "assert", null, -1),
                     "assertion error.");
                 return argument;
             }
         });
     }
 
-    static void defineImport(Environment env){
-        env.define("import", new NativeLoxFunction() {
-            @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(1);
-            }
+    //файл модуля для import("dir.file.name") или null, если имя берётся не из файла
+    static String modulePath(String argument){
+        String[] subparams = argument.split("\\.");
+        if(subparams.length<2 || subparams.length==2 && subparams[0].equals("predef")) return null;
+        StringBuilder sb = new StringBuilder();
+        for(int i=0;i<subparams.length-2;i++){
+            sb.append(subparams[i]);
+            sb.append("/");
+        }
+        return sb.toString() + subparams[subparams.length-2] + ".jlox";
+    }
 
+    static void defineImport(Environment env){
+        env.define("import", new NativeLoxFunction(1) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                if(!(arguments.get(0) instanceof String)){
+            public Object call1(Interpreter interpreter, Object value) {
+                value = ConcatString.flatten(value);
+                if(!(value instanceof String)){
                     throw new RuntimeError(new Token(TokenType.IDENTIFIER, "import", null, -1),
                         "argument must be a string.");
                 }
 
-                String argument = (String)arguments.get(0);
+                String argument = (String)value;
 
                 String[] subparams = argument.split("\\.");
 
@@ -210,12 +191,7 @@ public class LoxPredefined {
 
                 }
                 if(subparams.length>=2){
-                    StringBuilder sb = new StringBuilder();
-                    for(int i=0;i<subparams.length-2;i++){
-                        sb.append(subparams[i]);
-                        sb.append("/");
-                    }
-                    String path = sb.toString() + subparams[subparams.length-2] + ".jlox";
+                    String path = modulePath(argument);
                     String fname = subparams[subparams.length-1];
 
 
@@ -255,6 +231,8 @@ public class LoxPredefined {
             }
 
             private Environment executeForEnvironment(String filename) throws IOException{
+                var compiled = Precompiled.module(filename);
+                if(compiled!=null) return Lox.executeForEnvironment(compiled);
                 byte[] bytes = Files.readAllBytes(Paths.get(filename));
                 return Lox.runForEnvironment(new String(bytes, Charset.defaultCharset()));
             }
@@ -198,7 +198,7 @@ public class Parser {
         }
         return body;
          */
-        return new Stmt.For(initializer, condition, body, increment);
+        return CountedLoops.specialize(new Stmt.For(initializer, condition, body, increment));
     }
 
     private Stmt loopcontrolStatement(){
@@ -226,10 +226,10 @@ public class Parser {
 
             if(expr instanceof Expr.Variable){
                 Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
+                return Superinstructions.assign(new Expr.Assign(name, value));
             }else if(expr instanceof Expr.Get){
                 Expr.Get get = (Expr.Get)expr;
-                return new Expr.Set(get.object, get.name, value);
+                return Superinstructions.set(new Expr.Set(get.object, get.name, value));
             }
 
             error(equals, "Invalid assignment target.");
@@ -260,7 +260,7 @@ public class Parser {
                     ), value);
                     default -> null;
                 };
-                return new Expr.Assign(name, shorthand);
+                return Superinstructions.assign(new Expr.Assign(name, shorthand));
             }
 
             error(equals, "Invalid assignment target.");
@@ -365,7 +365,7 @@ public class Parser {
         while(match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)){
             Token operator = previous();
             Expr right = addition();
-            expr = new Expr.Binary(expr, operator, right);
+            expr = Superinstructions.comparison(new Expr.Binary(expr, operator, right));
         }
 
         return expr;
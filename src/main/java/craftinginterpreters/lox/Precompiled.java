@@ -0,0 +1,33 @@
+package craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.List;
+
+//точка входа JAR, собранного jloxc. программа и модули для import() лежат в нём уже разрешёнными деревьями
+public class Precompiled {
+    static final String PROGRAM = "lox/program.ast";
+    static final String MODULES = "lox/modules/";
+
+    public static void main(String[] args) throws IOException {
+        var statements = load(PROGRAM);
+        if(statements==null){
+            System.err.println("No compiled Lox program in the class path.");
+            System.exit(64);
+        }
+        Lox.runCompiled(statements);
+    }
+
+    //модуль, который jloxc положил в JAR, или null: тогда import читает файл как обычно
+    static List<Stmt> module(String path) throws IOException {
+        return load(MODULES + path + ".ast");
+    }
+
+    private static List<Stmt> load(String resource) throws IOException {
+        try(var stream = Precompiled.class.getClassLoader().getResourceAsStream(resource)){
+            if(stream==null) return null;
+            return new AstReader(new DataInputStream(new BufferedInputStream(stream))).read();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+//встроенный кэш места обращения obj.name или obj.name = value: для нескольких последних форм
+//получателя запоминает индекс поля, найденный метод или переход формы при добавлении поля,
+//чтобы не искать их по имени при каждом обращении.
+//если форм больше POLYMORPHIC_LIMIT, место считается мегаморфным и кэш отключается
+public final class PropertyCache {
+    static final int POLYMORPHIC_LIMIT = 4;
+
+    //счётчики нужны только для ключа -s; без него на быстром пути они не пишутся
+    static boolean collectStatistics = false;
+    static long hits = 0;
+    static long misses = 0;
+    static long megamorphicLookups = 0;
+
+    private final Shape[] shapes = new Shape[POLYMORPHIC_LIMIT];
+    private final int[] slots = new int[POLYMORPHIC_LIMIT];
+    private final LoxCallable[] methods = new LoxCallable[POLYMORPHIC_LIMIT];
+    private final Shape[] transitions = new Shape[POLYMORPHIC_LIMIT];
+    private int size = 0;
+    private boolean megamorphic = false;
+
+    Object get(LoxInstance instance, Token name){
+        var shape = instance.shape;
+        for(int i=0;i<size;i++){
+            if(shapes[i]==shape){
+                if(collectStatistics) hits++;
+                if(slots[i]>=0) return instance.values[slots[i]];
+                return bindMethod(instance, methods[i], name);
+            }
+        }
+        if(megamorphic){
+            if(collectStatistics) megamorphicLookups++;
+            return instance.get(name);
+        }
+        if(collectStatistics) misses++;
+        int slot = shape.slotOf(name.lexeme);
+        LoxCallable method = slot<0 ? shape.loxClass.findMethod(name.lexeme) : null;
+        record(shape, slot, method, null);
+        if(slot>=0) return instance.values[slot];
+        return bindMethod(instance, method, name);
+    }
+
+    //метод, который нашёлся бы по obj.name, или null, если это поле или свойства нет;
+    //позволяет вызвать метод, не создавая связанный метод
+    public LoxFunction findMethod(LoxInstance instance, Token name){
+        var shape = instance.shape;
+        for(int i=0;i<size;i++){
+            if(shapes[i]==shape){
+                if(collectStatistics) hits++;
+                return slots[i]<0 ? (LoxFunction)methods[i] : null;
+            }
+        }
+        if(megamorphic){
+            if(collectStatistics) megamorphicLookups++;
+            return shape.slotOf(name.lexeme)<0 ? (LoxFunction)shape.loxClass.findMethod(name.lexeme) : null;
+        }
+        if(collectStatistics) misses++;
+        int slot = shape.slotOf(name.lexeme);
+        LoxCallable method = slot<0 ? shape.loxClass.findMethod(name.lexeme) : null;
+        record(shape, slot, method, null);
+        return (LoxFunction)method;
+    }
+
+    void set(LoxInstance instance, Token name, Object value){
+        var shape = instance.shape;
+        for(int i=0;i<size;i++){
+            if(shapes[i]==shape){
+                if(collectStatistics) hits++;
+                if(transitions[i]!=null) instance.changeShape(transitions[i]);
+                instance.values[slots[i]] = value;
+                return;
+            }
+        }
+        if(megamorphic){
+            if(collectStatistics) megamorphicLookups++;
+            instance.set(name, value);
+            return;
+        }
+        if(collectStatistics) misses++;
+        int slot = shape.slotOf(name.lexeme);
+        Shape transition = null;
+        if(slot<0){
+            slot = shape.size;
+            transition = shape.withField(name.lexeme);
+        }
+        record(shape, slot, null, transition);
+        if(transition!=null) instance.changeShape(transition);
+        instance.values[slot] = value;
+    }
+
+    private void record(Shape shape, int slot, LoxCallable method, Shape transition){
+        if(size==POLYMORPHIC_LIMIT){
+            megamorphic = true;
+            Arrays.fill(shapes, null);
+            Arrays.fill(methods, null);
+            Arrays.fill(transitions, null);
+            size = 0;
+            return;
+        }
+        shapes[size] = shape;
+        slots[size] = slot;
+        methods[size] = method;
+        transitions[size] = transition;
+        size++;
+    }
+
+    private static Object bindMethod(LoxInstance instance, LoxCallable method, Token name){
+        if(method!=null) return ((LoxFunction)method).bind(instance);
+        throw new RuntimeError(name, "Undefined property '"+name.lexeme+"'.");
+    }
+
+    static String statistics(){
+        return String.format("property cache: %d hits, %d misses, %d megamorphic lookups",
+            hits, misses, megamorphicLookups);
+    }
+}
@@ -1,24 +1,90 @@
 package craftinginterpreters.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 //variable resolution
 //public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     public class Resolver extends craftinginterpreters.lox.checkers.BaseChecker{
         public static class ResolveError extends RuntimeException{}
-    //TODO обращение к локальным переменным по идексу с адресацией в массиее вместо String и HashMap
+    //каждой локальной переменной назначается индекс в массиве окружения её области видимости,
+    //результаты разрешения записываются прямо в узлы дерева
+    private static class Local{
+        final Scope scope;
+        final Stmt declaration; //Var, Function или Class; у параметров, this и super - null
+        int slot = -1;
+        boolean defined = false;
+        boolean initialized = false; //объявление исполнено, значение уже лежит в окружении
+        boolean assigned = false;    //переменной что-то присваивается после объявления
+        boolean capturedEarly = false; //замыкание создаётся раньше, чем переменная получает значение
+        boolean shared = false;      //super: по нему находится this метода, поэтому копировать нельзя
+        boolean escapes = false;     //окружение с переменной удерживает замыкание, поэтому оно нужно своё
+        Local(Scope scope, Stmt declaration){
+            this.scope = scope;
+            this.declaration = declaration;
+        }
+
+        //значение можно скопировать в замыкание: при его создании оно уже есть и больше не меняется
+        boolean copyable(){
+            return !assigned && !capturedEarly && !shared;
+        }
+    }
+
+    private static class Scope{
+        final Scope parent;
+        final Closure closure; //у области видимости тела функции - сама функция
+        final Stmt.Block block; //у области видимости блока - сам блок
+        final Map<String, Local> locals = new HashMap<>();
+        //переменные и вложенные области в порядке появления: индексы вложенного блока без своего
+        //окружения освобождаются после него и достаются следующим переменным
+        final List<Object> items = new ArrayList<>();
+        boolean inline = false; //переменные лежат в окружении объемлющей области
+        Scope(Scope parent, Closure closure, Stmt.Block block){
+            this.parent = parent;
+            this.closure = closure;
+            this.block = block;
+            if(parent!=null) parent.items.add(this);
+        }
+    }
+
+    //функция и переменные объемлющих областей, которые она использует сама или через вложенные функции
+    private static class Closure{
+        final Stmt.Function declaration;
+        Scope scope; //область видимости тела
+        final Map<Local, Integer> captures = new LinkedHashMap<>();
+        boolean flat;
+        Closure(Stmt.Function declaration){
+            this.declaration = declaration;
+        }
+    }
+
+    //обращение к локальной переменной; глубина и индекс записываются в узел, когда известно,
+    //какие функции между обращением и объявлением получат плоское замыкание
+    private static class Reference{
+        final Expr node;
+        final Scope from;
+        final Local local;
+        Reference(Expr node, Scope from, Local local){
+            this.node = node;
+            this.from = from;
+            this.local = local;
+        }
+    }
+
     private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private Scope current = null;
+    private final List<Reference> references = new ArrayList<>();
+    private final List<Closure> closures = new ArrayList<>();
     Resolver(Interpreter interpreter){
         this.interpreter = interpreter;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt){
-        beginScope();
+        beginScope(stmt);
         resolve(stmt.statements);
         endScope();
         return null;
@@ -26,7 +92,7 @@ import java.util.Stack;
 
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
-        declare(stmt.name);
+        var local = declare(stmt.name, stmt);
         define(stmt.name);
 
         if(stmt.superclass !=null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)){
@@ -39,79 +105,123 @@ import java.util.Stack;
         }
 
         if(stmt.superclass!=null){
-            beginScope();
-            scopes.peek().put("super", true);
+            beginScope(null);
+            var superclass = declare(stmt.superclass.name, "super", null);
+            define("super");
+            superclass.initialized = true;
+            superclass.shared = true;
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for(var method : stmt.methods){
             var declaration = method.name.lexeme.equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            if(method.isStaticClassMethod) declaration = FunctionType.FUNCTION;
 
             resolveFunction(method, declaration);
         }
-        endScope();
 
         if(stmt.superclass!=null) endScope();
+        initialize(local);
         return null;
     }
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt){
-        declare(stmt.name);
+        var local = declare(stmt.name, stmt);
         if(stmt.initializer!=null){
             resolve(stmt.initializer);
         }
         define(stmt.name);
+        initialize(local);
         return null;
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        var local = declare(stmt.name, stmt);
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
+        initialize(local);
         return null;
     }
 
-    private void beginScope(){
-        scopes.push(new HashMap<>());
+    //block - null у области с superclass
+    private void beginScope(Stmt.Block block){
+        current = new Scope(current, null, block);
     }
 
+    //когда закрывается внешняя область, все обращения в ней известны, и их можно разместить
     private void endScope(){
-        scopes.pop();
+        var scope = current;
+        current = current.parent;
+        if(current==null) layout(scope);
+    }
+
+    //переменная, объявленная в текущей области видимости; null на верхнем уровне
+    private Local lookup(String lexeme){
+        return current!=null ? current.locals.get(lexeme) : null;
+    }
+
+    private void initialize(Local local){
+        if(local!=null) local.initialized = true;
     }
 
-    private void declare(Token name){
-        if (scopes.isEmpty()) return;
-        var scope = scopes.peek();
-        if(scope.containsKey(name.lexeme)){
+    private Local declare(Token name, Stmt declaration){
+        return declare(name, name.lexeme, declaration);
+    }
+
+    //на верхнем уровне переменная глобальная, и возвращается null
+    private Local declare(Token name, String lexeme, Stmt declaration){
+        if (current==null) return null;
+        var scope = current.locals;
+        if(scope.containsKey(lexeme)){
             Lox.error(name, "Variable with this name already declared in this scope");
         }
-        scope.put(name.lexeme, false);
+        var local = new Local(current, declaration);
+        scope.put(lexeme, local);
+        current.items.add(local);
+        return local;
     }
 
     private void define(Token name){
-        if(scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        define(name.lexeme);
+    }
+
+    private void define(String lexeme){
+        if(current==null) return;
+        current.locals.get(lexeme).defined = true;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+    //находит объявление переменной и запоминает обращение к ней; глобальные переменные остаются с глубиной -1.
+    //каждая функция между обращением и объявлением захватывает переменную
+    private void resolveLocal(Expr node, String lexeme, boolean assignment) {
+        for (var scope = current; scope!=null; scope = scope.parent) {
+            var local = scope.locals.get(lexeme);
+            if (local==null) continue;
+            if (assignment) local.assigned = true;
+            for (var inner = current; inner!=scope; inner = inner.parent) {
+                if (inner.closure==null) continue;
+                inner.closure.captures.putIfAbsent(local, inner.closure.captures.size());
+                if (!local.initialized) local.capturedEarly = true;
             }
+            references.add(new Reference(node, current, local));
+            return;
         }
         // переменная не была найдена, так что положим что она глобальная
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type){
-        beginScope();
+        var closure = new Closure(function);
+        closures.add(closure);
+        current = new Scope(current, closure, null);
+        closure.scope = current;
+        if(type==FunctionType.METHOD || type==FunctionType.INITIALIZER){
+            //this передаётся в окружение метода при вызове и всегда занимает индекс 0
+            initialize(declare(function.name, "this", null));
+            define("this");
+        }
         for(Token param: function.params){
-            declare(param);
+            initialize(declare(param, null));
             define(param);
         }
         resolve(function.body);
@@ -119,46 +229,157 @@ import java.util.Stack;
 
     }
 
+    //функция получает плоское замыкание - окружение с копиями захваченных переменных, - если все они
+    //копируемые. иначе замыканием остаётся вся цепочка окружений, как раньше.
+    //блок получает своё окружение, только если его переменную держит такое замыкание или он на верхнем
+    //уровне; остальные блоки раскладывают переменные по свободным индексам объемлющего окружения
+    private void layout(Scope root){
+        for(var closure : closures){
+            closure.flat = true;
+            for(var local : closure.captures.keySet()){
+                if(!local.copyable()) closure.flat = false;
+            }
+        }
+        for(var closure : closures){
+            if(closure.flat) continue;
+            for(var local : closure.captures.keySet()){
+                //путь, оборванный плоским замыканием, не доходит до окружения переменной
+                var scope = closure.scope;
+                while(scope!=local.scope && (scope==closure.scope || scope.closure==null || !scope.closure.flat)){
+                    scope = scope.parent;
+                }
+                if(scope==local.scope) local.escapes = true;
+            }
+        }
+        place(root, 0);
+        for(var reference : references){
+            long address = address(reference.from, reference.local);
+            int depth = (int)(address >>> 32), slot = (int)address;
+            var node = reference.node;
+            if(node instanceof Expr.Variable){
+                ((Expr.Variable)node).depth = depth;
+                ((Expr.Variable)node).slot = slot;
+            }else if(node instanceof Expr.Assign){
+                ((Expr.Assign)node).depth = depth;
+                ((Expr.Assign)node).slot = slot;
+            }else if(node instanceof Expr.This){
+                ((Expr.This)node).depth = depth;
+                ((Expr.This)node).slot = slot;
+            }else{
+                ((Expr.Super)node).depth = depth;
+                ((Expr.Super)node).slot = slot;
+            }
+        }
+        for(var closure : closures){
+            if(!closure.flat) continue;
+            //источники копий: адреса переменных в окружении, где создаётся замыкание
+            var captures = new int[closure.captures.size()*2];
+            for(var entry : closure.captures.entrySet()){
+                long address = address(closure.scope.parent, entry.getKey());
+                captures[entry.getValue()*2] = (int)(address >>> 32);
+                captures[entry.getValue()*2+1] = (int)address;
+            }
+            closure.declaration.captures = captures;
+        }
+        references.clear();
+        closures.clear();
+    }
+
+    //раскладывает переменные области начиная с индекса next и возвращает размер окружения,
+    //который нужен ей и вложенным блокам без своего окружения
+    private static int place(Scope scope, int next){
+        if(scope.block!=null){
+            scope.inline = scope.parent!=null;
+            for(var local : scope.locals.values()){
+                if(local.escapes) scope.inline = false;
+            }
+        }
+        if(!scope.inline) next = 0;
+        int size = next;
+        for(var item : scope.items){
+            if(item instanceof Local){
+                var local = (Local)item;
+                local.slot = next++;
+                size = Math.max(size, next);
+                if(local.declaration instanceof Stmt.Var){
+                    ((Stmt.Var)local.declaration).slot = local.slot;
+                }else if(local.declaration instanceof Stmt.Function){
+                    ((Stmt.Function)local.declaration).slot = local.slot;
+                }else if(local.declaration instanceof Stmt.Class){
+                    ((Stmt.Class)local.declaration).slot = local.slot;
+                }
+            }else{
+                var inner = (Scope)item;
+                int used = place(inner, next);
+                if(inner.inline) size = Math.max(size, used);
+            }
+        }
+        if(scope.closure!=null) scope.closure.declaration.frameSize = size;
+        if(scope.block!=null){
+            scope.block.inline = scope.inline;
+            scope.block.frameSize = scope.inline ? 0 : size;
+        }
+        return size;
+    }
+
+    //глубина и индекс переменной для кода в области видимости from: считаются только области со своим
+    //окружением. путь наверх обрывается на первой функции с плоским замыканием: переменная лежит в нём
+    //под индексом захвата
+    private static long address(Scope from, Local local){
+        int depth = 0;
+        for(var scope = from; scope!=local.scope; scope = scope.parent){
+            if(scope.closure!=null && scope.closure.flat){
+                return (long)(depth+1) << 32 | scope.closure.captures.get(local);
+            }
+            if(!scope.inline) depth++;
+        }
+        return (long)depth << 32 | local.slot;
+    }
+
+    //return f(...): после вызова функции делать нечего, и Interpreter исполняет вызов в том же кадре Java,
+    //что и вызывающую функцию. в инициализаторе return со значением запрещён, так что его здесь не бывает
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        stmt.tailCall = stmt.value instanceof Expr.Call;
+        return super.visitReturnStmt(stmt);
+    }
+
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr, expr.name.lexeme, true);
         return null;
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr, "this", false);
         return null;
     }
 
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr, "super", false);
         return null;
     }
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() &&
-            scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+        var local = lookup(expr.name.lexeme);
+        if (local!=null && !local.defined) {
             Lox.error(expr.name,
                 "Cannot read local variable in its own initializer.");
         }
 
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr, expr.name.lexeme, false);
         return null;
     }
 
+    //объявление создаётся один раз, и все замыкания выражения разделяют его вместе с телом и счётчиками JIT
     @Override
     public Void visitAnonFunExpr(Expr.AnonFun expr) {
-        beginScope();
-        for(Token param: expr.params){
-            declare(param);
-            define(param);
-        }
-        resolve(expr.body);
-        endScope();
+        expr.declaration = new Stmt.Function(null, expr.params, expr.body, false);
+        resolveFunction(expr.declaration, FunctionType.FUNCTION);
         return null;
     }
 
@@ -6,4 +6,10 @@ public class RuntimeError extends RuntimeException{
         super(message);
         this.token = token;
     }
+
+    //ошибки нативных функций не знают строки вызова: место вызова подставляет свою
+    public RuntimeError atCallSite(Token paren){
+        if(token.line!=-1) return this;
+        return new RuntimeError(new Token(token.type, token.lexeme, token.literal, paren.line), getMessage());
+    }
 }
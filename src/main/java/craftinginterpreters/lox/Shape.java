@@ -0,0 +1,43 @@
+package craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//скрытый класс экземпляра: отображает имена полей в индексы массива значений.
+//экземпляры одного класса, получившие поля в одном порядке, разделяют одну форму,
+//переходы при добавлении поля кэшируются
+public final class Shape {
+    final LoxClass loxClass;
+    final int size;
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    Shape(LoxClass loxClass){
+        this.loxClass = loxClass;
+        this.size = 0;
+        this.slots = new HashMap<>();
+    }
+
+    private Shape(Shape parent, String name){
+        this.loxClass = parent.loxClass;
+        this.size = parent.size + 1;
+        this.slots = new HashMap<>(parent.slots);
+        this.slots.put(name, parent.size);
+    }
+
+    int slotOf(String name){
+        Integer slot = slots.get(name);
+        return slot==null ? -1 : slot;
+    }
+
+    //новое поле всегда получает индекс size исходной формы
+    Shape withField(String name){
+        var next = transitions.get(name);
+        if(next==null){
+            next = new Shape(this, name);
+            transitions.put(name, next);
+            if(loxClass!=null && next.size>loxClass.fieldCountHint) loxClass.fieldCountHint = next.size;
+        }
+        return next;
+    }
+}
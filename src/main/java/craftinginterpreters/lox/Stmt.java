@@ -15,6 +15,7 @@ public abstract class Stmt {
     public R visitControlStatementStmt(ControlStatement stmt);
     public R visitFunctionStmt(Function stmt);
     public R visitReturnStmt(Return stmt);
+    public R visitCountedForStmt(CountedFor stmt);
   }
   public static class Block extends Stmt {
     Block(List<Stmt> statements) {
@@ -26,6 +27,8 @@ public abstract class Stmt {
     return visitor.visitBlockStmt(this);
     }
     public final List<Stmt> statements;
+    public int frameSize = 0;
+    public boolean inline = false;
   }
   public static class Class extends Stmt {
     Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
@@ -41,6 +44,7 @@ public abstract class Stmt {
     public final Token name;
     public final Expr.Variable superclass;
     public final List<Stmt.Function> methods;
+    public int slot = -1;
   }
   public static class Expression extends Stmt {
     Expression(Expr expression) {
@@ -91,6 +95,7 @@ public abstract class Stmt {
     }
     public final Token name;
     public final Expr initializer;
+    public int slot = -1;
   }
   public static class While extends Stmt {
     While(Expr condition, Stmt body) {
@@ -149,6 +154,13 @@ public abstract class Stmt {
     public final List<Token> params;
     public final List<Stmt> body;
     public final boolean isStaticClassMethod;
+    public int slot = -1;
+    public int frameSize = 0;
+    public int[] captures = null;
+    public int invocations = 0;
+    public int backEdges = 0;
+    public boolean queued = false;
+    public volatile craftinginterpreters.lox.jit.JitCode compiled = null;
   }
   public static class Return extends Stmt {
     Return(Token keyword, Expr value) {
@@ -162,6 +174,26 @@ public abstract class Stmt {
     }
     public final Token keyword;
     public final Expr value;
+    public boolean tailCall = false;
+  }
+  public static class CountedFor extends Stmt {
+    CountedFor(Stmt.For loop, Stmt.Var variable, Expr.Compare condition, Expr.Increment increment, boolean readsCounter) {
+      this.loop = loop;
+      this.variable = variable;
+      this.condition = condition;
+      this.increment = increment;
+      this.readsCounter = readsCounter;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+    return visitor.visitCountedForStmt(this);
+    }
+    public final Stmt.For loop;
+    public final Stmt.Var variable;
+    public final Expr.Compare condition;
+    public final Expr.Increment increment;
+    public final boolean readsCounter;
   }
 
   public abstract <R> R accept(Visitor<R> visitor);
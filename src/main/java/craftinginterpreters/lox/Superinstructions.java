@@ -0,0 +1,64 @@
+package craftinginterpreters.lox;
+
+//частые сочетания узлов заменяются одним узлом, который Interpreter исполняет без обхода поддеревьев:
+//счётчик цикла, сравнение переменных и изменение поля на месте. замена делается при построении дерева
+//(Parser и AstReader), а сам узел хранит исходное выражение, поэтому Resolver, проверки и остальные
+//способы исполнения просто обходят исходное выражение
+final class Superinstructions {
+    private Superinstructions(){}
+
+    //i = i + 1, i = i - 1 и i += 1, который Parser разворачивает в то же дерево
+    static Expr assign(Expr.Assign assign){
+        if(!(assign.value instanceof Expr.Binary)) return assign;
+        var operation = (Expr.Binary)assign.value;
+        var type = operation.operator.type;
+        if(type!=TokenType.PLUS && type!=TokenType.MINUS) return assign;
+        if(!isVariable(operation.left, assign.name.lexeme) || !isNumber(operation.right)) return assign;
+        //для double x - c совпадает с x + (-c), поэтому вычитание хранится как прибавление
+        double constant = (double)((Expr.Literal)operation.right).value;
+        return new Expr.Increment(assign, (Expr.Variable)operation.left, operation,
+            type==TokenType.PLUS ? constant : -constant);
+    }
+
+    //i < n и i < 10
+    static Expr comparison(Expr.Binary binary){
+        if(!(binary.left instanceof Expr.Variable)) return binary;
+        var left = (Expr.Variable)binary.left;
+        if(binary.right instanceof Expr.Variable){
+            return new Expr.Compare(binary, left, (Expr.Variable)binary.right, null);
+        }
+        if(isNumber(binary.right)){
+            return new Expr.Compare(binary, left, null, ((Expr.Literal)binary.right).value);
+        }
+        return binary;
+    }
+
+    //obj.field = obj.field + x: объект вычисляется один раз
+    static Expr set(Expr.Set set){
+        if(!(set.value instanceof Expr.Binary)) return set;
+        var operation = (Expr.Binary)set.value;
+        switch (operation.operator.type){
+            case PLUS: case MINUS: case STAR: case SLASH: break;
+            default: return set;
+        }
+        if(!(operation.left instanceof Expr.Get)) return set;
+        var get = (Expr.Get)operation.left;
+        if(!get.name.lexeme.equals(set.name.lexeme) || !isSameObject(set.object, get.object)) return set;
+        return new Expr.FieldUpdate(set, get, operation);
+    }
+
+    private static boolean isVariable(Expr expr, String name){
+        return expr instanceof Expr.Variable && ((Expr.Variable)expr).name.lexeme.equals(name);
+    }
+
+    private static boolean isNumber(Expr expr){
+        return expr instanceof Expr.Literal && ((Expr.Literal)expr).value instanceof Double;
+    }
+
+    //чтение переменной или this не имеет побочных эффектов, и внутри одного выражения
+    //одно имя означает одну и ту же переменную, так что второе чтение вернёт то же значение
+    private static boolean isSameObject(Expr a, Expr b){
+        if(a instanceof Expr.This) return b instanceof Expr.This;
+        return a instanceof Expr.Variable && isVariable(b, ((Expr.Variable)a).name.lexeme);
+    }
+}
@@ -0,0 +1,16 @@
+package craftinginterpreters.lox;
+
+//типизированное исполнение получило значение не того типа, который ожидалось.
+//несёт само значение, чтобы вызывающий мог продолжить исполнение в общем виде
+public final class UnexpectedResultException extends Exception {
+    private final Object result;
+
+    public UnexpectedResultException(Object result){
+        super(null, null, false, false);
+        this.result = result;
+    }
+
+    public Object getResult(){
+        return result;
+    }
+}
@@ -104,6 +104,25 @@ public class BaseChecker implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    //суперинструкции проверяются по исходному выражению
+    @Override
+    public Void visitIncrementExpr(Expr.Increment expr) {
+        resolve(expr.assign);
+        return null;
+    }
+
+    @Override
+    public Void visitCompareExpr(Expr.Compare expr) {
+        resolve(expr.binary);
+        return null;
+    }
+
+    @Override
+    public Void visitFieldUpdateExpr(Expr.FieldUpdate expr) {
+        resolve(expr.set);
+        return null;
+    }
+
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
         resolve(stmt.statements);
@@ -167,6 +186,12 @@ public class BaseChecker implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    @Override
+    public Void visitCountedForStmt(Stmt.CountedFor stmt) {
+        resolve(stmt.loop);
+        return null;
+    }
+
     @Override
     public Void visitControlStatementStmt(Stmt.ControlStatement stmt) {
         return null;
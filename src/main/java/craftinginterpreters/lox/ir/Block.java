@@ -0,0 +1,28 @@
+package craftinginterpreters.lox.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//базовый блок: φ-функции, линейные инструкции и завершающий переход или возврат
+public final class Block {
+    public final int id;
+    public final List<Phi> phis = new ArrayList<>();
+    public final List<Instr> instrs = new ArrayList<>();
+    public Instr terminator;
+    public final List<Block> predecessors = new ArrayList<>();
+
+    Block(int id){
+        this.id = id;
+    }
+
+    public List<Block> successors(){
+        if(terminator==null || terminator.targets==null) return List.of();
+        return Arrays.asList(terminator.targets);
+    }
+
+    @Override
+    public String toString(){
+        return "b"+id;
+    }
+}
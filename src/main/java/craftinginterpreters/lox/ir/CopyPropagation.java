@@ -0,0 +1,47 @@
+package craftinginterpreters.lox.ir;
+
+import java.util.HashMap;
+
+//использования копии заменяются её источником. после этого φ-функция, все входы которой - одно
+//значение или она сама, тоже становится копией; такие φ убираются, пока они находятся
+public final class CopyPropagation implements Pass {
+    @Override
+    public void run(IrFunction function){
+        var replacements = new HashMap<Value, Value>();
+        for(var block : function.blocks){
+            for(var instr : block.instrs){
+                if(instr.op==Op.COPY) replacements.put(instr, instr.operand(0));
+            }
+            block.instrs.removeIf(instr -> instr.op==Op.COPY);
+        }
+        function.replace(replacements);
+
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            replacements.clear();
+            for(var block : function.blocks){
+                var phis = block.phis.iterator();
+                while(phis.hasNext()){
+                    var phi = phis.next();
+                    var same = trivialInput(phi);
+                    if(same==null) continue;
+                    replacements.put(phi, same);
+                    phis.remove();
+                    changed = true;
+                }
+            }
+            function.replace(replacements);
+        }
+    }
+
+    private static Value trivialInput(Phi phi){
+        Value same = null;
+        for(var input : phi.inputs){
+            if(input==phi || input==same) continue;
+            if(same!=null) return null;
+            same = input;
+        }
+        return same;
+    }
+}
@@ -0,0 +1,72 @@
+package craftinginterpreters.lox.ir;
+
+import craftinginterpreters.lox.Expr;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+//удаляет присваивания, которые ничего не меняют для программы. в SSA присваивание локальной
+//переменной - это значение без использований; кроме них удаляются записи в переменные окружения
+//и глобальные переменные, которые перезаписываются в том же блоке раньше, чем их можно прочитать
+public final class DeadStoreElimination implements Pass {
+    @Override
+    public void run(IrFunction function){
+        for(var block : function.blocks) overwrittenStores(block);
+        unusedValues(function);
+    }
+
+    private static void overwrittenStores(Block block){
+        var pending = new HashMap<Object, Instr>();
+        var dead = new HashSet<Instr>();
+        for(var instr : block.instrs){
+            switch (instr.op){
+                case STORE_OUTER: case STORE_GLOBAL: {
+                    var previous = pending.put(location(instr), instr);
+                    if(previous!=null) dead.add(previous);
+                    break;
+                }
+                case LOAD_OUTER: case LOAD_GLOBAL:
+                    pending.remove(location(instr));
+                    break;
+                default:
+                    //вызов, перегруженный оператор или ошибка могут прочитать переменную
+                    if(!instr.isRemovable()) pending.clear();
+            }
+        }
+        if(!dead.isEmpty()) block.instrs.removeAll(dead);
+    }
+
+    private static Object location(Instr instr){
+        switch (instr.op){
+            case LOAD_GLOBAL: return "global "+((Expr.Variable)instr.node).name.lexeme;
+            case STORE_GLOBAL: return "global "+((Expr.Assign)instr.node).name.lexeme;
+            default: return instr.distance+":"+instr.slot;
+        }
+    }
+
+    //живы инструкции с эффектами и всё, от чего они зависят
+    private static void unusedValues(IrFunction function){
+        Set<Value> live = new HashSet<>();
+        var work = new ArrayDeque<Value>();
+        for(var block : function.blocks){
+            for(var instr : block.instrs){
+                if(!instr.isRemovable() && live.add(instr)) work.add(instr);
+            }
+            if(block.terminator!=null && live.add(block.terminator)) work.add(block.terminator);
+        }
+        while(!work.isEmpty()){
+            var value = work.poll();
+            if(value instanceof Instr){
+                for(var operand : ((Instr)value).operands) if(live.add(operand)) work.add(operand);
+            }else{
+                for(var input : ((Phi)value).inputs) if(live.add(input)) work.add(input);
+            }
+        }
+        for(var block : function.blocks){
+            block.phis.removeIf(phi -> !live.contains(phi));
+            block.instrs.removeIf(instr -> !live.contains(instr));
+        }
+    }
+}
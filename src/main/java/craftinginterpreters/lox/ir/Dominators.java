@@ -0,0 +1,50 @@
+package craftinginterpreters.lox.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//дерево доминаторов по итеративному алгоритму Cooper, Harvey и Kennedy
+final class Dominators {
+    private final Map<Block, Block> idom = new HashMap<>();
+    private final Map<Block, List<Block>> children = new HashMap<>();
+
+    Dominators(IrFunction function){
+        var order = function.reversePostorder();
+        var index = new HashMap<Block, Integer>();
+        for(int i=0;i<order.size();i++) index.put(order.get(i), i);
+        idom.put(function.entry, function.entry);
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(var block : order){
+                if(block==function.entry) continue;
+                Block dominator = null;
+                for(var predecessor : block.predecessors){
+                    if(!idom.containsKey(predecessor)) continue;
+                    dominator = dominator==null ? predecessor : intersect(predecessor, dominator, index);
+                }
+                if(dominator!=idom.get(block)){
+                    idom.put(block, dominator);
+                    changed = true;
+                }
+            }
+        }
+        for(var block : order){
+            if(block!=function.entry) children.computeIfAbsent(idom.get(block), b -> new ArrayList<>()).add(block);
+        }
+    }
+
+    private Block intersect(Block a, Block b, Map<Block, Integer> index){
+        while(a!=b){
+            while(index.get(a)>index.get(b)) a = idom.get(a);
+            while(index.get(b)>index.get(a)) b = idom.get(b);
+        }
+        return a;
+    }
+
+    List<Block> children(Block block){
+        return children.getOrDefault(block, List.of());
+    }
+}
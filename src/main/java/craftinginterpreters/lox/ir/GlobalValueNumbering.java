@@ -0,0 +1,79 @@
+package craftinginterpreters.lox.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//чистая инструкция, которая повторяет уже вычисленную в доминирующем блоке, заменяется ею.
+//таблица значений живёт, пока обход дерева доминаторов находится внутри блока, где значение вычислено
+public final class GlobalValueNumbering implements Pass {
+    private static final Object NIL = new Object();
+
+    private final Map<List<Object>, Value> table = new HashMap<>();
+    private final Map<Value, Value> replacements = new HashMap<>();
+    private Dominators dominators;
+
+    @Override
+    public void run(IrFunction function){
+        table.clear();
+        replacements.clear();
+        dominators = new Dominators(function);
+        visit(function.entry);
+        function.replace(replacements);
+    }
+
+    private void visit(Block block){
+        var added = new ArrayList<List<Object>>();
+        for(var phi : block.phis){
+            var key = new ArrayList<Object>();
+            key.add(block);
+            for(var input : phi.inputs) key.add(resolve(input));
+            number(phi, key, added);
+        }
+        var kept = new ArrayList<Instr>();
+        for(var instr : block.instrs){
+            for(int i=0;i<instr.operands.length;i++) instr.operands[i] = resolve(instr.operands[i]);
+            if(instr.isPure() && number(instr, key(instr), added)) continue;
+            kept.add(instr);
+        }
+        block.instrs.clear();
+        block.instrs.addAll(kept);
+        for(var child : dominators.children(block)) visit(child);
+        for(var key : added) table.remove(key);
+    }
+
+    //true, если значение уже вычислено и заменено
+    private boolean number(Value value, List<Object> key, List<List<Object>> added){
+        var existing = table.get(key);
+        if(existing!=null){
+            replacements.put(value, existing);
+            return true;
+        }
+        table.put(key, value);
+        added.add(key);
+        return false;
+    }
+
+    private static List<Object> key(Instr instr){
+        var key = new ArrayList<Object>();
+        key.add(instr.op);
+        switch (instr.op){
+            //Double.equals различает 0.0 и -0.0, поэтому константы сравниваются по значению
+            case CONST: key.add(instr.node==null ? NIL : instr.node); break;
+            case PARAM: key.add(instr.slot); break;
+        }
+        key.addAll(Arrays.asList(instr.operands));
+        return key;
+    }
+
+    private Value resolve(Value value){
+        var replacement = replacements.get(value);
+        while(replacement!=null){
+            value = replacement;
+            replacement = replacements.get(value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,61 @@
+package craftinginterpreters.lox.ir;
+
+//инструкция. операнды - значения SSA, node - узел дерева или константа, нужные для медленного пути
+//и сообщений об ошибках, distance и slot адресуют окружения за пределами функции
+public final class Instr extends Value {
+    public final Op op;
+    public Value[] operands;
+    public final Object node;
+    public final int distance;
+    public final int slot;
+    public Block[] targets; //только у JUMP и BRANCH
+    Block block;
+
+    Instr(int id, Op op, Object node, int distance, int slot, Value... operands){
+        super(id);
+        this.op = op;
+        this.node = node;
+        this.distance = distance;
+        this.slot = slot;
+        this.operands = operands;
+    }
+
+    @Override
+    public Block block(){
+        return block;
+    }
+
+    public Value operand(int index){
+        return operands[index];
+    }
+
+    private boolean numbers(){
+        for(Value operand : operands) if(operand.type!=Type.NUMBER) return false;
+        return true;
+    }
+
+    //одинаковые операнды дают одинаковый результат: вторую инструкцию можно заменить первой
+    public boolean isPure(){
+        switch (op){
+            case CONST: case PARAM: case THIS: case COPY: case EQUAL: case NOT_EQUAL: case NOT:
+                return true;
+            case ADD: case SUB: case MUL: case DIV: case NEGATE:
+            case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL:
+                //над нечислами оператор может вызвать перегрузку из Lox
+                return numbers();
+            default:
+                return false;
+        }
+    }
+
+    //ни побочных эффектов, ни ошибок: неиспользуемую инструкцию можно удалить
+    public boolean isRemovable(){
+        //деление может сообщить о делении на ноль
+        return isPure() && op!=Op.DIV;
+    }
+
+    @Override
+    public String toString(){
+        return "v"+id;
+    }
+}
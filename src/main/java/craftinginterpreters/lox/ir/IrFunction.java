@@ -0,0 +1,149 @@
+package craftinginterpreters.lox.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//тело одной функции Lox в виде графа базовых блоков со значениями SSA
+public final class IrFunction {
+    public final String name;
+    public final Block entry;
+    public final List<Block> blocks = new ArrayList<>();
+    private int nextValue = 0;
+
+    IrFunction(String name){
+        this.name = name;
+        this.entry = newBlock();
+    }
+
+    Block newBlock(){
+        var block = new Block(blocks.size());
+        blocks.add(block);
+        return block;
+    }
+
+    Phi newPhi(Block block){
+        var phi = new Phi(nextValue++, block);
+        block.phis.add(phi);
+        return phi;
+    }
+
+    Instr newInstr(Op op, Object node, int distance, int slot, Value... operands){
+        return new Instr(nextValue++, op, node, distance, slot, operands);
+    }
+
+    public int valueCount(){
+        return nextValue;
+    }
+
+    //блоки в обратном порядке обхода в глубину: каждый блок идёт раньше блоков, в которые ведут только его рёбра
+    public List<Block> reversePostorder(){
+        var order = new ArrayList<Block>();
+        postorder(entry, new HashSet<>(), order);
+        Collections.reverse(order);
+        return order;
+    }
+
+    private static void postorder(Block block, Set<Block> visited, List<Block> order){
+        if(!visited.add(block)) return;
+        var successors = block.successors();
+        for(int i=successors.size()-1;i>=0;i--) postorder(successors.get(i), visited, order);
+        order.add(block);
+    }
+
+    //заменяет использования значений по карте замен, следуя цепочкам замен до конца
+    void replace(Map<Value, Value> replacements){
+        if(replacements.isEmpty()) return;
+        for(var block : blocks){
+            for(var phi : block.phis){
+                for(int i=0;i<phi.inputs.size();i++) phi.inputs.set(i, resolve(phi.inputs.get(i), replacements));
+            }
+            for(var instr : block.instrs) replaceOperands(instr, replacements);
+            if(block.terminator!=null) replaceOperands(block.terminator, replacements);
+        }
+    }
+
+    private static void replaceOperands(Instr instr, Map<Value, Value> replacements){
+        for(int i=0;i<instr.operands.length;i++) instr.operands[i] = resolve(instr.operands[i], replacements);
+    }
+
+    private static Value resolve(Value value, Map<Value, Value> replacements){
+        var replacement = replacements.get(value);
+        while(replacement!=null){
+            value = replacement;
+            replacement = replacements.get(value);
+        }
+        return value;
+    }
+
+    //ребро из блока с несколькими преемниками в блок с несколькими предшественниками получает свой блок,
+    //чтобы копирования для φ-функций можно было поставить на ребро
+    public void splitCriticalEdges(){
+        for(var block : new ArrayList<>(blocks)){
+            var terminator = block.terminator;
+            if(terminator==null || terminator.targets==null || terminator.targets.length<2) continue;
+            for(int i=0;i<terminator.targets.length;i++){
+                var target = terminator.targets[i];
+                if(target.predecessors.size()<2) continue;
+                var edge = newBlock();
+                edge.predecessors.add(block);
+                edge.terminator = newInstr(Op.JUMP, null, 0, 0);
+                edge.terminator.block = edge;
+                edge.terminator.targets = new Block[]{target};
+                target.predecessors.set(target.predecessors.indexOf(block), edge);
+                terminator.targets[i] = edge;
+            }
+        }
+    }
+
+    //проверка инвариантов после проходов
+    public void verify(){
+        for(var block : reversePostorder()){
+            if(block.terminator==null) throw new IllegalStateException(block+" has no terminator");
+            for(var phi : block.phis){
+                if(phi.inputs.size()!=block.predecessors.size()){
+                    throw new IllegalStateException(phi+" has "+phi.inputs.size()+" inputs for "
+                        +block.predecessors.size()+" predecessors");
+                }
+            }
+            for(var successor : block.successors()){
+                if(!successor.predecessors.contains(block)){
+                    throw new IllegalStateException(block+" is missing from predecessors of "+successor);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString(){
+        var out = new StringBuilder("function "+name+"\n");
+        for(var block : reversePostorder()){
+            out.append(block).append(" <- ").append(block.predecessors).append('\n');
+            for(var phi : block.phis){
+                out.append("  ").append(phi).append(':').append(phi.type).append(" = phi ").append(phi.inputs).append('\n');
+            }
+            for(var instr : block.instrs) out.append("  ").append(describe(instr)).append('\n');
+            out.append("  ").append(describe(block.terminator)).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static String describe(Instr instr){
+        var out = new StringBuilder();
+        if(instr.op!=Op.JUMP && instr.op!=Op.BRANCH && instr.op!=Op.RETURN){
+            out.append(instr).append(':').append(instr.type).append(" = ");
+        }
+        out.append(instr.op.name().toLowerCase());
+        if(instr.op==Op.CONST) out.append(' ').append(instr.node);
+        if(instr.op==Op.PARAM || instr.op==Op.LOAD_OUTER || instr.op==Op.STORE_OUTER){
+            out.append(" [").append(instr.distance).append(':').append(instr.slot).append(']');
+        }
+        for(var operand : instr.operands) out.append(' ').append(operand);
+        if(instr.targets!=null) out.append(" -> ").append(Arrays.toString(instr.targets));
+        return out.toString();
+    }
+}
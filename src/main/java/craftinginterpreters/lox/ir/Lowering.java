@@ -0,0 +1,533 @@
+package craftinginterpreters.lox.ir;
+
+import craftinginterpreters.lox.Expr;
+import craftinginterpreters.lox.Stmt;
+import craftinginterpreters.lox.TokenType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//строит IrFunction по разрешённому дереву функции. локальные переменные сразу становятся значениями SSA:
+//чтение ищет последнее присваивание в блоке и его предшественниках, на слияниях появляются φ-функции
+//(построение без дерева доминаторов, как у Braun и др.). пока блок может получить новых предшественников,
+//он не запечатан и φ-функции в нём заполняются позже.
+//функции с вложенными функциями и классами не поддерживаются: их замыкания видели бы переменные,
+//которые здесь живут только в SSA
+public final class Lowering implements Expr.Visitor<Value>, Stmt.Visitor<Void> {
+
+    //локальная переменная функции: параметр, this или var
+    private static final class Local { }
+
+    private static final class Loop {
+        final Loop enclosing;
+        final Block breakTarget;
+        final Block continueTarget;
+
+        Loop(Loop enclosing, Block breakTarget, Block continueTarget){
+            this.enclosing = enclosing;
+            this.breakTarget = breakTarget;
+            this.continueTarget = continueTarget;
+        }
+    }
+
+    private final IrFunction function;
+    private final List<Map<Integer, Local>> scopes = new ArrayList<>();
+    private final Map<Block, Map<Local, Value>> definitions = new HashMap<>();
+    private final Map<Block, Map<Local, Phi>> incomplete = new HashMap<>();
+    private final Set<Block> sealed = new HashSet<>();
+    private Block current;
+    private Loop loop = null;
+    private Expr.Call tailCall = null; //вызов из return f(...), который сейчас переводится
+
+    private Lowering(IrFunction function){
+        this.function = function;
+        this.current = function.entry;
+    }
+
+    public static IrFunction lower(Stmt.Function declaration, boolean isMethod){
+        var function = new IrFunction(declaration.name!=null ? declaration.name.lexeme : "anon");
+        var lowering = new Lowering(function);
+        lowering.body(declaration, isMethod);
+        return function;
+    }
+
+    private void body(Stmt.Function declaration, boolean isMethod){
+        seal(function.entry);
+        var scope = new HashMap<Integer, Local>(); //тело делит окружение с параметрами
+        scopes.add(scope);
+        if(isMethod) declare(scope, 0, emit(Op.THIS, null));
+        for(int i=0;i<declaration.params.size();i++){
+            int slot = isMethod ? i+1 : i;
+            declare(scope, slot, emit(Op.PARAM, null, 0, slot));
+        }
+        statements(declaration.body);
+        if(current!=null) terminate(Op.RETURN, null, constant(null));
+    }
+
+    //---------- SSA ----------
+
+    private void declare(Map<Integer, Local> scope, int slot, Value value){
+        var local = new Local();
+        scope.put(slot, local);
+        write(local, current, value);
+    }
+
+    private void write(Local local, Block block, Value value){
+        definitions.computeIfAbsent(block, b -> new HashMap<>()).put(local, value);
+    }
+
+    private Value read(Local local, Block block){
+        var defined = definitions.get(block);
+        if(defined!=null){
+            var value = defined.get(local);
+            if(value!=null) return value;
+        }
+        Value value;
+        if(!sealed.contains(block)){
+            var phi = function.newPhi(block);
+            incomplete.computeIfAbsent(block, b -> new HashMap<>()).put(local, phi);
+            value = phi;
+        }else if(block.predecessors.size()==1){
+            value = read(local, block.predecessors.get(0));
+        }else if(block.predecessors.isEmpty()){
+            throw new Unsupported("read of an undefined local");
+        }else{
+            var phi = function.newPhi(block);
+            write(local, block, phi); //разрывает циклы при чтении через обратные рёбра
+            addInputs(local, phi);
+            value = phi;
+        }
+        write(local, block, value);
+        return value;
+    }
+
+    private void addInputs(Local local, Phi phi){
+        for(var predecessor : phi.block().predecessors) phi.inputs.add(read(local, predecessor));
+    }
+
+    //все предшественники блока известны
+    private void seal(Block block){
+        var phis = incomplete.remove(block);
+        if(phis!=null){
+            for(var entry : phis.entrySet()) addInputs(entry.getKey(), entry.getValue());
+        }
+        sealed.add(block);
+    }
+
+    //блок без предшественников недостижим, в него ничего не генерируется
+    private void enter(Block block){
+        current = block.predecessors.isEmpty() ? null : block;
+    }
+
+    //---------- инструкции IR ----------
+
+    private Instr emit(Op op, Object node, Value... operands){
+        return emit(op, node, 0, 0, operands);
+    }
+
+    private Instr emit(Op op, Object node, int distance, int slot, Value... operands){
+        var instr = function.newInstr(op, node, distance, slot, operands);
+        instr.block = current;
+        current.instrs.add(instr);
+        return instr;
+    }
+
+    private Value constant(Object value){
+        return emit(Op.CONST, value);
+    }
+
+    private void terminate(Op op, Block[] targets, Value... operands){
+        var instr = function.newInstr(op, null, 0, 0, operands);
+        instr.block = current;
+        instr.targets = targets;
+        current.terminator = instr;
+        if(targets!=null){
+            for(var target : targets) target.predecessors.add(current);
+        }
+        current = null;
+    }
+
+    private void jump(Block target){
+        terminate(Op.JUMP, new Block[]{target});
+    }
+
+    //переход по истинности условия; and, or и ! превращаются в переходы, а не в значения
+    private void branch(Expr condition, Block ifTrue, Block ifFalse){
+        if(condition instanceof Expr.Grouping){
+            branch(((Expr.Grouping)condition).expression, ifTrue, ifFalse);
+            return;
+        }
+        if(condition instanceof Expr.Unary && ((Expr.Unary)condition).operator.type==TokenType.BANG){
+            branch(((Expr.Unary)condition).right, ifFalse, ifTrue);
+            return;
+        }
+        if(condition instanceof Expr.Logical){
+            var logical = (Expr.Logical)condition;
+            var middle = function.newBlock();
+            if(logical.operator.type==TokenType.OR){
+                branch(logical.left, ifTrue, middle);
+            }else{
+                branch(logical.left, middle, ifFalse);
+            }
+            seal(middle);
+            current = middle;
+            branch(logical.right, ifTrue, ifFalse);
+            return;
+        }
+        var value = condition.accept(this);
+        terminate(Op.BRANCH, new Block[]{ifTrue, ifFalse}, value);
+    }
+
+    //значение, которое пришло в блок слияния из каждого предшественника
+    private Value merge(Block join, Value... inputs){
+        seal(join);
+        current = join;
+        var phi = function.newPhi(join);
+        for(var input : inputs) phi.inputs.add(input);
+        return phi;
+    }
+
+    //---------- переменные ----------
+
+    private Value load(int depth, int slot, Expr expr){
+        if(depth<0) return emit(Op.LOAD_GLOBAL, expr);
+        int innermost = scopes.size()-1;
+        if(depth>innermost) return emit(Op.LOAD_OUTER, null, depth-innermost, slot);
+        var local = scopes.get(innermost-depth).get(slot);
+        if(local==null) throw new Unsupported("unresolved local");
+        return read(local, current);
+    }
+
+    //---------- инструкции Lox ----------
+
+    private void statements(List<Stmt> statements){
+        for(Stmt stmt : statements){
+            if(current==null) break;
+            stmt.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt){
+        //переменные блока без своего окружения занимают свободные индексы объемлющей области
+        if(stmt.inline){
+            statements(stmt.statements);
+            return null;
+        }
+        scopes.add(new HashMap<>());
+        statements(stmt.statements);
+        scopes.remove(scopes.size()-1);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt){
+        throw new Unsupported("class declaration");
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        stmt.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        var thenBlock = function.newBlock();
+        var elseBlock = stmt.elseBranch!=null ? function.newBlock() : null;
+        var join = function.newBlock();
+        branch(stmt.condition, thenBlock, elseBlock!=null ? elseBlock : join);
+        seal(thenBlock);
+        enter(thenBlock);
+        if(current!=null) stmt.thenBranch.accept(this);
+        if(current!=null) jump(join);
+        if(elseBlock!=null){
+            seal(elseBlock);
+            enter(elseBlock);
+            if(current!=null) stmt.elseBranch.accept(this);
+            if(current!=null) jump(join);
+        }
+        seal(join);
+        enter(join);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        emit(Op.PRINT, null, stmt.expression.accept(this));
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+        if(stmt.slot<0) throw new Unsupported("global variable");
+        var value = stmt.initializer!=null ? stmt.initializer.accept(this) : constant(null);
+        declare(scopes.get(scopes.size()-1), stmt.slot, emit(Op.COPY, null, value));
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        var header = function.newBlock();
+        var body = function.newBlock();
+        var exit = function.newBlock();
+        jump(header);
+        current = header;
+        branch(stmt.condition, body, exit);
+        seal(body);
+        loop = new Loop(loop, exit, header);
+        enter(body);
+        if(current!=null) stmt.body.accept(this);
+        loop = loop.enclosing;
+        if(current!=null) jump(header);
+        seal(header);
+        seal(exit);
+        enter(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt){
+        if(stmt.init!=null) stmt.init.accept(this);
+        var header = function.newBlock();
+        var body = function.newBlock();
+        var next = function.newBlock();
+        var exit = function.newBlock();
+        jump(header);
+        current = header;
+        branch(stmt.condition, body, exit);
+        seal(body);
+        loop = new Loop(loop, exit, next);
+        enter(body);
+        if(current!=null) stmt.body.accept(this);
+        loop = loop.enclosing;
+        if(current!=null) jump(next);
+        seal(next);
+        enter(next);
+        if(current!=null){
+            if(stmt.increment!=null) stmt.increment.accept(this);
+            jump(header);
+        }
+        seal(header);
+        seal(exit);
+        enter(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitCountedForStmt(Stmt.CountedFor stmt){
+        return stmt.loop.accept(this);
+    }
+
+    @Override
+    public Void visitControlStatementStmt(Stmt.ControlStatement stmt){
+        if(loop==null) throw new Unsupported("control statement outside loop");
+        switch (stmt.parameter.type){
+            case BREAK: jump(loop.breakTarget); break;
+            case CONTINUE: jump(loop.continueTarget); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        throw new Unsupported("nested function");
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        if(stmt.tailCall) tailCall = (Expr.Call)stmt.value;
+        var value = stmt.value!=null ? stmt.value.accept(this) : constant(null);
+        terminate(Op.RETURN, null, value);
+        return null;
+    }
+
+    //---------- выражения ----------
+
+    @Override
+    public Value visitAssignExpr(Expr.Assign expr){
+        var value = expr.value.accept(this);
+        if(expr.depth<0){
+            emit(Op.STORE_GLOBAL, expr, value);
+            return value;
+        }
+        int innermost = scopes.size()-1;
+        if(expr.depth>innermost){
+            emit(Op.STORE_OUTER, null, expr.depth-innermost, expr.slot, value);
+            return value;
+        }
+        var local = scopes.get(innermost-expr.depth).get(expr.slot);
+        if(local==null) throw new Unsupported("unresolved local");
+        var copy = emit(Op.COPY, null, value);
+        write(local, current, copy);
+        return copy;
+    }
+
+    @Override
+    public Value visitBinaryExpr(Expr.Binary expr){
+        if(expr.operator.type==TokenType.COMMA){
+            expr.left.accept(this);
+            return expr.right.accept(this);
+        }
+        var left = expr.left.accept(this);
+        var right = expr.right.accept(this);
+        Op op;
+        switch (expr.operator.type){
+            case PLUS: op = Op.ADD; break;
+            case MINUS: op = Op.SUB; break;
+            case STAR: op = Op.MUL; break;
+            case SLASH: op = Op.DIV; break;
+            case LESS: op = Op.LESS; break;
+            case LESS_EQUAL: op = Op.LESS_EQUAL; break;
+            case GREATER: op = Op.GREATER; break;
+            case GREATER_EQUAL: op = Op.GREATER_EQUAL; break;
+            case EQUAL_EQUAL: op = Op.EQUAL; break;
+            case BANG_EQUAL: op = Op.NOT_EQUAL; break;
+            default: op = Op.BINARY; break;
+        }
+        return emit(op, expr, left, right);
+    }
+
+    @Override
+    public Value visitTernaryExpr(Expr.Ternary expr){
+        if(expr.op1.type!=TokenType.QUESTION || expr.op2.type!=TokenType.COLON) return constant(null);
+        var middleBlock = function.newBlock();
+        var rightBlock = function.newBlock();
+        var join = function.newBlock();
+        branch(expr.left, middleBlock, rightBlock);
+        seal(middleBlock);
+        seal(rightBlock);
+        current = middleBlock;
+        var middle = expr.middle.accept(this);
+        jump(join);
+        current = rightBlock;
+        var right = expr.right.accept(this);
+        jump(join);
+        return merge(join, middle, right);
+    }
+
+    @Override
+    public Value visitGroupingExpr(Expr.Grouping expr){
+        return expr.expression.accept(this);
+    }
+
+    @Override
+    public Value visitLiteralExpr(Expr.Literal expr){
+        return constant(expr.value);
+    }
+
+    @Override
+    public Value visitLogicalExpr(Expr.Logical expr){
+        var left = expr.left.accept(this);
+        var rightBlock = function.newBlock();
+        var join = function.newBlock();
+        if(expr.operator.type==TokenType.OR){
+            terminate(Op.BRANCH, new Block[]{join, rightBlock}, left);
+        }else{
+            terminate(Op.BRANCH, new Block[]{rightBlock, join}, left);
+        }
+        seal(rightBlock);
+        current = rightBlock;
+        var right = expr.right.accept(this);
+        jump(join);
+        return merge(join, left, right);
+    }
+
+    @Override
+    public Value visitSetExpr(Expr.Set expr){
+        var instance = emit(Op.CHECK_INSTANCE, expr, expr.object.accept(this));
+        var value = expr.value.accept(this);
+        emit(Op.SET, expr, instance, value);
+        return value;
+    }
+
+    @Override
+    public Value visitThisExpr(Expr.This expr){
+        return load(expr.depth, expr.slot, expr);
+    }
+
+    @Override
+    public Value visitSuperExpr(Expr.Super expr){
+        throw new Unsupported("super");
+    }
+
+    @Override
+    public Value visitUnaryExpr(Expr.Unary expr){
+        var right = expr.right.accept(this);
+        switch (expr.operator.type){
+            case MINUS: return emit(Op.NEGATE, expr.operator, right);
+            case BANG: return emit(Op.NOT, null, right);
+            default: return constant(null);
+        }
+    }
+
+    @Override
+    public Value visitVariableExpr(Expr.Variable expr){
+        return load(expr.depth, expr.slot, expr);
+    }
+
+    @Override
+    public Value visitCallExpr(Expr.Call expr){
+        boolean tail = expr==tailCall;
+        if(tail) tailCall = null;
+        if(expr.calee instanceof Expr.Get){
+            //как в Interpreter: метод экземпляра вызывается без связывания, иначе значение свойства
+            //берётся до вычисления аргументов
+            var get = (Expr.Get)expr.calee;
+            var object = get.object.accept(this);
+            var method = emit(Op.METHOD, get, object);
+            var property = function.newBlock();
+            var found = function.newBlock();
+            var call = function.newBlock();
+            terminate(Op.BRANCH, new Block[]{found, property}, method);
+            seal(property);
+            seal(found);
+            current = property;
+            var value = emit(Op.GET, get, object);
+            jump(call);
+            current = found;
+            var nil = constant(null);
+            jump(call);
+            var callee = merge(call, value, nil);
+            var operands = new Value[3+expr.arguments.size()];
+            operands[0] = method;
+            operands[1] = object;
+            operands[2] = callee;
+            for(int i=0;i<expr.arguments.size();i++) operands[3+i] = expr.arguments.get(i).accept(this);
+            return emit(tail ? Op.TAIL_CALL_METHOD : Op.CALL_METHOD, expr, operands);
+        }
+        var operands = new Value[1+expr.arguments.size()];
+        operands[0] = expr.calee.accept(this);
+        for(int i=0;i<expr.arguments.size();i++) operands[1+i] = expr.arguments.get(i).accept(this);
+        return emit(tail ? Op.TAIL_CALL : Op.CALL, expr, operands);
+    }
+
+    @Override
+    public Value visitAnonFunExpr(Expr.AnonFun expr){
+        throw new Unsupported("anonymous function");
+    }
+
+    @Override
+    public Value visitGetExpr(Expr.Get expr){
+        return emit(Op.GET, expr, expr.object.accept(this));
+    }
+
+    @Override
+    public Value visitIncrementExpr(Expr.Increment expr){
+        return expr.assign.accept(this);
+    }
+
+    @Override
+    public Value visitCompareExpr(Expr.Compare expr){
+        return expr.binary.accept(this);
+    }
+
+    @Override
+    public Value visitFieldUpdateExpr(Expr.FieldUpdate expr){
+        return expr.set.accept(this);
+    }
+}
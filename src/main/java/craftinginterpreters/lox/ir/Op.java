@@ -0,0 +1,29 @@
+package craftinginterpreters.lox.ir;
+
+public enum Op {
+    CONST,          //node: значение литерала
+    PARAM,          //slot: параметр из окружения вызова
+    THIS,           //получатель метода
+    COPY,           //присваивание локальной переменной до распространения копий
+    LOAD_OUTER,     //distance, slot: переменная окружения, в котором объявлена функция
+    STORE_OUTER,    //(value) distance, slot
+    LOAD_GLOBAL,    //node: Expr.Variable
+    STORE_GLOBAL,   //(value) node: Expr.Assign
+    ADD, SUB, MUL, DIV, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL, //(left, right) node: Expr.Binary
+    BINARY,         //(left, right) node: Expr.Binary, остальные бинарные операторы
+    EQUAL, NOT_EQUAL, //(left, right)
+    NOT,            //(value)
+    NEGATE,         //(value) node: Token
+    GET,            //(object) node: Expr.Get
+    CHECK_INSTANCE, //(object) node: Expr.Set, ошибка для не-экземпляров до вычисления значения
+    SET,            //(instance, value) node: Expr.Set
+    METHOD,         //(object) node: Expr.Get, метод экземпляра или nil
+    CALL,           //(callee, arguments...) node: Expr.Call
+    CALL_METHOD,    //(method, object, callee, arguments...) node: Expr.Call
+    TAIL_CALL,      //как CALL, но функция Lox только готовится к вызову из LoxFunction.execute; результат сразу возвращается
+    TAIL_CALL_METHOD, //как CALL_METHOD, но в хвостовой позиции
+    PRINT,          //(value)
+    JUMP,           //targets: блок
+    BRANCH,         //(condition) targets: блок для истины, блок для лжи
+    RETURN          //(value)
+}
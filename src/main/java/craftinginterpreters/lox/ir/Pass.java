@@ -0,0 +1,6 @@
+package craftinginterpreters.lox.ir;
+
+//преобразование IrFunction, которое сохраняет смысл программы
+public interface Pass {
+    void run(IrFunction function);
+}
@@ -0,0 +1,34 @@
+package craftinginterpreters.lox.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//последовательность проходов. с -ea после каждого прохода проверяются инварианты графа
+public final class PassManager {
+    private static final boolean VERIFY = PassManager.class.desiredAssertionStatus();
+
+    private final List<Pass> passes = new ArrayList<>();
+
+    public PassManager add(Pass pass){
+        passes.add(pass);
+        return this;
+    }
+
+    //типы нужны GVN и удалению мёртвых инструкций: операторы над нечислами могут вызвать код Lox
+    public static PassManager standard(){
+        return new PassManager()
+            .add(new CopyPropagation())
+            .add(new TypeInference())
+            .add(new GlobalValueNumbering())
+            .add(new CopyPropagation())
+            .add(new DeadStoreElimination());
+    }
+
+    public void run(IrFunction function){
+        if(VERIFY) function.verify();
+        for(var pass : passes){
+            pass.run(function);
+            if(VERIFY) function.verify();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package craftinginterpreters.lox.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//значение, которое зависит от того, из какого предшественника пришло управление.
+//входы идут в том же порядке, что и предшественники блока
+public final class Phi extends Value {
+    private final Block block;
+    public final List<Value> inputs = new ArrayList<>();
+
+    Phi(int id, Block block){
+        super(id);
+        this.block = block;
+    }
+
+    @Override
+    public Block block(){
+        return block;
+    }
+
+    public Value input(Block predecessor){
+        return inputs.get(block.predecessors.indexOf(predecessor));
+    }
+
+    @Override
+    public String toString(){
+        return "v"+id;
+    }
+}
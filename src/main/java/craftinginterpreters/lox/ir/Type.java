@@ -0,0 +1,11 @@
+package craftinginterpreters.lox.ir;
+
+//что известно о значении до исполнения. NUMBER и BOOLEAN можно держать без упаковки
+public enum Type {
+    NUMBER, BOOLEAN, ANY;
+
+    Type join(Type other){
+        if(other==null || other==this) return this;
+        return ANY;
+    }
+}
@@ -0,0 +1,68 @@
+package craftinginterpreters.lox.ir;
+
+//оптимистичный вывод типов: сначала тип каждого значения неизвестен, потом значения только расширяются
+//до неподвижной точки. φ-функция в цикле остаётся числом, если числа приходят по всем рёбрам
+public final class TypeInference implements Pass {
+    @Override
+    public void run(IrFunction function){
+        var order = function.reversePostorder();
+        for(var block : function.blocks){
+            for(var phi : block.phis) phi.type = null;
+            for(var instr : block.instrs) instr.type = null;
+        }
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(var block : order){
+                for(var phi : block.phis){
+                    Type type = null;
+                    for(var input : phi.inputs){
+                        if(input.type!=null) type = input.type.join(type);
+                    }
+                    if(type!=phi.type){
+                        phi.type = type;
+                        changed = true;
+                    }
+                }
+                for(var instr : block.instrs){
+                    var type = type(instr);
+                    if(type!=instr.type){
+                        instr.type = type;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        for(var block : function.blocks){
+            for(var phi : block.phis) if(phi.type==null) phi.type = Type.ANY;
+            for(var instr : block.instrs) if(instr.type==null) instr.type = Type.ANY;
+        }
+    }
+
+    private static Type type(Instr instr){
+        switch (instr.op){
+            case CONST:
+                if(instr.node instanceof Double) return Type.NUMBER;
+                if(instr.node instanceof Boolean) return Type.BOOLEAN;
+                return Type.ANY;
+            case COPY:
+                return instr.operand(0).type;
+            case ADD: case SUB: case MUL: case DIV:
+                return numeric(instr.operand(0).type, instr.operand(1).type, Type.NUMBER);
+            case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL:
+                return numeric(instr.operand(0).type, instr.operand(1).type, Type.BOOLEAN);
+            case NEGATE:
+                return numeric(instr.operand(0).type, Type.NUMBER, Type.NUMBER);
+            case EQUAL: case NOT_EQUAL: case NOT:
+                return Type.BOOLEAN;
+            default:
+                return Type.ANY;
+        }
+    }
+
+    private static Type numeric(Type left, Type right, Type result){
+        if(left!=null && left!=Type.NUMBER || right!=null && right!=Type.NUMBER) return Type.ANY;
+        if(left==null || right==null) return null;
+        return result;
+    }
+}
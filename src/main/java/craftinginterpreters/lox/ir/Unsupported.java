@@ -0,0 +1,8 @@
+package craftinginterpreters.lox.ir;
+
+//функция использует то, что промежуточное представление не выражает, и остаётся интерпретируемой
+public final class Unsupported extends RuntimeException {
+    public Unsupported(String reason){
+        super(reason, null, false, false);
+    }
+}
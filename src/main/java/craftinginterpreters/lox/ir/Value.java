@@ -0,0 +1,13 @@
+package craftinginterpreters.lox.ir;
+
+//значение SSA: результат инструкции или φ-функция. каждое значение присваивается ровно один раз
+public abstract class Value {
+    public final int id;
+    public Type type = Type.ANY;
+
+    Value(int id){
+        this.id = id;
+    }
+
+    public abstract Block block();
+}
@@ -0,0 +1,254 @@
+package craftinginterpreters.lox.jit;
+
+import craftinginterpreters.lox.ir.Unsupported;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//тело метода JVM. вместе с инструкциями считает глубину стека операндов, чтобы записать max_stack;
+//после безусловного перехода глубина берётся из метки, на которую кто-то уже прыгнул
+final class Bytecode {
+    static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, ICONST_1 = 0x04, DCONST_0 = 0x0e, DCONST_1 = 0x0f;
+    static final int ILOAD = 0x15, DLOAD = 0x18, ALOAD = 0x19, ISTORE = 0x36, DSTORE = 0x39, ASTORE = 0x3a;
+    static final int AALOAD = 0x32, AASTORE = 0x53;
+    static final int POP = 0x57, POP2 = 0x58, DUP = 0x59, DUP_X1 = 0x5a, DUP2 = 0x5c, SWAP = 0x5f;
+    static final int DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DNEG = 0x77, IXOR = 0x82;
+    static final int DCMPL = 0x97, DCMPG = 0x98;
+    static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+    static final int GOTO = 0xa7, IFNULL = 0xc6, IFNONNULL = 0xc7;
+    static final int ARETURN = 0xb0, RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2, PUTSTATIC = 0xb3;
+    static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+    static final int ANEWARRAY = 0xbd, CHECKCAST = 0xc0;
+    private static final int LDC = 0x12, LDC_W = 0x13, LDC2_W = 0x14, WIDE = 0xc4, BIPUSH = 0x10, SIPUSH = 0x11;
+
+    static final class Label {
+        private int position = -1;
+        private int depth = -1;
+        private final List<Integer> fixups = new ArrayList<>(); //смещения инструкций перехода
+    }
+
+    private final ClassFile classFile;
+    private byte[] code = new byte[256];
+    private int length = 0;
+    private int depth = 0;
+    private boolean reachable = true;
+    private int maxStack = 0;
+    private int locals;
+
+    Bytecode(ClassFile classFile, int parameterSlots){
+        this.classFile = classFile;
+        this.locals = parameterSlots;
+    }
+
+    int maxStack(){
+        return maxStack;
+    }
+
+    int maxLocals(){
+        return locals;
+    }
+
+    int newLocal(int size){
+        int index = locals;
+        locals += size;
+        return index;
+    }
+
+    boolean isReachable(){
+        return reachable;
+    }
+
+    //---------- запись ----------
+
+    private void u1(int value){
+        if(length==code.length) code = Arrays.copyOf(code, length*2);
+        code[length++] = (byte)value;
+    }
+
+    private void u2(int value){
+        u1(value >> 8);
+        u1(value);
+    }
+
+    private void stack(int effect){
+        depth += effect;
+        if(depth>maxStack) maxStack = depth;
+    }
+
+    void op(int opcode, int effect){
+        u1(opcode);
+        stack(effect);
+        if(opcode==ARETURN || opcode==RETURN) reachable = false;
+    }
+
+    void local(int opcode, int index, int effect){
+        if(index>0xff){
+            u1(WIDE);
+            u1(opcode);
+            u2(index);
+        }else{
+            u1(opcode);
+            u1(index);
+        }
+        stack(effect);
+    }
+
+    void aload(int index){ local(ALOAD, index, 1); }
+    void astore(int index){ local(ASTORE, index, -1); }
+    void dload(int index){ local(DLOAD, index, 2); }
+    void dstore(int index){ local(DSTORE, index, -2); }
+
+    void iconst(int value){
+        if(value>=-1 && value<=5){
+            op(ICONST_0 + value, 1);
+        }else if(value>=Byte.MIN_VALUE && value<=Byte.MAX_VALUE){
+            u1(BIPUSH);
+            u1(value);
+            stack(1);
+        }else if(value>=Short.MIN_VALUE && value<=Short.MAX_VALUE){
+            u1(SIPUSH);
+            u2(value);
+            stack(1);
+        }else{
+            ldc(classFile.integer(value), 1);
+        }
+    }
+
+    void dconst(double value){
+        if(Double.doubleToRawLongBits(value)==0L){
+            op(DCONST_0, 2);
+        }else if(value==1.0){
+            op(DCONST_1, 2);
+        }else{
+            u1(LDC2_W);
+            u2(classFile.number(value));
+            stack(2);
+        }
+    }
+
+    void string(String value){
+        ldc(classFile.string(value), 1);
+    }
+
+    private void ldc(int index, int effect){
+        if(index>0xff){
+            u1(LDC_W);
+            u2(index);
+        }else{
+            u1(LDC);
+            u1(index);
+        }
+        stack(effect);
+    }
+
+    void getStatic(String owner, String name, String descriptor){
+        u1(GETSTATIC);
+        u2(classFile.field(owner, name, descriptor));
+        stack(slots(descriptor));
+    }
+
+    void putStatic(String owner, String name, String descriptor){
+        u1(PUTSTATIC);
+        u2(classFile.field(owner, name, descriptor));
+        stack(-slots(descriptor));
+    }
+
+    void invokeStatic(String owner, String name, String descriptor){
+        invoke(INVOKESTATIC, owner, name, descriptor, 0);
+    }
+
+    void invokeVirtual(String owner, String name, String descriptor){
+        invoke(INVOKEVIRTUAL, owner, name, descriptor, 1);
+    }
+
+    void invokeSpecial(String owner, String name, String descriptor){
+        invoke(INVOKESPECIAL, owner, name, descriptor, 1);
+    }
+
+    private void invoke(int opcode, String owner, String name, String descriptor, int receiver){
+        u1(opcode);
+        u2(classFile.method(owner, name, descriptor));
+        int close = descriptor.indexOf(')');
+        stack(slots(descriptor.substring(close+1)) - argumentSlots(descriptor.substring(1, close)) - receiver);
+    }
+
+    void typeOp(int opcode, String internalName){
+        u1(opcode);
+        u2(classFile.classRef(internalName));
+        //anewarray заменяет длину ссылкой, checkcast не меняет глубину
+    }
+
+    //---------- переходы ----------
+
+    void jump(int opcode, Label target){
+        int at = length;
+        u1(opcode);
+        u2(0);
+        switch (opcode){
+            case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE: case IFNULL: case IFNONNULL:
+                stack(-1);
+                break;
+        }
+        if(target.depth<0) target.depth = depth;
+        if(target.position>=0){
+            patch(at, target.position);
+        }else{
+            target.fixups.add(at);
+        }
+        if(opcode==GOTO) reachable = false;
+    }
+
+    void place(Label label){
+        label.position = length;
+        if(!reachable){
+            depth = Math.max(label.depth, 0);
+            reachable = true;
+        }else if(label.depth<0){
+            label.depth = depth;
+        }
+        for(int at : label.fixups) patch(at, length);
+        label.fixups.clear();
+    }
+
+    private void patch(int at, int target){
+        int offset = target - at;
+        if(offset<Short.MIN_VALUE || offset>Short.MAX_VALUE) throw new Unsupported("method too large");
+        code[at+1] = (byte)(offset >> 8);
+        code[at+2] = (byte)offset;
+    }
+
+    byte[] toByteArray(){
+        if(length>0xffff) throw new Unsupported("method too large");
+        return Arrays.copyOf(code, length);
+    }
+
+    //---------- дескрипторы ----------
+
+    private static int slots(String type){
+        switch (type.charAt(0)){
+            case 'V': return 0;
+            case 'D': case 'J': return 2;
+            default: return 1;
+        }
+    }
+
+    private static int argumentSlots(String arguments){
+        int count = 0;
+        for(int i=0;i<arguments.length();i++){
+            char c = arguments.charAt(i);
+            if(c=='L'){
+                i = arguments.indexOf(';', i);
+                count++;
+            }else if(c=='['){
+                while(arguments.charAt(i)=='[') i++;
+                if(arguments.charAt(i)=='L') i = arguments.indexOf(';', i);
+                count++;
+            }else{
+                count += c=='D' || c=='J' ? 2 : 1;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,187 @@
+package craftinginterpreters.lox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//минимальная запись class-файла: пул констант, поля и методы с атрибутом Code.
+//версия 49 проверяется выводом типов и не требует StackMapTable, поэтому переходы не описываются фреймами
+final class ClassFile {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    final String name; //внутреннее имя: пакеты через /
+    private final String superName;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassFile(String name, String superName){
+        this.name = name;
+        this.superName = superName;
+    }
+
+    //---------- пул констант ----------
+
+    private int entry(String key, int size, PoolWriter writer){
+        var index = poolIndex.get(key);
+        if(index!=null) return index;
+        try{
+            writer.write(pool);
+        }catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+        int created = poolCount;
+        poolCount += size;
+        poolIndex.put(key, created);
+        return created;
+    }
+
+    private interface PoolWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    int utf8(String value){
+        return entry("U"+value, 1, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    int classRef(String internalName){
+        int utf = utf8(internalName);
+        return entry("C"+internalName, 1, out -> {
+            out.writeByte(7);
+            out.writeShort(utf);
+        });
+    }
+
+    int string(String value){
+        int utf = utf8(value);
+        return entry("S"+value, 1, out -> {
+            out.writeByte(8);
+            out.writeShort(utf);
+        });
+    }
+
+    int integer(int value){
+        return entry("I"+value, 1, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    //double занимает два элемента пула
+    int number(double value){
+        return entry("D"+Double.doubleToRawLongBits(value), 2, out -> {
+            out.writeByte(6);
+            out.writeDouble(value);
+        });
+    }
+
+    private int nameAndType(String name, String descriptor){
+        int n = utf8(name);
+        int d = utf8(descriptor);
+        return entry("N"+name+" "+descriptor, 1, out -> {
+            out.writeByte(12);
+            out.writeShort(n);
+            out.writeShort(d);
+        });
+    }
+
+    private int member(int tag, String owner, String name, String descriptor){
+        int c = classRef(owner);
+        int nt = nameAndType(name, descriptor);
+        return entry(tag+owner+"."+name+descriptor, 1, out -> {
+            out.writeByte(tag);
+            out.writeShort(c);
+            out.writeShort(nt);
+        });
+    }
+
+    int field(String owner, String name, String descriptor){
+        return member(9, owner, name, descriptor);
+    }
+
+    int method(String owner, String name, String descriptor){
+        return member(10, owner, name, descriptor);
+    }
+
+    //---------- поля и методы ----------
+
+    void addField(int access, String name, String descriptor){
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        try{
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        }catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    void addMethod(int access, String name, String descriptor, Bytecode code){
+        var body = code.toByteArray();
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        try{
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + body.length);
+            out.writeShort(code.maxStack());
+            out.writeShort(code.maxLocals());
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(0); //таблица исключений
+            out.writeShort(0); //атрибуты кода
+        }catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    byte[] toByteArray(){
+        int thisIndex = classRef(name);
+        int superIndex = classRef(superName);
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        try{
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            out.write(poolBytes.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(0);
+            out.writeShort(fields.size());
+            for(var field : fields) out.write(field);
+            out.writeShort(methods.size());
+            for(var method : methods) out.write(method);
+            out.writeShort(0);
+        }catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
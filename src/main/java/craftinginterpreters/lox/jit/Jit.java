@@ -0,0 +1,91 @@
+package craftinginterpreters.lox.jit;
+
+import craftinginterpreters.lox.Interpreter;
+import craftinginterpreters.lox.Stmt;
+import craftinginterpreters.lox.ir.Lowering;
+import craftinginterpreters.lox.ir.PassManager;
+import craftinginterpreters.lox.ir.Unsupported;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//второй уровень исполнения: считает вызовы функций и итерации их циклов и переводит горячие функции
+//в байткод JVM. скомпилированный класс хранится в объявлении функции, поэтому его получают
+//все замыкания, созданные из этого объявления
+public final class Jit {
+    //функция переходит в очередь компиляции после стольких вызовов или итераций циклов в её теле
+    static final int INVOCATION_THRESHOLD = 1000;
+    static final int BACK_EDGE_THRESHOLD = 20000;
+
+    private final Interpreter interpreter;
+    private final boolean log; //--jit-log: переходы между уровнями печатаются в stderr
+    private final Loader loader = new Loader();
+    private int classCount = 0;
+    //компиляция идёт в фоне, интерпретатор тем временем продолжает исполнять функцию по дереву
+    private final ExecutorService compiler = Executors.newSingleThreadExecutor(task -> {
+        var thread = new Thread(task, "lox-jit");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public Jit(Interpreter interpreter, boolean log){
+        this.interpreter = interpreter;
+        this.log = log;
+    }
+
+    //счётчики меняет только поток интерпретатора; готовый код он увидит через volatile поле compiled
+    public void countCall(Stmt.Function declaration, boolean isMethod){
+        if(++declaration.invocations==INVOCATION_THRESHOLD) enqueue(declaration, isMethod);
+    }
+
+    public void countBackEdge(Stmt.Function declaration, boolean isMethod){
+        if(++declaration.backEdges==BACK_EDGE_THRESHOLD) enqueue(declaration, isMethod);
+    }
+
+    private void enqueue(Stmt.Function declaration, boolean isMethod){
+        if(declaration.queued) return;
+        declaration.queued = true;
+        log(name(declaration)+": queued after "+declaration.invocations+" calls and "
+            +declaration.backEdges+" loop iterations");
+        compiler.execute(() -> compile(declaration, isMethod));
+    }
+
+    private void compile(Stmt.Function declaration, boolean isMethod){
+        String name = "craftinginterpreters.lox.jit.Lox$"+name(declaration)+"$"+(++classCount);
+        long start = System.nanoTime();
+        try{
+            var ir = Lowering.lower(declaration, isMethod);
+            PassManager.standard().run(ir);
+            var compiler = new JitCompiler(interpreter, ir, name.replace('.', '/'));
+            byte[] bytes = compiler.compile();
+            JitRuntime.register(name, compiler.constants());
+            declaration.compiled = (JitCode)loader.define(name, bytes).getDeclaredConstructor().newInstance();
+            log(name(declaration)+": compiled in "+(System.nanoTime()-start)/1000+"us, "
+                +bytes.length+" bytes; next call runs JVM code");
+        }catch (Unsupported e){
+            log(name(declaration)+": stays interpreted, "+e.getMessage());
+        }catch (ReflectiveOperationException | LinkageError | RuntimeException e){
+            //сгенерированный класс не прошёл проверку: функция остаётся интерпретируемой
+            log(name(declaration)+": stays interpreted, "+e);
+        }
+    }
+
+    private static String name(Stmt.Function declaration){
+        return declaration.name!=null ? declaration.name.lexeme : "anon";
+    }
+
+    private void log(String message){
+        if(log) System.err.println("[jit] "+message);
+    }
+
+    //отдельный загрузчик нужен, чтобы определять классы из массива байт
+    private static final class Loader extends ClassLoader {
+        Loader(){
+            super(Jit.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes){
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
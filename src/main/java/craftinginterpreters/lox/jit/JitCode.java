@@ -0,0 +1,12 @@
+package craftinginterpreters.lox.jit;
+
+import craftinginterpreters.lox.Environment;
+import craftinginterpreters.lox.LoxInstance;
+
+//тело функции, скомпилированное в класс JVM. получает то же окружение вызова, что и обход дерева:
+//параметры и this читаются из него, а локальные переменные живут в локальных переменных JVM
+public abstract class JitCode {
+    protected JitCode(){}
+
+    public abstract Object execute(Environment frame, LoxInstance instance);
+}
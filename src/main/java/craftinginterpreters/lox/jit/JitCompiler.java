@@ -0,0 +1,507 @@
+package craftinginterpreters.lox.jit;
+
+import craftinginterpreters.lox.*;
+import craftinginterpreters.lox.ir.Block;
+import craftinginterpreters.lox.ir.Instr;
+import craftinginterpreters.lox.ir.IrFunction;
+import craftinginterpreters.lox.ir.Op;
+import craftinginterpreters.lox.ir.Phi;
+import craftinginterpreters.lox.ir.Type;
+import craftinginterpreters.lox.ir.Unsupported;
+import craftinginterpreters.lox.ir.Value;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static craftinginterpreters.lox.jit.Bytecode.*;
+
+//переводит оптимизированный IR функции в класс-наследник JitCode. каждое значение SSA получает
+//свою локальную переменную JVM, числа и логические значения хранятся без упаковки.
+//всё, что зависит от типов во время исполнения, вызывает JitRuntime и дальше Interpreter
+final class JitCompiler {
+    private static final String OBJECT = "java/lang/Object";
+    private static final String RUNTIME = "craftinginterpreters/lox/jit/JitRuntime";
+    private static final String INTERPRETER = "craftinginterpreters/lox/Interpreter";
+    private static final String ENVIRONMENT = "craftinginterpreters/lox/Environment";
+    private static final String TOKEN = "craftinginterpreters/lox/Token";
+    private static final String BINARY = "craftinginterpreters/lox/Expr$Binary";
+    private static final String GET = "craftinginterpreters/lox/Expr$Get";
+    private static final String SET = "craftinginterpreters/lox/Expr$Set";
+    private static final String BINARY_HELPER = "(Ljava/lang/Object;Ljava/lang/Object;L"+BINARY+";L"+INTERPRETER+";)Ljava/lang/Object;";
+    private static final String CALL_HELPER = "(Ljava/lang/Object;[Ljava/lang/Object;L"+INTERPRETER+";L"+TOKEN+";)Ljava/lang/Object;";
+    private static final String CALL_METHOD_HELPER = "(Lcraftinginterpreters/lox/LoxFunction;Ljava/lang/Object;"
+        + "Ljava/lang/Object;[Ljava/lang/Object;L"+INTERPRETER+";L"+TOKEN+";)Ljava/lang/Object;";
+
+    private final Interpreter interpreter;
+    private final IrFunction function;
+    private final ClassFile classFile;
+    private Bytecode code;
+
+    private final List<Object> constants = new ArrayList<>();
+    private final List<String> constantTypes = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+
+    private final Map<Value, Integer> locals = new HashMap<>();
+    private final Map<Block, Label> labels = new HashMap<>();
+    private int[] uses;
+    //условия, которые вычисляются прямо инструкцией перехода и не получают своей переменной
+    private final Set<Value> fused = new HashSet<>();
+
+    JitCompiler(Interpreter interpreter, IrFunction function, String internalName){
+        this.interpreter = interpreter;
+        this.function = function;
+        this.classFile = new ClassFile(internalName, "craftinginterpreters/lox/jit/JitCode");
+    }
+
+    Object[] constants(){
+        return constants.toArray();
+    }
+
+    byte[] compile(){
+        function.splitCriticalEdges();
+        var order = function.reversePostorder();
+        countUses(order);
+
+        code = new Bytecode(classFile, 3); //this, frame, instance
+        for(var block : order) labels.put(block, new Label());
+        for(int i=0;i<order.size();i++){
+            var block = order.get(i);
+            code.place(labels.get(block));
+            block(block, i+1<order.size() ? order.get(i+1) : null);
+        }
+        if(code.maxLocals()>0xffff) throw new Unsupported("too many values");
+        classFile.addMethod(ClassFile.ACC_PUBLIC, "execute",
+            "(L"+ENVIRONMENT+";Lcraftinginterpreters/lox/LoxInstance;)Ljava/lang/Object;", code);
+
+        var constructor = new Bytecode(classFile, 1);
+        constructor.aload(0);
+        constructor.invokeSpecial("craftinginterpreters/lox/jit/JitCode", "<init>", "()V");
+        constructor.op(RETURN, 0);
+        classFile.addMethod(ClassFile.ACC_PUBLIC, "<init>", "()V", constructor);
+
+        //константы переходят из JitRuntime в статические поля, которые JIT HotSpot считает неизменными
+        var initializer = new Bytecode(classFile, 0);
+        int array = initializer.newLocal(1);
+        initializer.string(classFile.name.replace('/', '.'));
+        initializer.invokeStatic(RUNTIME, "constants", "(Ljava/lang/String;)[Ljava/lang/Object;");
+        initializer.astore(array);
+        for(int i=0;i<constants.size();i++){
+            initializer.aload(array);
+            initializer.iconst(i);
+            initializer.op(AALOAD, -1);
+            initializer.typeOp(CHECKCAST, constantTypes.get(i));
+            initializer.putStatic(classFile.name, "k"+i, "L"+constantTypes.get(i)+";");
+        }
+        initializer.op(RETURN, 0);
+        classFile.addMethod(ClassFile.ACC_STATIC, "<clinit>", "()V", initializer);
+
+        return classFile.toByteArray();
+    }
+
+    private void countUses(List<Block> order){
+        uses = new int[function.valueCount()];
+        for(var block : order){
+            for(var phi : block.phis) for(var input : phi.inputs) uses[input.id]++;
+            for(var instr : block.instrs) for(var operand : instr.operands) uses[operand.id]++;
+            for(var operand : block.terminator.operands) uses[operand.id]++;
+        }
+    }
+
+    //---------- значения ----------
+
+    private void constant(Object value, String type){
+        var index = constantIndex.get(value);
+        if(index==null){
+            index = constants.size();
+            constants.add(value);
+            constantTypes.add(type);
+            constantIndex.put(value, index);
+            classFile.addField(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_FINAL,
+                "k"+index, "L"+type+";");
+        }
+        code.getStatic(classFile.name, "k"+index, "L"+constantTypes.get(index)+";");
+    }
+
+    private int local(Value value){
+        return locals.computeIfAbsent(value, v -> code.newLocal(v.type==Type.NUMBER ? 2 : 1));
+    }
+
+    //константы и this не занимают переменных: они заново загружаются в каждом месте использования
+    private void load(Value value){
+        if(value instanceof Instr){
+            var instr = (Instr)value;
+            if(instr.op==Op.THIS){
+                code.aload(2);
+                return;
+            }
+            if(instr.op==Op.CONST){
+                var constant = instr.node;
+                if(constant instanceof Double){
+                    code.dconst((Double)constant);
+                }else if(constant instanceof Boolean){
+                    code.iconst((Boolean)constant ? 1 : 0);
+                }else if(constant instanceof String){
+                    code.string((String)constant);
+                }else{
+                    code.op(ACONST_NULL, 1);
+                }
+                return;
+            }
+        }
+        switch (value.type){
+            case NUMBER: code.dload(local(value)); break;
+            case BOOLEAN: code.local(ILOAD, local(value), 1); break;
+            default: code.aload(local(value)); break;
+        }
+    }
+
+    private void load(Value value, Type type){
+        load(value);
+        if(type==value.type) return;
+        if(type!=Type.ANY) throw new IllegalStateException(value+" is "+value.type+", not "+type);
+        switch (value.type){
+            case NUMBER: code.invokeStatic("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;"); break;
+            case BOOLEAN: code.invokeStatic("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;"); break;
+        }
+    }
+
+    private void store(Value value){
+        if(uses[value.id]==0){
+            if(value.type==Type.NUMBER){
+                code.op(POP2, -2);
+            }else{
+                code.op(POP, -1);
+            }
+            return;
+        }
+        switch (value.type){
+            case NUMBER: code.dstore(local(value)); break;
+            case BOOLEAN: code.local(ISTORE, local(value), -1); break;
+            default: code.astore(local(value)); break;
+        }
+    }
+
+    private void truth(Value value){
+        load(value);
+        switch (value.type){
+            case NUMBER: code.invokeStatic(RUNTIME, "isTruthy", "(D)Z"); break;
+            case ANY: code.invokeStatic(INTERPRETER, "isTruthy", "(Ljava/lang/Object;)Z"); break;
+        }
+    }
+
+    //---------- блоки ----------
+
+    private void block(Block block, Block next){
+        var terminator = block.terminator;
+        fused.clear();
+        if(terminator.op==Op.BRANCH) fuse(terminator.operand(0), block);
+        for(var instr : block.instrs){
+            if(!fused.contains(instr)) instr(instr);
+        }
+        switch (terminator.op){
+            case JUMP: {
+                var target = terminator.targets[0];
+                phiCopies(block, target);
+                if(target!=next) code.jump(GOTO, labels.get(target));
+                break;
+            }
+            case BRANCH: {
+                var ifTrue = terminator.targets[0];
+                var ifFalse = terminator.targets[1];
+                //после splitCriticalEdges у целей перехода нет φ-функций
+                if(!ifTrue.phis.isEmpty() || !ifFalse.phis.isEmpty()){
+                    throw new IllegalStateException("critical edge out of "+block);
+                }
+                if(ifFalse==next){
+                    branch(terminator.operand(0), true, labels.get(ifTrue));
+                }else{
+                    branch(terminator.operand(0), false, labels.get(ifFalse));
+                    if(ifTrue!=next) code.jump(GOTO, labels.get(ifTrue));
+                }
+                break;
+            }
+            case RETURN:
+                load(terminator.operand(0), Type.ANY);
+                code.op(ARETURN, -1);
+                break;
+            default:
+                throw new IllegalStateException("unexpected terminator "+terminator.op);
+        }
+    }
+
+    //отрицание и сравнение чисел, которые нужны только переходу, становятся самим переходом
+    private void fuse(Value condition, Block block){
+        if(!(condition instanceof Instr) || condition.block()!=block || uses[condition.id]!=1) return;
+        var instr = (Instr)condition;
+        if(instr.op==Op.NOT){
+            fused.add(instr);
+            fuse(instr.operand(0), block);
+        }else if(isComparison(instr.op) && instr.type==Type.BOOLEAN){
+            fused.add(instr);
+        }
+    }
+
+    private static boolean isComparison(Op op){
+        return op==Op.LESS || op==Op.LESS_EQUAL || op==Op.GREATER || op==Op.GREATER_EQUAL;
+    }
+
+    //переход на target, если истинность условия равна when
+    private void branch(Value condition, boolean when, Label target){
+        if(!fused.contains(condition)){
+            truth(condition);
+            code.jump(when ? IFNE : IFEQ, target);
+            return;
+        }
+        var instr = (Instr)condition;
+        if(instr.op==Op.NOT){
+            branch(instr.operand(0), !when, target);
+            return;
+        }
+        compare(instr);
+        int jump;
+        switch (instr.op){
+            case LESS: jump = when ? IFLT : IFGE; break;
+            case LESS_EQUAL: jump = when ? IFLE : IFGT; break;
+            case GREATER: jump = when ? IFGT : IFLE; break;
+            default: jump = when ? IFGE : IFLT; break;
+        }
+        code.jump(jump, target);
+    }
+
+    //при NaN dcmpg даёт 1, а dcmpl даёт -1, так что любое сравнение с NaN ложно
+    private void compare(Instr instr){
+        load(instr.operand(0));
+        load(instr.operand(1));
+        code.op(instr.op==Op.LESS || instr.op==Op.LESS_EQUAL ? DCMPG : DCMPL, -3);
+    }
+
+    //φ-функции преемника получают значения этого ребра. сначала все входы загружаются на стек и только потом
+    //записываются: φ, которая читает другую φ того же блока, должна получить её прежнее значение
+    private void phiCopies(Block block, Block target){
+        var phis = target.phis;
+        for(var phi : phis) load(phi.input(block), phi.type);
+        for(int i=phis.size()-1;i>=0;i--){
+            Phi phi = phis.get(i);
+            switch (phi.type){
+                case NUMBER: code.dstore(local(phi)); break;
+                case BOOLEAN: code.local(ISTORE, local(phi), -1); break;
+                default: code.astore(local(phi)); break;
+            }
+        }
+    }
+
+    //---------- инструкции ----------
+
+    private void instr(Instr instr){
+        switch (instr.op){
+            case CONST: case THIS:
+                break;
+            case PARAM:
+                code.aload(1);
+                code.iconst(0);
+                code.iconst(instr.slot);
+                code.invokeVirtual(ENVIRONMENT, "getAt", "(II)Ljava/lang/Object;");
+                store(instr);
+                break;
+            case COPY:
+                load(instr.operand(0));
+                store(instr);
+                break;
+            case LOAD_OUTER:
+                code.aload(1);
+                code.iconst(instr.distance);
+                code.iconst(instr.slot);
+                code.invokeVirtual(ENVIRONMENT, "getAt", "(II)Ljava/lang/Object;");
+                store(instr);
+                break;
+            case STORE_OUTER:
+                load(instr.operand(0), Type.ANY);
+                code.aload(1);
+                code.iconst(instr.distance);
+                code.iconst(instr.slot);
+                code.invokeStatic(RUNTIME, "assignAt", "(Ljava/lang/Object;L"+ENVIRONMENT+";II)Ljava/lang/Object;");
+                code.op(POP, -1);
+                break;
+            case LOAD_GLOBAL:
+                constant(interpreter.globals, ENVIRONMENT);
+                constant(instr.node, "craftinginterpreters/lox/Expr$Variable");
+                code.invokeStatic(RUNTIME, "global",
+                    "(L"+ENVIRONMENT+";Lcraftinginterpreters/lox/Expr$Variable;)Ljava/lang/Object;");
+                store(instr);
+                break;
+            case STORE_GLOBAL:
+                load(instr.operand(0), Type.ANY);
+                constant(interpreter.globals, ENVIRONMENT);
+                constant(instr.node, "craftinginterpreters/lox/Expr$Assign");
+                code.invokeStatic(RUNTIME, "setGlobal",
+                    "(Ljava/lang/Object;L"+ENVIRONMENT+";Lcraftinginterpreters/lox/Expr$Assign;)Ljava/lang/Object;");
+                code.op(POP, -1);
+                break;
+            case ADD: case SUB: case MUL: case DIV:
+            case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL: case BINARY:
+                binary(instr);
+                store(instr);
+                break;
+            case EQUAL: case NOT_EQUAL:
+                if(instr.operand(0).type==Type.NUMBER && instr.operand(1).type==Type.NUMBER){
+                    load(instr.operand(0));
+                    load(instr.operand(1));
+                    code.invokeStatic(RUNTIME, "same", "(DD)Z");
+                }else{
+                    load(instr.operand(0), Type.ANY);
+                    load(instr.operand(1), Type.ANY);
+                    code.invokeStatic(INTERPRETER, "isEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+                }
+                if(instr.op==Op.NOT_EQUAL){
+                    code.iconst(1);
+                    code.op(IXOR, -1);
+                }
+                store(instr);
+                break;
+            case NOT:
+                truth(instr.operand(0));
+                code.iconst(1);
+                code.op(IXOR, -1);
+                store(instr);
+                break;
+            case NEGATE:
+                if(instr.type==Type.NUMBER){
+                    load(instr.operand(0));
+                    code.op(DNEG, 0);
+                }else{
+                    load(instr.operand(0), Type.ANY);
+                    constant(instr.node, TOKEN);
+                    code.invokeStatic(RUNTIME, "negate", "(Ljava/lang/Object;L"+TOKEN+";)Ljava/lang/Object;");
+                }
+                store(instr);
+                break;
+            case GET:
+                load(instr.operand(0), Type.ANY);
+                constant(instr.node, GET);
+                code.invokeStatic(INTERPRETER, "getProperty", "(Ljava/lang/Object;L"+GET+";)Ljava/lang/Object;");
+                store(instr);
+                break;
+            case CHECK_INSTANCE:
+                load(instr.operand(0), Type.ANY);
+                constant(instr.node, SET);
+                code.invokeStatic(RUNTIME, "instance",
+                    "(Ljava/lang/Object;L"+SET+";)Lcraftinginterpreters/lox/LoxInstance;");
+                store(instr);
+                break;
+            case SET:
+                load(instr.operand(0));
+                load(instr.operand(1), Type.ANY);
+                constant(instr.node, SET);
+                code.invokeStatic(RUNTIME, "setProperty",
+                    "(Lcraftinginterpreters/lox/LoxInstance;Ljava/lang/Object;L"+SET+";)Ljava/lang/Object;");
+                code.op(POP, -1);
+                break;
+            case METHOD:
+                load(instr.operand(0), Type.ANY);
+                constant(instr.node, GET);
+                code.invokeStatic(RUNTIME, "method",
+                    "(Ljava/lang/Object;L"+GET+";)Lcraftinginterpreters/lox/LoxFunction;");
+                store(instr);
+                break;
+            case CALL: case TAIL_CALL:
+                load(instr.operand(0), Type.ANY);
+                arguments(instr, 1);
+                constant(interpreter, INTERPRETER);
+                constant(((Expr.Call)instr.node).paren, TOKEN);
+                code.invokeStatic(RUNTIME, instr.op==Op.CALL ? "call" : "tailCall", CALL_HELPER);
+                store(instr);
+                break;
+            case CALL_METHOD: case TAIL_CALL_METHOD:
+                load(instr.operand(0));
+                load(instr.operand(1), Type.ANY);
+                load(instr.operand(2), Type.ANY);
+                arguments(instr, 3);
+                constant(interpreter, INTERPRETER);
+                constant(((Expr.Call)instr.node).paren, TOKEN);
+                code.invokeStatic(RUNTIME, instr.op==Op.CALL_METHOD ? "callMethod" : "tailCallMethod", CALL_METHOD_HELPER);
+                store(instr);
+                break;
+            case PRINT:
+                if(instr.operand(0).type==Type.NUMBER){
+                    load(instr.operand(0));
+                    code.invokeStatic(RUNTIME, "print", "(D)V");
+                }else{
+                    load(instr.operand(0), Type.ANY);
+                    code.invokeStatic(RUNTIME, "print", "(Ljava/lang/Object;)V");
+                }
+                break;
+            default:
+                throw new IllegalStateException("unexpected "+instr.op);
+        }
+    }
+
+    //если оба операнда числа, операция выполняется над double прямо в байткоде
+    private void binary(Instr instr){
+        var left = instr.operand(0);
+        var right = instr.operand(1);
+        if(instr.op!=Op.BINARY && left.type==Type.NUMBER && right.type==Type.NUMBER){
+            switch (instr.op){
+                case ADD: load(left); load(right); code.op(DADD, -2); return;
+                case SUB: load(left); load(right); code.op(DSUB, -2); return;
+                case MUL: load(left); load(right); code.op(DMUL, -2); return;
+                case DIV:
+                    load(left);
+                    load(right);
+                    constant(((Expr.Binary)instr.node).operator, TOKEN);
+                    code.invokeStatic(RUNTIME, "divide", "(DDL"+TOKEN+";)D");
+                    return;
+                default: {
+                    compare(instr);
+                    int no;
+                    switch (instr.op){
+                        case LESS: no = IFGE; break;
+                        case LESS_EQUAL: no = IFGT; break;
+                        case GREATER: no = IFLE; break;
+                        default: no = IFLT; break;
+                    }
+                    var otherwise = new Label();
+                    var end = new Label();
+                    code.jump(no, otherwise);
+                    code.iconst(1);
+                    code.jump(GOTO, end);
+                    code.place(otherwise);
+                    code.iconst(0);
+                    code.place(end);
+                    return;
+                }
+            }
+        }
+        load(left, Type.ANY);
+        load(right, Type.ANY);
+        constant(instr.node, BINARY);
+        constant(interpreter, INTERPRETER);
+        String helper;
+        switch (instr.op){
+            case ADD: helper = "add"; break;
+            case SUB: helper = "subtract"; break;
+            case MUL: helper = "multiply"; break;
+            case LESS: helper = "less"; break;
+            case LESS_EQUAL: helper = "lessEqual"; break;
+            case GREATER: helper = "greater"; break;
+            case GREATER_EQUAL: helper = "greaterEqual"; break;
+            default: helper = "binary"; break;
+        }
+        code.invokeStatic(RUNTIME, helper, BINARY_HELPER);
+    }
+
+    private void arguments(Instr instr, int first){
+        code.iconst(instr.operands.length-first);
+        code.typeOp(ANEWARRAY, OBJECT);
+        for(int i=first;i<instr.operands.length;i++){
+            code.op(DUP, 1);
+            code.iconst(i-first);
+            load(instr.operand(i), Type.ANY);
+            code.op(AASTORE, -3);
+        }
+    }
+}
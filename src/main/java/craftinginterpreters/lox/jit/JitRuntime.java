@@ -0,0 +1,227 @@
+package craftinginterpreters.lox.jit;
+
+import craftinginterpreters.lox.*;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//статические методы, которые вызывает скомпилированный код. они маленькие, чтобы HotSpot встраивал их
+//в место вызова, а медленные случаи и сообщения об ошибках берут у Interpreter, как и остальные способы исполнения
+public final class JitRuntime {
+    private JitRuntime(){}
+
+    //константы класса ждут здесь, пока его статический инициализатор не заберёт их в свои поля
+    private static final Map<String, Object[]> pending = new ConcurrentHashMap<>();
+
+    static void register(String className, Object[] constants){
+        pending.put(className, constants);
+    }
+
+    public static Object[] constants(String className){
+        return pending.remove(className);
+    }
+
+    //---------- переменные ----------
+
+    public static Object global(Environment globals, Expr.Variable expr){
+        var cell = expr.cell;
+        if(cell==null){
+            cell = globals.cell(expr.name);
+            expr.cell = cell;
+        }
+        return cell.get();
+    }
+
+    public static Object setGlobal(Object value, Environment globals, Expr.Assign expr){
+        var cell = expr.cell;
+        if(cell==null){
+            cell = globals.cell(expr.name);
+            expr.cell = cell;
+        }
+        cell.set(value);
+        return value;
+    }
+
+    public static Object assignAt(Object value, Environment frame, int distance, int slot){
+        frame.assignAt(distance, slot, value);
+        return value;
+    }
+
+    //---------- операторы ----------
+
+    public static boolean isTruthy(double value){
+        return value!=0.0 && !Double.isNaN(value);
+    }
+
+    //равенство чисел как у Double.equals: NaN равен себе, 0.0 не равен -0.0
+    public static boolean same(double left, double right){
+        return Double.compare(left, right)==0;
+    }
+
+    public static double divide(double left, double right, Token operator){
+        Interpreter.checkZeroDivision(operator, right);
+        return left / right;
+    }
+
+    public static Object negate(Object value, Token operator){
+        Interpreter.checkNumberOperand(operator, value);
+        return -(double)value;
+    }
+
+    public static Object add(Object left, Object right, Expr.Binary expr, Interpreter interpreter){
+        if(left instanceof Double && right instanceof Double) return (double)left + (double)right;
+        return interpreter.binaryOperation(expr, left, right);
+    }
+
+    public static Object subtract(Object left, Object right, Expr.Binary expr, Interpreter interpreter){
+        if(left instanceof Double && right instanceof Double) return (double)left - (double)right;
+        return interpreter.binaryOperation(expr, left, right);
+    }
+
+    public static Object multiply(Object left, Object right, Expr.Binary expr, Interpreter interpreter){
+        if(left instanceof Double && right instanceof Double) return (double)left * (double)right;
+        return interpreter.binaryOperation(expr, left, right);
+    }
+
+    public static Object less(Object left, Object right, Expr.Binary expr, Interpreter interpreter){
+        if(left instanceof Double && right instanceof Double) return (double)left < (double)right;
+        return interpreter.binaryOperation(expr, left, right);
+    }
+
+    public static Object lessEqual(Object left, Object right, Expr.Binary expr, Interpreter interpreter){
+        if(left instanceof Double && right instanceof Double) return (double)left <= (double)right;
+        return interpreter.binaryOperation(expr, left, right);
+    }
+
+    public static Object greater(Object left, Object right, Expr.Binary expr, Interpreter interpreter){
+        if(left instanceof Double && right instanceof Double) return (double)left > (double)right;
+        return interpreter.binaryOperation(expr, left, right);
+    }
+
+    public static Object greaterEqual(Object left, Object right, Expr.Binary expr, Interpreter interpreter){
+        if(left instanceof Double && right instanceof Double) return (double)left >= (double)right;
+        return interpreter.binaryOperation(expr, left, right);
+    }
+
+    //деление, запятая и остальные операторы без быстрого пути
+    public static Object binary(Object left, Object right, Expr.Binary expr, Interpreter interpreter){
+        return interpreter.binaryOperation(expr, left, right);
+    }
+
+    //---------- свойства ----------
+
+    public static LoxInstance instance(Object object, Expr.Set expr){
+        if(!(object instanceof LoxInstance)) throw new RuntimeError(expr.name, "Only instances have fields.");
+        return (LoxInstance)object;
+    }
+
+    public static Object setProperty(LoxInstance object, Object value, Expr.Set expr){
+        Interpreter.setProperty(object, expr, value);
+        return value;
+    }
+
+    //---------- вызовы ----------
+
+    //метод экземпляра для obj.name(...) или null, если вызывается значение свойства
+    public static LoxFunction method(Object object, Expr.Get expr){
+        if(object!=null && object.getClass()==LoxInstance.class){
+            return expr.cache.findMethod((LoxInstance)object, expr.name);
+        }
+        return null;
+    }
+
+    public static Object callMethod(LoxFunction method, Object object, Object callee, Object[] arguments,
+                                    Interpreter interpreter, Token paren){
+        if(method==null) return call(callee, arguments, interpreter, paren);
+        try{
+            return invoke(method, (LoxInstance)object, arguments, interpreter, paren);
+        }catch (RuntimeError e){
+            throw e.atCallSite(paren);
+        }
+    }
+
+    //аргументы уже вычислены, дальше всё как в Interpreter.callValue
+    public static Object call(Object callee, Object[] arguments, Interpreter interpreter, Token paren){
+        try{
+            if(callee instanceof LoxFunction){
+                var function = (LoxFunction)callee;
+                return invoke(function, function.receiver, arguments, interpreter, paren);
+            }
+            if(callee!=null && callee.getClass()==LoxClass.class){
+                var initializer = ((LoxClass)callee).initializer();
+                if(initializer!=null){
+                    var instance = new LoxInstance((LoxClass)callee);
+                    invoke(initializer, instance, arguments, interpreter, paren);
+                    return instance;
+                }
+            }
+            if(!(callee instanceof LoxCallable)){
+                throw new RuntimeError(paren, "Can only call functions and classes.");
+            }
+            var function = (LoxCallable)callee;
+            Interpreter.checkArity(function, arguments.length, paren);
+            switch (arguments.length){
+                case 0: return function.call0(interpreter);
+                case 1: return function.call1(interpreter, arguments[0]);
+                case 2: return function.call2(interpreter, arguments[0], arguments[1]);
+                case 3: return function.call3(interpreter, arguments[0], arguments[1], arguments[2]);
+                default: return function.callN(interpreter, Arrays.asList(arguments));
+            }
+        }catch (RuntimeError e){
+            throw e.atCallSite(paren);
+        }
+    }
+
+    //return f(...): функция Lox, исполняемая обходом дерева или скомпилированная, не вызывается, а готовится
+    //для цикла в LoxFunction.execute, как это делает Interpreter. остальное вызывается как обычно
+    public static Object tailCall(Object callee, Object[] arguments, Interpreter interpreter, Token paren){
+        if(!(callee instanceof LoxFunction) || !((LoxFunction)callee).acceptsTailCall()) return call(callee, arguments, interpreter, paren);
+        var function = (LoxFunction)callee;
+        try{
+            return prepare(function, function.receiver, arguments, interpreter, paren);
+        }catch (RuntimeError e){
+            throw e.atCallSite(paren);
+        }
+    }
+
+    public static Object tailCallMethod(LoxFunction method, Object object, Object callee, Object[] arguments,
+                                        Interpreter interpreter, Token paren){
+        if(method==null) return tailCall(callee, arguments, interpreter, paren);
+        if(!method.acceptsTailCall()) return callMethod(method, object, callee, arguments, interpreter, paren);
+        try{
+            return prepare(method, (LoxInstance)object, arguments, interpreter, paren);
+        }catch (RuntimeError e){
+            throw e.atCallSite(paren);
+        }
+    }
+
+    private static Object prepare(LoxFunction function, LoxInstance instance, Object[] arguments,
+                                  Interpreter interpreter, Token paren){
+        if(arguments.length!=function.minArity()) Interpreter.checkArity(function, arguments.length, paren);
+        var frame = function.newFrame(instance);
+        for(int i=0;i<arguments.length;i++){
+            frame.define(function.parameterSlot(i), arguments[i]);
+        }
+        interpreter.prepareTailCall(function, frame, instance);
+        return null;
+    }
+
+    private static Object invoke(LoxFunction function, LoxInstance instance, Object[] arguments,
+                                 Interpreter interpreter, Token paren){
+        if(arguments.length!=function.minArity()) Interpreter.checkArity(function, arguments.length, paren);
+        var frame = function.newFrame(instance);
+        for(int i=0;i<arguments.length;i++){
+            frame.define(function.parameterSlot(i), arguments[i]);
+        }
+        return function.execute(interpreter, frame, instance);
+    }
+
+    public static void print(Object value){
+        System.out.println(Interpreter.stringify(value));
+    }
+
+    public static void print(double value){
+        System.out.println(Interpreter.stringify(value));
+    }
+}
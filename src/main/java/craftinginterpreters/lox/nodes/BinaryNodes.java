@@ -0,0 +1,383 @@
+package craftinginterpreters.lox.nodes;
+
+import craftinginterpreters.lox.ConcatString;
+import craftinginterpreters.lox.Environment;
+import craftinginterpreters.lox.Expr;
+import craftinginterpreters.lox.Interpreter;
+import craftinginterpreters.lox.TokenType;
+import craftinginterpreters.lox.UnexpectedResultException;
+
+//узлы бинарных операторов. узел начинается неинициализированным и при первом исполнении
+//заменяет себя специализацией под увиденные типы операндов (например AddDoubleNode для number + number);
+//когда типы меняются, специализация уступает место общему узлу с полной семантикой оператора
+final class BinaryNodes {
+    private BinaryNodes(){}
+
+    static ExprNode create(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+        switch (expr.operator.type){
+            case COMMA: return new SequenceNode(left, right);
+            default: return new UninitializedNode(engine, expr, left, right);
+        }
+    }
+
+    abstract static class BinaryNode extends ExprNode {
+        protected ExprNode left;
+        protected ExprNode right;
+        protected final NodeEngine engine;
+        protected final Expr.Binary expr;
+
+        BinaryNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            this.engine = engine;
+            this.expr = expr;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            Object l = left.execute(frame);
+            Object r = right.execute(frame);
+            return executeWith(l, r);
+        }
+
+        //продолжение исполнения над уже вычисленными операндами, нужно при смене специализации
+        abstract Object executeWith(Object l, Object r);
+
+        Object generalize(Object l, Object r){
+            return replace(new GenericNode(engine, expr, left, right)).executeWith(l, r);
+        }
+    }
+
+    static final class UninitializedNode extends BinaryNode {
+        UninitializedNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            super(engine, expr, left, right);
+        }
+
+        @Override
+        Object executeWith(Object l, Object r){
+            return replace(specialize(l, r)).executeWith(l, r);
+        }
+
+        private BinaryNode specialize(Object l, Object r){
+            boolean numbers = l instanceof Double && r instanceof Double;
+            switch (expr.operator.type){
+                case PLUS:
+                    if(numbers) return new AddDoubleNode(engine, expr, left, right);
+                    if(ConcatString.isString(l) && ConcatString.isString(r)) return new AddStringNode(engine, expr, left, right);
+                    break;
+                case MINUS:
+                    if(numbers) return new SubDoubleNode(engine, expr, left, right);
+                    break;
+                case STAR:
+                    if(numbers) return new MulDoubleNode(engine, expr, left, right);
+                    break;
+                case SLASH:
+                    if(numbers) return new DivDoubleNode(engine, expr, left, right);
+                    break;
+                case LESS:
+                    if(numbers) return new LessDoubleNode(engine, expr, left, right);
+                    break;
+                case LESS_EQUAL:
+                    if(numbers) return new LessEqualDoubleNode(engine, expr, left, right);
+                    break;
+                case GREATER:
+                    if(numbers) return new GreaterDoubleNode(engine, expr, left, right);
+                    break;
+                case GREATER_EQUAL:
+                    if(numbers) return new GreaterEqualDoubleNode(engine, expr, left, right);
+                    break;
+                case EQUAL_EQUAL:
+                case BANG_EQUAL:
+                    if(numbers) return new EqualDoubleNode(engine, expr, left, right);
+                    break;
+            }
+            return new GenericNode(engine, expr, left, right);
+        }
+    }
+
+    //все остальные сочетания типов, включая перегруженные операторы и ошибки
+    static final class GenericNode extends BinaryNode {
+        GenericNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            super(engine, expr, left, right);
+        }
+
+        @Override
+        Object executeWith(Object l, Object r){
+            return engine.interpreter.binaryOperation(expr, l, r);
+        }
+    }
+
+    //арифметика над числами: операнды исполняются через executeDouble, результат упаковывается,
+    //только если его запрашивают как Object. каждая операция повторяет executeDouble у себя:
+    //HotSpot ведёт профиль типов по байткоду метода, и в общем методе операнды n - 1 смешались бы
+    //с операндами fib(n - 1) + fib(n - 2), так что C2 встраивал бы вызов функции и в вычитание
+    abstract static class DoubleArithmeticNode extends BinaryNode {
+        DoubleArithmeticNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            super(engine, expr, left, right);
+        }
+
+        abstract double apply(double l, double r);
+
+        @Override
+        public Object execute(Environment frame){
+            try{
+                return executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                return e.getResult();
+            }
+        }
+
+        //левый операнд оказался не числом: правый вычисляется как есть, узел уступает место общему
+        double leftNotDouble(UnexpectedResultException e, Environment frame) throws UnexpectedResultException {
+            return expectDouble(generalize(e.getResult(), right.execute(frame)));
+        }
+
+        double rightNotDouble(double l, UnexpectedResultException e) throws UnexpectedResultException {
+            return expectDouble(generalize(l, e.getResult()));
+        }
+
+        @Override
+        Object executeWith(Object l, Object r){
+            if(l instanceof Double && r instanceof Double) return apply((double)l, (double)r);
+            return generalize(l, r);
+        }
+    }
+
+    static final class AddDoubleNode extends DoubleArithmeticNode {
+        AddDoubleNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            super(engine, expr, left, right);
+        }
+
+        @Override
+        double apply(double l, double r){
+            return l + r;
+        }
+
+        @Override
+        public double executeDouble(Environment frame) throws UnexpectedResultException {
+            double l;
+            try{
+                l = left.executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                return leftNotDouble(e, frame);
+            }
+            double r;
+            try{
+                r = right.executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                return rightNotDouble(l, e);
+            }
+            return l + r;
+        }
+    }
+
+    static final class SubDoubleNode extends DoubleArithmeticNode {
+        SubDoubleNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            super(engine, expr, left, right);
+        }
+
+        @Override
+        double apply(double l, double r){
+            return l - r;
+        }
+
+        @Override
+        public double executeDouble(Environment frame) throws UnexpectedResultException {
+            double l;
+            try{
+                l = left.executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                return leftNotDouble(e, frame);
+            }
+            double r;
+            try{
+                r = right.executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                return rightNotDouble(l, e);
+            }
+            return l - r;
+        }
+    }
+
+    static final class MulDoubleNode extends DoubleArithmeticNode {
+        MulDoubleNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            super(engine, expr, left, right);
+        }
+
+        @Override
+        double apply(double l, double r){
+            return l * r;
+        }
+
+        @Override
+        public double executeDouble(Environment frame) throws UnexpectedResultException {
+            double l;
+            try{
+                l = left.executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                return leftNotDouble(e, frame);
+            }
+            double r;
+            try{
+                r = right.executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                return rightNotDouble(l, e);
+            }
+            return l * r;
+        }
+    }
+
+    static final class DivDoubleNode extends DoubleArithmeticNode {
+        DivDoubleNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            super(engine, expr, left, right);
+        }
+
+        @Override
+        double apply(double l, double r){
+            Interpreter.checkZeroDivision(expr.operator, r);
+            return l / r;
+        }
+
+        @Override
+        public double executeDouble(Environment frame) throws UnexpectedResultException {
+            double l;
+            try{
+                l = left.executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                return leftNotDouble(e, frame);
+            }
+            double r;
+            try{
+                r = right.executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                return rightNotDouble(l, e);
+            }
+            return apply(l, r);
+        }
+    }
+
+    static final class AddStringNode extends BinaryNode {
+        AddStringNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            super(engine, expr, left, right);
+        }
+
+        @Override
+        Object executeWith(Object l, Object r){
+            if(ConcatString.isString(l) && ConcatString.isString(r)) return ConcatString.concat(l, r);
+            return generalize(l, r);
+        }
+    }
+
+    //сравнения чисел: в условиях возвращают boolean, не упаковывая ни операнды, ни результат
+    abstract static class CompareDoubleNode extends BinaryNode {
+        CompareDoubleNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            super(engine, expr, left, right);
+        }
+
+        abstract boolean compare(double l, double r);
+
+        @Override
+        public Object execute(Environment frame){
+            return executeCondition(frame);
+        }
+
+        @Override
+        Object executeWith(Object l, Object r){
+            if(l instanceof Double && r instanceof Double) return compare((double)l, (double)r);
+            return generalize(l, r);
+        }
+
+        @Override
+        public boolean executeCondition(Environment frame){
+            double l;
+            try{
+                l = left.executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                return Interpreter.isTruthy(generalize(e.getResult(), right.execute(frame)));
+            }
+            double r;
+            try{
+                r = right.executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                return Interpreter.isTruthy(generalize(l, e.getResult()));
+            }
+            return compare(l, r);
+        }
+    }
+
+    static final class LessDoubleNode extends CompareDoubleNode {
+        LessDoubleNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            super(engine, expr, left, right);
+        }
+
+        @Override
+        boolean compare(double l, double r){
+            return l < r;
+        }
+    }
+
+    static final class LessEqualDoubleNode extends CompareDoubleNode {
+        LessEqualDoubleNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            super(engine, expr, left, right);
+        }
+
+        @Override
+        boolean compare(double l, double r){
+            return l <= r;
+        }
+    }
+
+    static final class GreaterDoubleNode extends CompareDoubleNode {
+        GreaterDoubleNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            super(engine, expr, left, right);
+        }
+
+        @Override
+        boolean compare(double l, double r){
+            return l > r;
+        }
+    }
+
+    static final class GreaterEqualDoubleNode extends CompareDoubleNode {
+        GreaterEqualDoubleNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            super(engine, expr, left, right);
+        }
+
+        @Override
+        boolean compare(double l, double r){
+            return l >= r;
+        }
+    }
+
+    //== и != для чисел; равенство как у Double.equals, которым пользуется общий вариант
+    static final class EqualDoubleNode extends CompareDoubleNode {
+        private final boolean negated;
+
+        EqualDoubleNode(NodeEngine engine, Expr.Binary expr, ExprNode left, ExprNode right){
+            super(engine, expr, left, right);
+            this.negated = expr.operator.type==TokenType.BANG_EQUAL;
+        }
+
+        @Override
+        boolean compare(double l, double r){
+            return (Double.compare(l, r)==0) != negated;
+        }
+    }
+
+    //оператор запятая: вычисляет оба операнда и возвращает правый
+    static final class SequenceNode extends ExprNode {
+        private ExprNode left;
+        private ExprNode right;
+
+        SequenceNode(ExprNode left, ExprNode right){
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            left.execute(frame);
+            return right.execute(frame);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package craftinginterpreters.lox.nodes;
+
+import craftinginterpreters.lox.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//узлы вызова. obj.method(...) и super.method(...) вызывают метод без создания связанного метода,
+//обычный вызов специализируется под функцию Lox и уходит в общий вариант, если вызываемое значение другое
+final class CallNodes {
+    private CallNodes(){}
+
+    abstract static class CallNode extends ExprNode {
+        protected final NodeEngine engine;
+        protected final Token paren;
+        protected final ExprNode[] arguments;
+        //вызов стоит в return: функция, исполняемая циклом LoxFunction.execute, только готовится к вызову
+        boolean tail;
+
+        CallNode(NodeEngine engine, Token paren, ExprNode[] arguments){
+            this.engine = engine;
+            this.paren = paren;
+            this.arguments = adopt(arguments);
+        }
+
+        //переполнение стека Java сообщается как ошибка Lox в месте вызова, как в Interpreter.visitCallExpr
+        @Override
+        public final Object execute(Environment frame){
+            try{
+                return dispatch(frame);
+            }catch (RuntimeError e){
+                throw e.atCallSite(paren);
+            }catch (StackOverflowError e){
+                throw new RuntimeError(paren, "Stack overflow.");
+            }
+        }
+
+        abstract Object dispatch(Environment frame);
+
+        //аргументы вычисляются сразу в окружение вызова, минуя промежуточный список
+        Object callFunction(LoxFunction function, LoxInstance instance, Environment frame){
+            if(arguments.length!=function.minArity()){
+                evaluateArguments(frame);
+                Interpreter.checkArity(function, arguments.length, paren);
+            }
+            var callFrame = function.newFrame(instance);
+            for(int i=0;i<arguments.length;i++){
+                callFrame.define(function.parameterSlot(i), arguments[i].execute(frame));
+            }
+            return invoke(function, callFrame, instance);
+        }
+
+        Object invoke(LoxFunction function, Environment callFrame, LoxInstance instance){
+            if(tail && function.acceptsTailCall()){
+                engine.interpreter.prepareTailCall(function, callFrame, instance);
+                return null;
+            }
+            return function.execute(engine.interpreter, callFrame, instance);
+        }
+
+        //специализированный узел остаётся хвостовым вызовом
+        <T extends CallNode> T respecialize(T replacement){
+            replacement.tail = tail;
+            return replace(replacement);
+        }
+
+        Object callValue(Object callee, Environment frame){
+            if(callee instanceof LoxFunction){
+                var function = (LoxFunction)callee;
+                return callFunction(function, function.receiver, frame);
+            }
+            if(callee!=null && callee.getClass()==LoxClass.class){
+                var initializer = ((LoxClass)callee).initializer();
+                if(initializer!=null){
+                    var instance = new LoxInstance((LoxClass)callee);
+                    callFunction(initializer, instance, frame);
+                    return instance;
+                }
+            }
+            if(!(callee instanceof LoxCallable)){
+                evaluateArguments(frame);
+                throw new RuntimeError(paren, "Can only call functions and classes.");
+            }
+            var function = (LoxCallable)callee;
+            var interpreter = engine.interpreter;
+            switch (arguments.length){
+                case 0:
+                    Interpreter.checkArity(function, 0, paren);
+                    return function.call0(interpreter);
+                case 1: {
+                    Object a = arguments[0].execute(frame);
+                    Interpreter.checkArity(function, 1, paren);
+                    return function.call1(interpreter, a);
+                }
+                case 2: {
+                    Object a = arguments[0].execute(frame);
+                    Object b = arguments[1].execute(frame);
+                    Interpreter.checkArity(function, 2, paren);
+                    return function.call2(interpreter, a, b);
+                }
+                case 3: {
+                    Object a = arguments[0].execute(frame);
+                    Object b = arguments[1].execute(frame);
+                    Object c = arguments[2].execute(frame);
+                    Interpreter.checkArity(function, 3, paren);
+                    return function.call3(interpreter, a, b, c);
+                }
+                default: {
+                    List<Object> values = evaluateArguments(frame);
+                    Interpreter.checkArity(function, values.size(), paren);
+                    return function.callN(interpreter, values);
+                }
+            }
+        }
+
+        List<Object> evaluateArguments(Environment frame){
+            List<Object> values = new ArrayList<>(arguments.length);
+            for(ExprNode argument : arguments){
+                values.add(argument.execute(frame));
+            }
+            return values;
+        }
+    }
+
+    //вызов значения выражения: f(...), makeCounter()(...)
+    abstract static class ValueCallNode extends CallNode {
+        protected ExprNode callee;
+
+        ValueCallNode(NodeEngine engine, Token paren, ExprNode callee, ExprNode[] arguments){
+            super(engine, paren, arguments);
+            this.callee = adopt(callee);
+        }
+
+        @Override
+        Object dispatch(Environment frame){
+            return dispatchWith(callee.execute(frame), frame);
+        }
+
+        abstract Object dispatchWith(Object function, Environment frame);
+    }
+
+    static final class UninitializedCallNode extends ValueCallNode {
+        UninitializedCallNode(NodeEngine engine, Token paren, ExprNode callee, ExprNode[] arguments){
+            super(engine, paren, callee, arguments);
+        }
+
+        @Override
+        Object dispatchWith(Object function, Environment frame){
+            ValueCallNode specialized;
+            if(DirectCallNode.accepts(function, arguments.length)){
+                specialized = new DirectCallNode(engine, paren, callee, arguments, ((NodeFunction)function).template);
+            }else if(function instanceof LoxFunction){
+                specialized = new FunctionCallNode(engine, paren, callee, arguments);
+            }else{
+                specialized = new GenericCallNode(engine, paren, callee, arguments);
+            }
+            return respecialize(specialized).dispatchWith(function, frame);
+        }
+    }
+
+    //вызов обычной функции одного объявления, например рекурсивный вызов fib(n - 1).
+    //число аргументов проверено при специализации, поэтому кадр создаётся и заполняется прямо здесь,
+    //и сразу передаётся циклу LoxFunction.execute. другое объявление уводит место в FunctionCallNode.
+    //аргумент, пока он даёт числа, кладётся в кадр без упаковки, как локальная переменная в VarNode
+    static final class DirectCallNode extends ValueCallNode {
+        private final FunctionTemplate template;
+        private final int frameSize;
+        private final boolean[] numeric;
+
+        DirectCallNode(NodeEngine engine, Token paren, ExprNode callee, ExprNode[] arguments, FunctionTemplate template){
+            super(engine, paren, callee, arguments);
+            this.template = template;
+            this.frameSize = template.declaration.frameSize;
+            this.numeric = new boolean[arguments.length];
+            Arrays.fill(numeric, true);
+        }
+
+        static boolean accepts(Object function, int argumentCount){
+            return function instanceof NodeFunction && ((NodeFunction)function).isPlain()
+                && ((NodeFunction)function).minArity()==argumentCount;
+        }
+
+        @Override
+        Object dispatchWith(Object function, Environment frame){
+            if(function instanceof NodeFunction && ((NodeFunction)function).template==template){
+                var nodeFunction = (NodeFunction)function;
+                var callFrame = new Environment(nodeFunction.closure, frameSize);
+                for(int i=0;i<arguments.length;i++){
+                    if(numeric[i]){
+                        try{
+                            callFrame.defineDouble(i, arguments[i].executeDouble(frame));
+                        }catch (UnexpectedResultException e){
+                            numeric[i] = false;
+                            callFrame.define(i, e.getResult());
+                        }
+                    }else{
+                        callFrame.define(i, arguments[i].execute(frame));
+                    }
+                }
+                return invoke(nodeFunction, callFrame, null);
+            }
+            return respecialize(new FunctionCallNode(engine, paren, callee, arguments)).dispatchWith(function, frame);
+        }
+    }
+
+    static final class FunctionCallNode extends ValueCallNode {
+        FunctionCallNode(NodeEngine engine, Token paren, ExprNode callee, ExprNode[] arguments){
+            super(engine, paren, callee, arguments);
+        }
+
+        @Override
+        Object dispatchWith(Object function, Environment frame){
+            if(function instanceof LoxFunction){
+                var loxFunction = (LoxFunction)function;
+                return callFunction(loxFunction, loxFunction.receiver, frame);
+            }
+            return respecialize(new GenericCallNode(engine, paren, callee, arguments)).dispatchWith(function, frame);
+        }
+    }
+
+    static final class GenericCallNode extends ValueCallNode {
+        GenericCallNode(NodeEngine engine, Token paren, ExprNode callee, ExprNode[] arguments){
+            super(engine, paren, callee, arguments);
+        }
+
+        @Override
+        Object dispatchWith(Object function, Environment frame){
+            return callValue(function, frame);
+        }
+    }
+
+    static final class InvokeNode extends CallNode {
+        private ExprNode object;
+        private final Expr.Get get;
+
+        InvokeNode(NodeEngine engine, Token paren, ExprNode object, Expr.Get get, ExprNode[] arguments){
+            super(engine, paren, arguments);
+            this.object = adopt(object);
+            this.get = get;
+        }
+
+        @Override
+        Object dispatch(Environment frame){
+            Object receiver = object.execute(frame);
+            if(receiver!=null && receiver.getClass()==LoxInstance.class){
+                var instance = (LoxInstance)receiver;
+                var method = get.cache.findMethod(instance, get.name);
+                if(method!=null){
+                    return callFunction(method, instance, frame);
+                }
+            }
+            return callValue(Interpreter.getProperty(receiver, get), frame);
+        }
+    }
+
+    static final class SuperInvokeNode extends CallNode {
+        private final ExprNodes.SuperLookup lookup;
+
+        SuperInvokeNode(NodeEngine engine, Token paren, Expr.Super expr, ExprNode[] arguments){
+            super(engine, paren, arguments);
+            this.lookup = new ExprNodes.SuperLookup(expr);
+        }
+
+        @Override
+        Object dispatch(Environment frame){
+            var method = lookup.find(frame);
+            return callFunction(method, lookup.receiver(frame), frame);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package craftinginterpreters.lox.nodes;
+
+import craftinginterpreters.lox.Environment;
+import craftinginterpreters.lox.Interpreter;
+import craftinginterpreters.lox.UnexpectedResultException;
+
+//исполняемое выражение. кроме общего execute, узел можно исполнить с ожидаемым типом результата:
+//узлы, вычисляющие числа, переопределяют executeDouble и не упаковывают промежуточные значения в Double.
+//упаковка происходит только когда число уходит в хранилище типа Object: поле, аргумент, возвращаемое значение
+public abstract class ExprNode extends Node {
+    public abstract Object execute(Environment frame);
+
+    public double executeDouble(Environment frame) throws UnexpectedResultException {
+        return expectDouble(execute(frame));
+    }
+
+    //значение не нужно, например у выражения-инструкции; присваивания не упаковывают в этом случае результат
+    public void executeVoid(Environment frame){
+        execute(frame);
+    }
+
+    //условия циклов и ветвлений; узлы сравнения переопределяют его, чтобы не упаковывать результат
+    public boolean executeCondition(Environment frame){
+        return Interpreter.isTruthy(execute(frame));
+    }
+
+    static double expectDouble(Object value) throws UnexpectedResultException {
+        if(value instanceof Double) return (double)value;
+        throw new UnexpectedResultException(value);
+    }
+}
@@ -0,0 +1,414 @@
+package craftinginterpreters.lox.nodes;
+
+import craftinginterpreters.lox.*;
+
+//узлы выражений без специализации по типам
+final class ExprNodes {
+    private ExprNodes(){}
+
+    static final class LiteralNode extends ExprNode {
+        private final Object value;
+
+        LiteralNode(Object value){
+            this.value = value;
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            return value;
+        }
+    }
+
+    //числовой литерал: значение хранится и упакованным, и как double, чтобы не упаковывать при каждом чтении
+    static final class DoubleLiteralNode extends ExprNode {
+        private final double value;
+        private final Object boxed;
+
+        DoubleLiteralNode(double value){
+            this.value = value;
+            this.boxed = value;
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            return boxed;
+        }
+
+        @Override
+        public double executeDouble(Environment frame){
+            return value;
+        }
+    }
+
+    //локальные переменные и this: глубина и индекс назначены Resolver
+    static final class LocalReadNode extends ExprNode {
+        private final int depth;
+        private final int slot;
+
+        LocalReadNode(int depth, int slot){
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            return frame.getAt(depth, slot);
+        }
+
+        @Override
+        public double executeDouble(Environment frame) throws UnexpectedResultException {
+            return frame.getDoubleAt(depth, slot);
+        }
+    }
+
+    //запись числа без упаковки; первое нечисловое значение заменяет узел на LocalWriteNode
+    static final class LocalWriteDoubleNode extends ExprNode {
+        private final int depth;
+        private final int slot;
+        private ExprNode value;
+
+        LocalWriteDoubleNode(int depth, int slot, ExprNode value){
+            this.depth = depth;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            try{
+                return executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                return e.getResult();
+            }
+        }
+
+        @Override
+        public void executeVoid(Environment frame){
+            try{
+                executeDouble(frame);
+            }catch (UnexpectedResultException ignored){
+            }
+        }
+
+        @Override
+        public double executeDouble(Environment frame) throws UnexpectedResultException {
+            double result;
+            try{
+                result = value.executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                replace(new LocalWriteNode(depth, slot, value));
+                frame.assignAt(depth, slot, e.getResult());
+                throw e;
+            }
+            frame.assignDoubleAt(depth, slot, result);
+            return result;
+        }
+    }
+
+    static final class LocalWriteNode extends ExprNode {
+        private final int depth;
+        private final int slot;
+        private ExprNode value;
+
+        LocalWriteNode(int depth, int slot, ExprNode value){
+            this.depth = depth;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            Object result = value.execute(frame);
+            frame.assignAt(depth, slot, result);
+            return result;
+        }
+    }
+
+    //глобальная переменная ищется по имени при первом обращении, дальше читается ячейка
+    static final class GlobalReadNode extends ExprNode {
+        private final Environment globals;
+        private final Token name;
+        private GlobalCell cell;
+
+        GlobalReadNode(Environment globals, Token name){
+            this.globals = globals;
+            this.name = name;
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            if(cell==null) cell = globals.cell(name);
+            return cell.get();
+        }
+
+        @Override
+        public double executeDouble(Environment frame) throws UnexpectedResultException {
+            if(cell==null) cell = globals.cell(name);
+            return cell.getDouble();
+        }
+    }
+
+    static final class GlobalWriteNode extends ExprNode {
+        private final Environment globals;
+        private final Token name;
+        private ExprNode value;
+        private GlobalCell cell;
+
+        GlobalWriteNode(Environment globals, Token name, ExprNode value){
+            this.globals = globals;
+            this.name = name;
+            this.value = adopt(value);
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            Object result = value.execute(frame);
+            if(cell==null) cell = globals.cell(name);
+            cell.set(result);
+            return result;
+        }
+    }
+
+    static final class GlobalWriteDoubleNode extends ExprNode {
+        private final Environment globals;
+        private final Token name;
+        private ExprNode value;
+        private GlobalCell cell;
+
+        GlobalWriteDoubleNode(Environment globals, Token name, ExprNode value){
+            this.globals = globals;
+            this.name = name;
+            this.value = adopt(value);
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            try{
+                return executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                return e.getResult();
+            }
+        }
+
+        @Override
+        public void executeVoid(Environment frame){
+            try{
+                executeDouble(frame);
+            }catch (UnexpectedResultException ignored){
+            }
+        }
+
+        @Override
+        public double executeDouble(Environment frame) throws UnexpectedResultException {
+            double result;
+            try{
+                result = value.executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                replace(new GlobalWriteNode(globals, name, value));
+                if(cell==null) cell = globals.cell(name);
+                cell.set(e.getResult());
+                throw e;
+            }
+            if(cell==null) cell = globals.cell(name);
+            cell.setDouble(result);
+            return result;
+        }
+    }
+
+    static final class AndNode extends ExprNode {
+        private ExprNode left;
+        private ExprNode right;
+
+        AndNode(ExprNode left, ExprNode right){
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            Object value = left.execute(frame);
+            if(!Interpreter.isTruthy(value)) return value;
+            return right.execute(frame);
+        }
+
+        @Override
+        public boolean executeCondition(Environment frame){
+            return left.executeCondition(frame) && right.executeCondition(frame);
+        }
+    }
+
+    static final class OrNode extends ExprNode {
+        private ExprNode left;
+        private ExprNode right;
+
+        OrNode(ExprNode left, ExprNode right){
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            Object value = left.execute(frame);
+            if(Interpreter.isTruthy(value)) return value;
+            return right.execute(frame);
+        }
+
+        @Override
+        public boolean executeCondition(Environment frame){
+            return left.executeCondition(frame) || right.executeCondition(frame);
+        }
+    }
+
+    static final class TernaryNode extends ExprNode {
+        private ExprNode condition;
+        private ExprNode thenValue;
+        private ExprNode elseValue;
+
+        TernaryNode(ExprNode condition, ExprNode thenValue, ExprNode elseValue){
+            this.condition = adopt(condition);
+            this.thenValue = adopt(thenValue);
+            this.elseValue = adopt(elseValue);
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            return condition.executeCondition(frame) ? thenValue.execute(frame) : elseValue.execute(frame);
+        }
+    }
+
+    static final class NegateNode extends ExprNode {
+        private final Token operator;
+        private ExprNode right;
+
+        NegateNode(Token operator, ExprNode right){
+            this.operator = operator;
+            this.right = adopt(right);
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            Object value = right.execute(frame);
+            Interpreter.checkNumberOperand(operator, value);
+            return -(double)value;
+        }
+
+        @Override
+        public double executeDouble(Environment frame) throws UnexpectedResultException {
+            try{
+                return -right.executeDouble(frame);
+            }catch (UnexpectedResultException e){
+                Interpreter.checkNumberOperand(operator, e.getResult());
+                throw e;
+            }
+        }
+    }
+
+    static final class NotNode extends ExprNode {
+        private ExprNode right;
+
+        NotNode(ExprNode right){
+            this.right = adopt(right);
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            return !right.executeCondition(frame);
+        }
+
+        @Override
+        public boolean executeCondition(Environment frame){
+            return !right.executeCondition(frame);
+        }
+    }
+
+    //анонимная функция: замыкание над текущим окружением
+    static final class ClosureNode extends ExprNode {
+        private final FunctionTemplate template;
+
+        ClosureNode(FunctionTemplate template){
+            this.template = template;
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            return new NodeFunction(template, template.closure(frame), false, false, null);
+        }
+    }
+
+    static final class GetNode extends ExprNode {
+        private ExprNode object;
+        private final Expr.Get expr;
+
+        GetNode(ExprNode object, Expr.Get expr){
+            this.object = adopt(object);
+            this.expr = expr;
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            return Interpreter.getProperty(object.execute(frame), expr);
+        }
+    }
+
+    static final class SetNode extends ExprNode {
+        private ExprNode object;
+        private ExprNode value;
+        private final Expr.Set expr;
+
+        SetNode(ExprNode object, ExprNode value, Expr.Set expr){
+            this.object = adopt(object);
+            this.value = adopt(value);
+            this.expr = expr;
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            Object target = object.execute(frame);
+            if(!(target instanceof LoxInstance)) throw new RuntimeError(expr.name, "Only instances have fields.");
+            Object result = value.execute(frame);
+            Interpreter.setProperty((LoxInstance)target, expr, result);
+            return result;
+        }
+    }
+
+    //super.method без вызова: связанный метод суперкласса
+    static final class SuperNode extends ExprNode {
+        private final SuperLookup lookup;
+
+        SuperNode(Expr.Super expr){
+            this.lookup = new SuperLookup(expr);
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            return lookup.find(frame).bind(lookup.receiver(frame));
+        }
+    }
+
+    //окружение с super непосредственно охватывает окружение метода, в нулевом индексе которого лежит this
+    static final class SuperLookup {
+        private final Expr.Super expr;
+        private LoxClass superclass;
+        private LoxFunction target;
+
+        SuperLookup(Expr.Super expr){
+            this.expr = expr;
+        }
+
+        LoxFunction find(Environment frame){
+            var current = (LoxClass)frame.getAt(expr.depth, expr.slot);
+            if(current==superclass) return target;
+            var method = current.findMethod(expr.method.lexeme);
+            if(method==null){
+                throw new RuntimeError(expr.method, "Undefined property `"+expr.method.lexeme+"`.");
+            }
+            superclass = current;
+            target = (LoxFunction)method;
+            return target;
+        }
+
+        LoxInstance receiver(Environment frame){
+            return (LoxInstance)frame.getAt(expr.depth-1, 0);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package craftinginterpreters.lox.nodes;
+
+import craftinginterpreters.lox.Completion;
+import craftinginterpreters.lox.Environment;
+import craftinginterpreters.lox.Stmt;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+//объявление функции вместе с телом в виде узлов. все замыкания одного объявления разделяют шаблон,
+//поэтому специализации, накопленные телом, переживают отдельные вызовы. тело переводится при первом вызове.
+//тело вызывается через MethodHandle из поля экземпляра, а такой вызов C2 не встраивает: каждая функция
+//компилируется отдельно, как CallTarget в Truffle. иначе C2 встраивает рекурсивные вызовы друг в друга,
+//пока не упрётся в предел глубины, и подолгу компилирует огромные методы
+final class FunctionTemplate {
+    private static final MethodHandle EXECUTE_BODY;
+    static {
+        try{
+            EXECUTE_BODY = MethodHandles.lookup().findVirtual(FunctionTemplate.class, "executeBody",
+                MethodType.methodType(Completion.class, Environment.class));
+        }catch (ReflectiveOperationException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    final NodeEngine engine;
+    final Stmt.Function declaration;
+    private StmtNode body;
+    private final MethodHandle callTarget = EXECUTE_BODY; //не static: константный MethodHandle C2 встроил бы
+
+    FunctionTemplate(NodeEngine engine, Stmt.Function declaration){
+        this.engine = engine;
+        this.declaration = declaration;
+    }
+
+    //окружение нового замыкания: копии захваченных переменных или вся цепочка, как решил Resolver
+    Environment closure(Environment frame){
+        return engine.interpreter.closure(declaration, frame);
+    }
+
+    //исполняет тело в заполненном окружении вызова
+    Completion call(Environment frame){
+        try{
+            return (Completion)callTarget.invokeExact(this, frame);
+        }catch (RuntimeException | Error e){
+            throw e;
+        }catch (Throwable e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Completion executeBody(Environment frame){
+        if(body==null) body = engine.translator.translateBody(declaration.body);
+        return body.execute(frame);
+    }
+}
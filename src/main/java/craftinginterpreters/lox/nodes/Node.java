@@ -0,0 +1,90 @@
+package craftinginterpreters.lox.nodes;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+//узел исполняемого дерева. узлы, специализированные под типы, которые они уже видели,
+//при несовпадении типа заменяют себя в родителе более общим вариантом через replace.
+//дочерние узлы хранятся в нефинальных полях (или массивах), чтобы их можно было заменить
+public abstract class Node {
+    private Node parent;
+
+    protected final <T extends Node> T adopt(T child){
+        if(child!=null) ((Node)child).parent = this;
+        return child;
+    }
+
+    protected final <T extends Node> T[] adopt(T[] children){
+        for(T child : children) adopt(child);
+        return children;
+    }
+
+    //замена происходит только при смене специализации, то есть редко, поэтому поле родителя ищется рефлексией.
+    //при рекурсии узел может оказаться уже заменённым вложенным исполнением того же места: тогда дерево
+    //не меняется, текущее исполнение завершается на новом узле, а дети возвращаются узлу, стоящему в дереве
+    protected final <T extends Node> T replace(T replacement){
+        if(parent==null) throw new IllegalStateException("cannot replace root node "+this);
+        if(!parent.replaceChild(this, replacement)) parent.adoptTree();
+        ((Node)replacement).parent = parent;
+        return replacement;
+    }
+
+    private boolean replaceChild(Node child, Node replacement){
+        for(Field field : childFields(getClass())){
+            try{
+                if(field.getType().isArray()){
+                    Object[] children = (Object[])field.get(this);
+                    if(children==null) continue;
+                    for(int i=0;i<children.length;i++){
+                        if(children[i]==child){
+                            children[i] = replacement;
+                            return true;
+                        }
+                    }
+                }else if(field.get(this)==child){
+                    field.set(this, replacement);
+                    return true;
+                }
+            }catch (IllegalAccessException e){
+                throw new IllegalStateException(e);
+            }
+        }
+        return false;
+    }
+
+    private void adoptTree(){
+        for(Field field : childFields(getClass())){
+            try{
+                Object value = field.get(this);
+                if(value instanceof Node[]){
+                    for(Node child : (Node[])value){
+                        if(child==null) continue;
+                        child.parent = this;
+                        child.adoptTree();
+                    }
+                }else if(value!=null){
+                    ((Node)value).parent = this;
+                    ((Node)value).adoptTree();
+                }
+            }catch (IllegalAccessException e){
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static List<Field> childFields(Class<?> type){
+        List<Field> fields = new ArrayList<>();
+        for(; type!=Node.class; type = type.getSuperclass()){
+            for(Field field : type.getDeclaredFields()){
+                if(Modifier.isStatic(field.getModifiers())) continue;
+                Class<?> fieldType = field.getType().isArray() ? field.getType().getComponentType() : field.getType();
+                if(!Node.class.isAssignableFrom(fieldType)) continue;
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+}
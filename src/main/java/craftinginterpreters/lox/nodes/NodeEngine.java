@@ -0,0 +1,52 @@
+package craftinginterpreters.lox.nodes;
+
+import craftinginterpreters.lox.*;
+
+import java.util.List;
+
+//исполнение программы деревом самоспециализирующихся узлов вместо обхода AST посетителем Interpreter.
+//окружения, функции, классы и экземпляры общие с Interpreter: он по-прежнему хранит глобальные
+//переменные и передаётся нативным функциям, а функции одного способа исполнения вызываются из другого
+public final class NodeEngine {
+    final Interpreter interpreter;
+    final Environment globals;
+    final NodeTranslator translator;
+    Object returnValue = null; //значение последнего исполненного return
+
+    public NodeEngine(Interpreter interpreter){
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+        this.translator = new NodeTranslator(this);
+    }
+
+    //инструкции верхнего уровня переводятся и исполняются по одной, как в Interpreter.interpret
+    public void execute(List<Stmt> statements){
+        for(Stmt statement : statements){
+            translator.translate(statement).execute(globals);
+        }
+    }
+
+    public Object evaluate(Expr expr){
+        return new ExpressionRoot(translator.translate(expr)).execute(globals);
+    }
+
+    Object takeReturnValue(){
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    //корень для выражения REPL, чтобы его узлы тоже могли заменить себя
+    private static final class ExpressionRoot extends ExprNode {
+        private ExprNode expression;
+
+        ExpressionRoot(ExprNode expression){
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        public Object execute(Environment frame){
+            return expression.execute(frame);
+        }
+    }
+}
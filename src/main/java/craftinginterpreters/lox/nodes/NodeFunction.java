@@ -0,0 +1,33 @@
+package craftinginterpreters.lox.nodes;
+
+import craftinginterpreters.lox.*;
+
+//функция Lox, тело которой исполняется узлами. окружение вызова и соглашение о параметрах
+//те же, что у LoxFunction, поэтому Interpreter и классы вызывают её как обычную функцию
+public final class NodeFunction extends LoxFunction {
+    final FunctionTemplate template;
+
+    NodeFunction(FunctionTemplate template, Environment closure, boolean isInitializer,
+                 boolean isMethod, LoxInstance receiver){
+        super(template.declaration, closure, isInitializer, isMethod, receiver);
+        this.template = template;
+    }
+
+    @Override
+    public LoxFunction bind(LoxInstance instance){
+        return new NodeFunction(template, closure, isInitializer, isMethod, instance);
+    }
+
+    //тело исполняется узлами, а цикл хвостовых вызовов в LoxFunction.execute общий с Interpreter
+    @Override
+    protected Object executeBody(Interpreter interpreter, Environment frame, LoxInstance instance){
+        if(template.call(frame)==Completion.RETURN) return template.engine.takeReturnValue();
+        return null;
+    }
+
+    //обычная функция: без получателя, параметры лежат в кадре с нулевого индекса
+    boolean isPlain(){
+        return !isMethod && !isInitializer;
+    }
+
+}
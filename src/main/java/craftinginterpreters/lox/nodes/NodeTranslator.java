@@ -0,0 +1,238 @@
+package craftinginterpreters.lox.nodes;
+
+import craftinginterpreters.lox.*;
+
+import java.util.List;
+
+//переводит разрешённое AST в исполняемые узлы. глубины и индексы переменных уже записаны Resolver,
+//поэтому перевод не зависит от окружений и делается один раз для каждого объявления
+final class NodeTranslator implements Expr.Visitor<ExprNode>, Stmt.Visitor<StmtNode> {
+    private final NodeEngine engine;
+
+    NodeTranslator(NodeEngine engine){
+        this.engine = engine;
+    }
+
+    StmtNode translate(Stmt stmt){
+        return stmt.accept(this);
+    }
+
+    ExprNode translate(Expr expr){
+        return expr.accept(this);
+    }
+
+    StmtNode translateBody(List<Stmt> statements){
+        return new StmtNodes.SequenceNode(translateAll(statements));
+    }
+
+    private StmtNode[] translateAll(List<Stmt> statements){
+        var nodes = new StmtNode[statements.size()];
+        for(int i=0;i<nodes.length;i++){
+            nodes[i] = translate(statements.get(i));
+        }
+        return nodes;
+    }
+
+    private ExprNode[] translateArguments(List<Expr> arguments){
+        var nodes = new ExprNode[arguments.size()];
+        for(int i=0;i<nodes.length;i++){
+            nodes[i] = translate(arguments.get(i));
+        }
+        return nodes;
+    }
+
+    private StmtNodes.Definition definition(Token name, int slot){
+        return new StmtNodes.Definition(engine.globals, name, slot);
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        var value = translate(expr.value);
+        //запись начинается с числовой специализации и обобщается при первом нечисловом значении
+        if(expr.depth>=0) return new ExprNodes.LocalWriteDoubleNode(expr.depth, expr.slot, value);
+        return new ExprNodes.GlobalWriteDoubleNode(engine.globals, expr.name, value);
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        return BinaryNodes.create(engine, expr, translate(expr.left), translate(expr.right));
+    }
+
+    @Override
+    public ExprNode visitTernaryExpr(Expr.Ternary expr) {
+        if(expr.op1.type==TokenType.QUESTION && expr.op2.type==TokenType.COLON){
+            return new ExprNodes.TernaryNode(translate(expr.left), translate(expr.middle), translate(expr.right));
+        }
+        return new ExprNodes.LiteralNode(null);
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        return translate(expr.expression);
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value instanceof Double) return new ExprNodes.DoubleLiteralNode((double)expr.value);
+        return new ExprNodes.LiteralNode(expr.value);
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        var left = translate(expr.left);
+        var right = translate(expr.right);
+        switch (expr.operator.type){
+            case OR: return new ExprNodes.OrNode(left, right);
+            case AND: return new ExprNodes.AndNode(left, right);
+            default: return new BinaryNodes.SequenceNode(left, right);
+        }
+    }
+
+    @Override
+    public ExprNode visitSetExpr(Expr.Set expr) {
+        return new ExprNodes.SetNode(translate(expr.object), translate(expr.value), expr);
+    }
+
+    @Override
+    public ExprNode visitThisExpr(Expr.This expr) {
+        return new ExprNodes.LocalReadNode(expr.depth, expr.slot);
+    }
+
+    @Override
+    public ExprNode visitSuperExpr(Expr.Super expr) {
+        return new ExprNodes.SuperNode(expr);
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        var right = translate(expr.right);
+        switch (expr.operator.type){
+            case MINUS: return new ExprNodes.NegateNode(expr.operator, right);
+            case BANG: return new ExprNodes.NotNode(right);
+            default: return new BinaryNodes.SequenceNode(right, new ExprNodes.LiteralNode(null));
+        }
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        if(expr.depth>=0) return new ExprNodes.LocalReadNode(expr.depth, expr.slot);
+        return new ExprNodes.GlobalReadNode(engine.globals, expr.name);
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        if(expr.calee instanceof Expr.Get){
+            var get = (Expr.Get)expr.calee;
+            return new CallNodes.InvokeNode(engine, expr.paren, translate(get.object), get,
+                translateArguments(expr.arguments));
+        }
+        if(expr.calee instanceof Expr.Super){
+            return new CallNodes.SuperInvokeNode(engine, expr.paren, (Expr.Super)expr.calee,
+                translateArguments(expr.arguments));
+        }
+        return new CallNodes.UninitializedCallNode(engine, expr.paren, translate(expr.calee),
+            translateArguments(expr.arguments));
+    }
+
+    @Override
+    public ExprNode visitAnonFunExpr(Expr.AnonFun expr) {
+        return new ExprNodes.ClosureNode(new FunctionTemplate(engine, expr.declaration));
+    }
+
+    @Override
+    public ExprNode visitGetExpr(Expr.Get expr) {
+        return new ExprNodes.GetNode(translate(expr.object), expr);
+    }
+
+    //узлы сами специализируются по значениям, поэтому суперинструкции переводятся исходным выражением
+    @Override
+    public ExprNode visitIncrementExpr(Expr.Increment expr) {
+        return translate(expr.assign);
+    }
+
+    @Override
+    public ExprNode visitCompareExpr(Expr.Compare expr) {
+        return translate(expr.binary);
+    }
+
+    @Override
+    public ExprNode visitFieldUpdateExpr(Expr.FieldUpdate expr) {
+        return translate(expr.set);
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        if(stmt.inline) return new StmtNodes.SequenceNode(translateAll(stmt.statements));
+        return new StmtNodes.BlockNode(translateAll(stmt.statements), stmt.frameSize);
+    }
+
+    @Override
+    public StmtNode visitClassStmt(Stmt.Class stmt) {
+        var methods = new FunctionTemplate[stmt.methods.size()];
+        for(int i=0;i<methods.length;i++){
+            methods[i] = new FunctionTemplate(engine, stmt.methods.get(i));
+        }
+        var superclass = stmt.superclass==null ? null : translate(stmt.superclass);
+        return new StmtNodes.ClassNode(definition(stmt.name, stmt.slot), stmt, superclass, methods);
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        return new StmtNodes.ExpressionNode(translate(stmt.expression));
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        var elseBranch = stmt.elseBranch==null ? null : translate(stmt.elseBranch);
+        return new StmtNodes.IfNode(translate(stmt.condition), translate(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        return new StmtNodes.PrintNode(translate(stmt.expression));
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt) {
+        var initializer = stmt.initializer==null ? null : translate(stmt.initializer);
+        return new StmtNodes.VarNode(definition(stmt.name, stmt.slot), initializer);
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        return new StmtNodes.WhileNode(translate(stmt.condition), translate(stmt.body));
+    }
+
+    @Override
+    public StmtNode visitForStmt(Stmt.For stmt) {
+        var init = stmt.init==null ? null : translate(stmt.init);
+        var increment = stmt.increment==null ? null : translate(stmt.increment);
+        return new StmtNodes.ForNode(init, translate(stmt.condition), translate(stmt.body), increment);
+    }
+
+    @Override
+    public StmtNode visitCountedForStmt(Stmt.CountedFor stmt) {
+        return translate(stmt.loop);
+    }
+
+    @Override
+    public StmtNode visitControlStatementStmt(Stmt.ControlStatement stmt) {
+        switch (stmt.parameter.type){
+            case BREAK: return new StmtNodes.ControlNode(Completion.BREAK);
+            case CONTINUE: return new StmtNodes.ControlNode(Completion.CONTINUE);
+            default: return new StmtNodes.ControlNode(Completion.NORMAL);
+        }
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+        return new StmtNodes.FunctionNode(definition(stmt.name, stmt.slot), new FunctionTemplate(engine, stmt));
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt) {
+        var value = stmt.value==null ? null : translate(stmt.value);
+        if(stmt.tailCall) ((CallNodes.CallNode)value).tail = true;
+        return new StmtNodes.ReturnNode(engine, value);
+    }
+}
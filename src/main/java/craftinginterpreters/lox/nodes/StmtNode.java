@@ -0,0 +1,8 @@
+package craftinginterpreters.lox.nodes;
+
+import craftinginterpreters.lox.Completion;
+import craftinginterpreters.lox.Environment;
+
+public abstract class StmtNode extends Node {
+    public abstract Completion execute(Environment frame);
+}
@@ -0,0 +1,293 @@
+package craftinginterpreters.lox.nodes;
+
+import craftinginterpreters.lox.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//узлы инструкций. как и в Interpreter, break, continue и return передаются через Completion
+final class StmtNodes {
+    private StmtNodes(){}
+
+    static final class ExpressionNode extends StmtNode {
+        private ExprNode expression;
+
+        ExpressionNode(ExprNode expression){
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        public Completion execute(Environment frame){
+            expression.executeVoid(frame);
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class PrintNode extends StmtNode {
+        private ExprNode expression;
+
+        PrintNode(ExprNode expression){
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        public Completion execute(Environment frame){
+            System.out.println(Interpreter.stringify(expression.execute(frame)));
+            return Completion.NORMAL;
+        }
+    }
+
+    //объявления верхнего уровня попадают в глобальное окружение по имени, локальные - в свой индекс
+    static final class Definition {
+        private final Environment globals;
+        private final Token name;
+        private final int slot;
+
+        Definition(Environment globals, Token name, int slot){
+            this.globals = globals;
+            this.name = name;
+            this.slot = slot;
+        }
+
+        void define(Environment frame, Object value){
+            if(slot>=0){
+                frame.define(slot, value);
+            }else{
+                globals.define(name.lexeme, value);
+            }
+        }
+
+        boolean isLocal(){
+            return slot>=0;
+        }
+    }
+
+    //локальная переменная, пока её инициализатор даёт числа, кладётся в кадр без упаковки
+    static final class VarNode extends StmtNode {
+        private final Definition definition;
+        private ExprNode initializer;
+        private boolean numeric;
+
+        VarNode(Definition definition, ExprNode initializer){
+            this.definition = definition;
+            this.initializer = adopt(initializer);
+            this.numeric = initializer!=null && definition.isLocal();
+        }
+
+        @Override
+        public Completion execute(Environment frame){
+            if(numeric){
+                try{
+                    frame.defineDouble(definition.slot, initializer.executeDouble(frame));
+                    return Completion.NORMAL;
+                }catch (UnexpectedResultException e){
+                    numeric = false;
+                    definition.define(frame, e.getResult());
+                    return Completion.NORMAL;
+                }
+            }
+            Object value = initializer==null ? null : initializer.execute(frame);
+            definition.define(frame, value);
+            return Completion.NORMAL;
+        }
+    }
+
+    //последовательность инструкций в уже созданном окружении: тело функции, программа или блок,
+    //переменные которого лежат в окружении объемлющей области
+    static final class SequenceNode extends StmtNode {
+        private final StmtNode[] statements;
+
+        SequenceNode(StmtNode[] statements){
+            this.statements = adopt(statements);
+        }
+
+        @Override
+        public Completion execute(Environment frame){
+            for(StmtNode statement : statements){
+                Completion completion = statement.execute(frame);
+                if(completion!=Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class BlockNode extends StmtNode {
+        private final StmtNode[] statements;
+        private final int frameSize;
+
+        BlockNode(StmtNode[] statements, int frameSize){
+            this.statements = adopt(statements);
+            this.frameSize = frameSize;
+        }
+
+        @Override
+        public Completion execute(Environment frame){
+            var environment = new Environment(frame, frameSize);
+            for(StmtNode statement : statements){
+                Completion completion = statement.execute(environment);
+                if(completion!=Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class IfNode extends StmtNode {
+        private ExprNode condition;
+        private StmtNode thenBranch;
+        private StmtNode elseBranch;
+
+        IfNode(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch){
+            this.condition = adopt(condition);
+            this.thenBranch = adopt(thenBranch);
+            this.elseBranch = adopt(elseBranch);
+        }
+
+        @Override
+        public Completion execute(Environment frame){
+            if(condition.executeCondition(frame)){
+                return thenBranch.execute(frame);
+            }else if(elseBranch!=null){
+                return elseBranch.execute(frame);
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class WhileNode extends StmtNode {
+        private ExprNode condition;
+        private StmtNode body;
+
+        WhileNode(ExprNode condition, StmtNode body){
+            this.condition = adopt(condition);
+            this.body = adopt(body);
+        }
+
+        @Override
+        public Completion execute(Environment frame){
+            while(condition.executeCondition(frame)){
+                Completion completion = body.execute(frame);
+                if(completion==Completion.BREAK) break;
+                if(completion==Completion.RETURN) return completion;
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class ForNode extends StmtNode {
+        private StmtNode init;
+        private ExprNode condition;
+        private StmtNode body;
+        private ExprNode increment;
+
+        ForNode(StmtNode init, ExprNode condition, StmtNode body, ExprNode increment){
+            this.init = adopt(init);
+            this.condition = adopt(condition);
+            this.body = adopt(body);
+            this.increment = adopt(increment);
+        }
+
+        @Override
+        public Completion execute(Environment frame){
+            if(init!=null) init.execute(frame);
+
+            while(condition.executeCondition(frame)){
+                Completion completion = body.execute(frame);
+                if(completion==Completion.BREAK) break;
+                if(completion==Completion.RETURN) return completion;
+                if(increment!=null) //исполняем инкремент даже если мы использовали continue
+                    increment.executeVoid(frame);
+            }
+            return Completion.NORMAL;
+        }
+    }
+
+    //break и continue
+    static final class ControlNode extends StmtNode {
+        private final Completion completion;
+
+        ControlNode(Completion completion){
+            this.completion = completion;
+        }
+
+        @Override
+        public Completion execute(Environment frame){
+            return completion;
+        }
+    }
+
+    static final class ReturnNode extends StmtNode {
+        private final NodeEngine engine;
+        private ExprNode value;
+
+        ReturnNode(NodeEngine engine, ExprNode value){
+            this.engine = engine;
+            this.value = adopt(value);
+        }
+
+        @Override
+        public Completion execute(Environment frame){
+            engine.returnValue = value==null ? null : value.execute(frame);
+            return Completion.RETURN;
+        }
+    }
+
+    static final class FunctionNode extends StmtNode {
+        private final Definition definition;
+        private final FunctionTemplate template;
+
+        FunctionNode(Definition definition, FunctionTemplate template){
+            this.definition = definition;
+            this.template = template;
+        }
+
+        @Override
+        public Completion execute(Environment frame){
+            definition.define(frame, new NodeFunction(template, template.closure(frame), false, false, null));
+            return Completion.NORMAL;
+        }
+    }
+
+    static final class ClassNode extends StmtNode {
+        private final Definition definition;
+        private final Stmt.Class stmt;
+        private ExprNode superclass;
+        private final FunctionTemplate[] methods;
+
+        ClassNode(Definition definition, Stmt.Class stmt, ExprNode superclass, FunctionTemplate[] methods){
+            this.definition = definition;
+            this.stmt = stmt;
+            this.superclass = adopt(superclass);
+            this.methods = methods;
+        }
+
+        @Override
+        public Completion execute(Environment frame){
+            Object parent = null;
+            if(superclass!=null){
+                parent = superclass.execute(frame);
+                if(!(parent instanceof LoxClass)){
+                    throw new RuntimeError(stmt.superclass.name, "Superclass must be a class");
+                }
+            }
+
+            definition.define(frame, null);
+
+            Environment environment = frame;
+            if(superclass!=null){
+                environment = new Environment(frame, 1);
+                environment.define(0, parent);
+            }
+
+            Map<String, LoxCallable> table = new HashMap<>();
+            for(var method : methods){
+                var declaration = method.declaration;
+                table.put(declaration.name.lexeme, new NodeFunction(method, method.closure(environment),
+                    declaration.name.lexeme.equals("init"), !declaration.isStaticClassMethod, null));
+            }
+            LoxClass loxClass = new LoxClass(stmt.name.lexeme, (LoxClass)parent, table);
+
+            definition.define(frame, loxClass);
+            return Completion.NORMAL;
+        }
+    }
+}
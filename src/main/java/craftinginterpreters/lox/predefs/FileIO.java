@@ -53,14 +53,9 @@ public class FileIO extends NativeLoxClass {
 
     private void define_methods(FileIO classinstance, FileIoInstance objectinstance){
 
-        objectinstance.fields.put("getMode", new NativeLoxFunction() {
+        objectinstance.putField("getMode", new NativeLoxFunction(0) {
             @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(0);
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call0(Interpreter interpreter) {
                 return switch (objectinstance.mode){
                     case READ -> "r";
                     case WRITE -> "w";
@@ -74,14 +69,9 @@ public class FileIO extends NativeLoxClass {
         });
 
 
-        objectinstance.fields.put("close", new NativeLoxFunction() {
-            @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(0);
-            }
-
+        objectinstance.putField("close", new NativeLoxFunction(0) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call0(Interpreter interpreter) {
                 switch (objectinstance.mode){
                     case READ -> objectinstance.scanner.close();
                     case WRITE -> objectinstance.writer.close();
@@ -95,18 +85,13 @@ public class FileIO extends NativeLoxClass {
             }
         });
 
-        objectinstance.fields.put("print", new NativeLoxFunction() {
-            @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(1);
-            }
-
+        objectinstance.putField("print", new NativeLoxFunction(1) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call1(Interpreter interpreter, Object argument) {
                 switch (objectinstance.mode) {
                     case READ -> throw new RuntimeError(new Token(TokenType.IDENTIFIER, "print", null, -1),
                         "FileIO in reading mode.");
-                    case WRITE -> objectinstance.writer.print(Interpreter.stringify(arguments.get(0)));
+                    case WRITE -> objectinstance.writer.print(Interpreter.stringify(argument));
                 }
                 return null;
             }
@@ -117,19 +102,13 @@ public class FileIO extends NativeLoxClass {
             }
         });
 
-        objectinstance.fields.put("println", new NativeLoxFunction() {
-
-            @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(1);
-            }
-
+        objectinstance.putField("println", new NativeLoxFunction(1) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call1(Interpreter interpreter, Object argument) {
                 switch (objectinstance.mode) {
                     case READ -> throw new RuntimeError(new Token(TokenType.IDENTIFIER, "println", null, -1),
                         "FileIO in reading mode.");
-                    case WRITE -> objectinstance.writer.println(Interpreter.stringify(arguments.get(0)));
+                    case WRITE -> objectinstance.writer.println(Interpreter.stringify(argument));
                 }
 
                 return null;
@@ -141,14 +120,9 @@ public class FileIO extends NativeLoxClass {
             }
         });
 
-        objectinstance.fields.put("readln", new NativeLoxFunction() {
-            @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(0);
-            }
-
+        objectinstance.putField("readln", new NativeLoxFunction(0) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call0(Interpreter interpreter) {
                 return switch (objectinstance.mode) {
                     case WRITE -> throw new RuntimeError(new Token(TokenType.IDENTIFIER, "readln", null, -1),
                         "FileIO in reading mode.");
@@ -164,14 +138,15 @@ public class FileIO extends NativeLoxClass {
     }
 
     @Override
-    public Set<Integer> arity() {
-        return Collections.singleton(2);
+    public int minArity() {
+        return 2;
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        if(arguments.get(0) instanceof String && arguments.get(1) instanceof String){
-            var fileIoInstance = new FileIoInstance(this, (String) arguments.get(0), (String) arguments.get(1));
+    public Object callN(Interpreter interpreter, List<Object> arguments) {
+        Object path = ConcatString.flatten(arguments.get(0)), mode = ConcatString.flatten(arguments.get(1));
+        if(path instanceof String && mode instanceof String){
+            var fileIoInstance = new FileIoInstance(this, (String) path, (String) mode);
             define_methods(this, fileIoInstance);
             return fileIoInstance;
         }else{
@@ -2,10 +2,8 @@ package craftinginterpreters.lox.predefs;
 
 import craftinginterpreters.lox.*;
 
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
 
 public class LoxMath extends NativeLoxClass {
     private static LoxMath classInstance = new LoxMath();
@@ -16,16 +14,9 @@ public class LoxMath extends NativeLoxClass {
     public static LoxMath getInstance(){return classInstance;}
 
     private void define_methods(LoxMath classInstance){
-        classInstance.fields.put("pow", new NativeLoxFunction() {
+        classInstance.putField("pow", new NativeLoxFunction(2) {
             @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(2);
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                Object argument1 = arguments.get(0);
-                Object argument2 = arguments.get(1);
+            public Object call2(Interpreter interpreter, Object argument1, Object argument2) {
 
                 if(argument1 instanceof Double && argument2 instanceof Double){
                     return Math.pow((Double)argument1, (Double)argument2);
@@ -35,15 +26,9 @@ public class LoxMath extends NativeLoxClass {
             }
         });
 
-        classInstance.fields.put("abs", new NativeLoxFunction() {
-            @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(1);
-            }
-
+        classInstance.putField("abs", new NativeLoxFunction(1) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                Object argument1 = arguments.get(0);
+            public Object call1(Interpreter interpreter, Object argument1) {
 
                 if(argument1 instanceof Double){
                     return Math.abs((Double)argument1);
@@ -56,12 +41,12 @@ public class LoxMath extends NativeLoxClass {
 
 
     @Override
-    public Set<Integer> arity() {
-        return Collections.singleton(0);
+    public int minArity() {
+        return 0;
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object callN(Interpreter interpreter, List<Object> arguments) {
         throw new RuntimeError(new Token(TokenType.IDENTIFIER, "Math", null, -1),
             "cannot create instance of this class");
     }
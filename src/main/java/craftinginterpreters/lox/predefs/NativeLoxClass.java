@@ -1,10 +1,14 @@
 package craftinginterpreters.lox.predefs;
 
+import craftinginterpreters.lox.Interpreter;
 import craftinginterpreters.lox.LoxCallable;
 import craftinginterpreters.lox.LoxClass;
 import craftinginterpreters.lox.RuntimeError;
 import craftinginterpreters.lox.Token;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public abstract class NativeLoxClass extends LoxClass {
@@ -12,9 +16,33 @@ public abstract class NativeLoxClass extends LoxClass {
     public NativeLoxClass(String name, LoxClass superclass, Map<String, LoxCallable> methods) {
         super(name, superclass, methods);
     }
+    //нативные классы создают экземпляры только в callN
+    @Override
+    public abstract Object callN(Interpreter interpreter, List<Object> arguments);
+
+    @Override
+    public Object call0(Interpreter interpreter){
+        return callN(interpreter, Collections.emptyList());
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a){
+        return callN(interpreter, Collections.singletonList(a));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b){
+        return callN(interpreter, Arrays.asList(a, b));
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        return callN(interpreter, Arrays.asList(a, b, c));
+    }
+
     @Override
     public Object get(Token name){
-        if(fields.containsKey(name.lexeme)) return fields.get(name.lexeme);
+        if(hasField(name.lexeme)) return getField(name.lexeme);
         var method = loxClass.findMethod(name.lexeme);
         if(method!=null) return method;
         throw new RuntimeError(name, "Undefined property '"+name.lexeme+"'.");
@@ -2,16 +2,60 @@ package craftinginterpreters.lox.predefs;
 
 import craftinginterpreters.lox.Interpreter;
 import craftinginterpreters.lox.LoxCallable;
+import craftinginterpreters.lox.RuntimeError;
+import craftinginterpreters.lox.Token;
+import craftinginterpreters.lox.TokenType;
 
 import java.util.List;
-import java.util.Set;
 
+//нативная функция с фиксированным числом параметров переопределяет только соответствующий callK
 public abstract class NativeLoxFunction implements LoxCallable {
+    private final int arity;
+
+    protected NativeLoxFunction(int arity){
+        this.arity = arity;
+    }
+
+    @Override
+    public int minArity(){
+        return arity;
+    }
 
     @Override
-    abstract public Set<Integer> arity();
+    public Object callN(Interpreter interpreter, List<Object> arguments){
+        return switch (arguments.size()){
+            case 0 -> call0(interpreter);
+            case 1 -> call1(interpreter, arguments.get(0));
+            case 2 -> call2(interpreter, arguments.get(0), arguments.get(1));
+            case 3 -> call3(interpreter, arguments.get(0), arguments.get(1), arguments.get(2));
+            default -> throw unsupported(arguments.size());
+        };
+    }
 
-    abstract public Object call(Interpreter interpreter, List<Object> arguments);
+    @Override
+    public Object call0(Interpreter interpreter){
+        throw unsupported(0);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a){
+        throw unsupported(1);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b){
+        throw unsupported(2);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        throw unsupported(3);
+    }
+
+    private RuntimeError unsupported(int count){
+        return new RuntimeError(new Token(TokenType.IDENTIFIER, toString(), null, -1),
+            "native function does not take "+count+" arguments.");
+    }
 
     @Override
     public String toString(){
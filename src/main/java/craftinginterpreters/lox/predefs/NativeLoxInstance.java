@@ -10,7 +10,7 @@ public abstract class NativeLoxInstance extends LoxInstance {
 
     @Override
     public Object get(Token name){
-        if(fields.containsKey(name.lexeme)) return fields.get(name.lexeme);
+        if(hasField(name.lexeme)) return getField(name.lexeme);
         var method = loxClass.findMethod(name.lexeme);
         if(method!=null) return method;
         throw new RuntimeError(name, "Undefined property '"+name.lexeme+"'.");
@@ -12,6 +12,6 @@ public class Predefs {
     }
 
     public static LoxInstance getObjectRefFromMethod(LoxFunction method){
-        return (LoxInstance) method.closure.get("this");
+        return method.receiver;
     }
 }
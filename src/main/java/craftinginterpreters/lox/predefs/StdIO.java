@@ -24,14 +24,9 @@ public class StdIO extends NativeLoxClass {
     }
 
     private void define_methods(StdIO classinstance, StdIoInstance instance){
-        instance.fields.put("readnum", new NativeLoxFunction() {
+        instance.putField("readnum", new NativeLoxFunction(0) {
             @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(0);
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call0(Interpreter interpreter) {
                 try{
                     java.util.Scanner scanner = instance.scanner;
                     return scanner.nextDouble();
@@ -47,14 +42,9 @@ public class StdIO extends NativeLoxClass {
             }
         });
 
-        instance.fields.put("readln", new NativeLoxFunction() {
-            @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(0);
-            }
-
+        instance.putField("readln", new NativeLoxFunction(0) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call0(Interpreter interpreter) {
                 try{
                     Scanner scanner = instance.scanner;
                     return scanner.nextLine();
@@ -69,29 +59,19 @@ public class StdIO extends NativeLoxClass {
             }
         });
 
-        instance.fields.put("print", new NativeLoxFunction() {
+        instance.putField("print", new NativeLoxFunction(1) {
             @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(1);
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments){
-                String out = Interpreter.stringify(arguments.get(0));
+            public Object call1(Interpreter interpreter, Object argument) {
+                String out = Interpreter.stringify(argument);
                 System.out.print(out);
                 return out;
             }
         });
 
-        instance.fields.put("println", new NativeLoxFunction() {
-            @Override
-            public Set<Integer> arity() {
-                return Collections.singleton(1);
-            }
-
+        instance.putField("println", new NativeLoxFunction(1) {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments){
-                String out = Interpreter.stringify(arguments.get(0));
+            public Object call1(Interpreter interpreter, Object argument) {
+                String out = Interpreter.stringify(argument);
                 System.out.println(out);
                 return out;
             }
@@ -99,12 +79,12 @@ public class StdIO extends NativeLoxClass {
     }
 
     @Override
-    public Set<Integer> arity() {
-        return Collections.singleton(0);
+    public int minArity() {
+        return 0;
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object callN(Interpreter interpreter, List<Object> arguments) {
 
         var instance = new StdIoInstance(this);
         define_methods(this, instance);
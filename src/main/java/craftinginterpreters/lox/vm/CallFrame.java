@@ -0,0 +1,14 @@
+package craftinginterpreters.lox.vm;
+
+import craftinginterpreters.lox.Token;
+
+//кадр вызова функции на стеке VM. кадры переиспользуются, поэтому поля не финальные
+final class CallFrame {
+    VmFunction function;
+    int[] code;           //байткод и константы функции, чтобы возврат не шёл к ним через прототип
+    Object[] constants;
+    int pc;
+    int base;       //нулевой слот кадра: this у методов, сама функция у остальных
+    int resultSlot; //куда положить результат при возврате
+    Token callSite; //скобка вызова, нужна для строки ошибок нативных функций
+}
@@ -0,0 +1,59 @@
+package craftinginterpreters.lox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//байткод одной функции: инструкции, пул констант и таблица строк.
+//инструкция занимает одно слово: код в младшем байте, операнды в старших (см. OpCode).
+//строки хранятся парами (начало инструкции, номер строки) только там, где номер меняется
+final class Chunk {
+    int[] code = new int[64];
+    int count = 0;
+    Object[] constants;
+    private int[] lines = new int[16];
+    private int lineCount = 0;
+
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    void write(int value, int line){
+        if(count==code.length) code = Arrays.copyOf(code, count*2);
+        if(lineCount==0 || lines[lineCount-1]!=line){
+            if(lineCount+2>lines.length) lines = Arrays.copyOf(lines, lines.length*2);
+            lines[lineCount++] = count;
+            lines[lineCount++] = line;
+        }
+        code[count++] = value;
+    }
+
+    //числа и строки разделяют одну константу, узлы дерева уникальны сами по себе
+    int addConstant(Object value){
+        boolean shared = value instanceof Double || value instanceof String;
+        if(shared){
+            Integer index = constantIndex.get(value);
+            if(index!=null) return index;
+        }
+        constantList.add(value);
+        int index = constantList.size()-1;
+        if(shared) constantIndex.put(value, index);
+        return index;
+    }
+
+    //вызывается компилятором, когда функция готова: дальше пул констант только читается
+    void seal(){
+        code = Arrays.copyOf(code, count);
+        constants = constantList.toArray();
+        lines = Arrays.copyOf(lines, lineCount);
+    }
+
+    int lineAt(int offset){
+        int line = -1;
+        for(int i=0;i<lineCount && lines[i]<=offset;i+=2){
+            line = lines[i+1];
+        }
+        return line;
+    }
+}
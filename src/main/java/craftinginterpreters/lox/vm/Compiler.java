@@ -0,0 +1,859 @@
+package craftinginterpreters.lox.vm;
+
+import craftinginterpreters.lox.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static craftinginterpreters.lox.vm.OpCode.*;
+
+//переводит разрешённое AST в байткод. локальные переменные живут в слотах стека VM,
+//переменные, захваченные замыканиями, переносятся в ячейки Upvalue при выходе из области видимости.
+//как и Resolver, компилятор разбирает области видимости лексически: имя, не найденное среди
+//локальных переменных функции и охватывающих функций, считается глобальным.
+//узлы дерева попадают в пул констант: в них лежат встроенные кэши и токены для сообщений об ошибках
+final class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final class Local {
+        final String name;
+        final int depth;
+        boolean captured = false;
+
+        Local(String name, int depth){
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static final class UpvalueRef {
+        final int index;
+        final boolean isLocal;
+
+        UpvalueRef(int index, boolean isLocal){
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    //цикл, в котором находится компилируемый код: break и continue выходят из его областей видимости
+    private static final class Loop {
+        final Loop enclosing;
+        final int scopeDepth;
+        final int start;
+        final boolean continueForward; //у for continue переходит к инкременту, который ещё не скомпилирован
+        final List<Integer> breaks = new ArrayList<>();
+        final List<Integer> continues = new ArrayList<>();
+
+        Loop(Loop enclosing, int scopeDepth, int start, boolean continueForward){
+            this.enclosing = enclosing;
+            this.scopeDepth = scopeDepth;
+            this.start = start;
+            this.continueForward = continueForward;
+        }
+    }
+
+    private final Compiler enclosing;
+    private final Prototype proto;
+    private final Chunk chunk;
+    private final List<Local> locals = new ArrayList<>();
+    private final List<UpvalueRef> upvalues = new ArrayList<>();
+    private int scopeDepth;
+    private Loop loop = null;
+    private int line = 0;
+    private int stackDepth = 1; //нулевой слот занят всегда
+
+    private Compiler(Compiler enclosing, Prototype proto){
+        this.enclosing = enclosing;
+        this.proto = proto;
+        this.chunk = proto.chunk;
+        this.scopeDepth = enclosing==null ? 0 : 1;
+        this.line = enclosing==null ? 0 : enclosing.line;
+        locals.add(new Local(proto.isMethod ? "this" : "", 0));
+        proto.maxStack = 1;
+    }
+
+    //программа верхнего уровня: её объявления глобальные, блоки получают локальные переменные
+    static Prototype compileScript(List<Stmt> statements){
+        var proto = new Prototype(null, "script", 0, false, false);
+        var compiler = new Compiler(null, proto);
+        for(Stmt statement : statements){
+            compiler.compile(statement);
+        }
+        compiler.emit(NIL, 1);
+        compiler.emit(RETURN, -1);
+        return compiler.finish();
+    }
+
+    //выражение REPL возвращается как результат программы
+    static Prototype compileExpression(Expr expr){
+        var proto = new Prototype(null, "script", 0, false, false);
+        var compiler = new Compiler(null, proto);
+        compiler.compile(expr);
+        compiler.emit(RETURN, -1);
+        return compiler.finish();
+    }
+
+    private Prototype function(Stmt.Function declaration, String name, boolean isMethod, boolean isInitializer){
+        var proto = new Prototype(declaration, name, declaration.params.size(), isMethod, isInitializer);
+        var compiler = new Compiler(this, proto);
+        for(Token param : declaration.params){
+            compiler.addLocal(param.lexeme);
+            compiler.stackDepth++;
+        }
+        compiler.trackDepth();
+        for(Stmt statement : declaration.body){
+            compiler.compile(statement);
+        }
+        compiler.emitReturn();
+        compiler.finish();
+
+        emitShort(CLOSURE, constant(proto), 1);
+        for(var upvalue : compiler.upvalues){
+            chunk.write(upvalue.index << 1 | (upvalue.isLocal ? 1 : 0), line);
+        }
+        return proto;
+    }
+
+    private Prototype finish(){
+        proto.upvalueCount = upvalues.size();
+        chunk.seal();
+        return proto;
+    }
+
+    private void compile(Stmt stmt){
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr){
+        expr.accept(this);
+    }
+
+    //---------- запись инструкций ----------
+
+    private void emit(byte op, int effect){
+        chunk.write(op, line);
+        stackDepth += effect;
+        trackDepth();
+    }
+
+    private void emitShort(byte op, int operand, int effect){
+        chunk.write(op | operand << 8, line);
+        stackDepth += effect;
+        trackDepth();
+    }
+
+    //инструкция с однобайтовым операндом и константой: CALL, CALL_METHOD, CLASS и составные инструкции
+    private void emitCounted(byte op, int count, int constant, int effect){
+        emitShort(op, count | constant << 8, effect);
+    }
+
+    private void emitCall(byte op, int argc, Token paren, int effect){
+        emitCounted(op, argc, constant(paren), effect);
+    }
+
+    private void trackDepth(){
+        if(stackDepth>proto.maxStack) proto.maxStack = stackDepth;
+    }
+
+    private int constant(Object value){
+        int index = chunk.addConstant(value);
+        if(index>0xffff) throw new RuntimeError(new Token(TokenType.EOF, "", null, line), "Too many constants in one function.");
+        return index;
+    }
+
+    private int emitJump(byte op, int effect){
+        emitShort(op, 0, effect);
+        return chunk.count - 1;
+    }
+
+    private void patchJump(int jump){
+        int offset = chunk.count - jump - 1;
+        if(offset>0xffffff) throw new RuntimeError(new Token(TokenType.EOF, "", null, line), "Too much code to jump over.");
+        chunk.code[jump] |= offset << 8;
+    }
+
+    //условный переход, если условие ложно. сравнение переменной с переменной или числом проверяет
+    //одна инструкция COMPARE_JUMP, без промежуточного логического значения; локальную переменную слева
+    //COMPARE_LOCAL_JUMP читает прямо из слота
+    private int emitConditionJump(Expr condition){
+        if(!(condition instanceof Expr.Compare)){
+            compile(condition);
+            return emitJump(JUMP_IF_FALSE, -1);
+        }
+        var compare = (Expr.Compare)condition;
+        int slot = resolveLocal(compare.left.name.lexeme);
+        if(slot<0 || slot>0xff) visitVariableExpr(compare.left);
+        if(compare.right!=null) visitVariableExpr(compare.right);
+        line = compare.binary.operator.line;
+        int operands = compare.right!=null ? -1 : 0;
+        if(slot>=0 && slot<=0xff){
+            emitCounted(COMPARE_LOCAL_JUMP, slot, constant(compare), operands);
+        }else{
+            emitShort(COMPARE_JUMP, constant(compare), operands-1);
+        }
+        chunk.write(comparison(compare.binary.operator.type), line);
+        return chunk.count - 1;
+    }
+
+    private static byte comparison(TokenType type){
+        switch (type){
+            case LESS: return LESS;
+            case LESS_EQUAL: return LESS_EQUAL;
+            case GREATER: return GREATER;
+            default: return GREATER_EQUAL;
+        }
+    }
+
+    private void emitLoop(int start){
+        int offset = chunk.count + 1 - start;
+        if(offset>0xffffff) throw new RuntimeError(new Token(TokenType.EOF, "", null, line), "Loop body too large.");
+        emitShort(LOOP, offset, 0);
+    }
+
+    private void emitReturn(){
+        if(proto.isInitializer){
+            emitShort(GET_LOCAL, 0, 1);
+        }else{
+            emit(NIL, 1);
+        }
+        emit(RETURN, -1);
+    }
+
+    //---------- области видимости и переменные ----------
+
+    private void addLocal(String name){
+        if(locals.size()>0xffff) throw new RuntimeError(new Token(TokenType.EOF, "", null, line), "Too many local variables in function.");
+        locals.add(new Local(name, scopeDepth));
+    }
+
+    private void beginScope(){
+        scopeDepth++;
+    }
+
+    private void endScope(){
+        scopeDepth--;
+        int count = discardLocals(scopeDepth);
+        while(count-- > 0) locals.remove(locals.size()-1);
+    }
+
+    //снимает со стека переменные областей глубже depth, не забывая их: нужно и для выхода из блока, и для break
+    private int discardLocals(int depth){
+        int count = 0;
+        int pending = 0;
+        for(int i=locals.size()-1;i>=0 && locals.get(i).depth>depth;i--){
+            if(locals.get(i).captured){
+                emitPops(pending);
+                pending = 0;
+                emit(CLOSE_UPVALUE, -1);
+            }else{
+                pending++;
+            }
+            count++;
+        }
+        emitPops(pending);
+        return count;
+    }
+
+    private void emitPops(int count){
+        while(count>0){
+            int n = Math.min(count, 0xff);
+            if(n==1){
+                emit(POP, -1);
+            }else{
+                emitShort(POPN, n, -n);
+            }
+            count -= n;
+        }
+    }
+
+    private int resolveLocal(String name){
+        for(int i=locals.size()-1;i>=0;i--){
+            if(locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(String name){
+        if(enclosing==null) return -1;
+        int local = enclosing.resolveLocal(name);
+        if(local>=0){
+            enclosing.locals.get(local).captured = true;
+            return addUpvalue(local, true);
+        }
+        int upvalue = enclosing.resolveUpvalue(name);
+        if(upvalue>=0) return addUpvalue(upvalue, false);
+        return -1;
+    }
+
+    private int addUpvalue(int index, boolean isLocal){
+        for(int i=0;i<upvalues.size();i++){
+            var upvalue = upvalues.get(i);
+            if(upvalue.index==index && upvalue.isLocal==isLocal) return i;
+        }
+        upvalues.add(new UpvalueRef(index, isLocal));
+        return upvalues.size()-1;
+    }
+
+    private boolean isGlobalScope(){
+        return scopeDepth==0;
+    }
+
+    //чтение переменной по имени; site - узел с кэшем глобальной ячейки на случай глобальной переменной
+    private void load(String name, Expr.Variable site){
+        int slot = resolveLocal(name);
+        if(slot>=0){
+            emitShort(GET_LOCAL, slot, 1);
+            return;
+        }
+        slot = resolveUpvalue(name);
+        if(slot>=0){
+            emitShort(GET_UPVALUE, slot, 1);
+            return;
+        }
+        emitShort(GET_GLOBAL, constant(site), 1);
+    }
+
+    //объявление в текущей области: на верхнем уровне значение со стека уходит в глобальную переменную,
+    //иначе остаётся на стеке как локальная переменная
+    private void declare(Token name){
+        if(isGlobalScope()){
+            emitShort(DEFINE_GLOBAL, constant(name.lexeme), -1);
+        }else{
+            addLocal(name.lexeme);
+        }
+    }
+
+    //---------- инструкции ----------
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for(Stmt statement : stmt.statements){
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        boolean global = isGlobalScope();
+        int slot = -1;
+        if(!global){
+            addLocal(stmt.name.lexeme);
+            slot = locals.size()-1;
+            emit(NIL, 1);
+        }
+        if(stmt.superclass!=null){
+            compile(stmt.superclass);
+            emitShort(CHECK_SUPERCLASS, constant(stmt), 0);
+        }
+        if(global){
+            emit(NIL, 1);
+            emitShort(DEFINE_GLOBAL, constant(stmt.name.lexeme), -1);
+        }
+        if(stmt.superclass!=null){
+            beginScope();
+            addLocal("super");
+        }
+
+        for(var method : stmt.methods){
+            boolean isInitializer = method.name.lexeme.equals("init");
+            function(method, method.name.lexeme, !method.isStaticClassMethod, isInitializer);
+        }
+        line = stmt.name.line;
+        emitCounted(CLASS, stmt.methods.size(), constant(stmt), 1-stmt.methods.size());
+
+        if(global){
+            emitShort(DEFINE_GLOBAL, constant(stmt.name.lexeme), -1);
+        }else{
+            emitShort(SET_LOCAL, slot, 0);
+            emit(POP, -1);
+        }
+        if(stmt.superclass!=null) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compileDiscarded(stmt.expression);
+        return null;
+    }
+
+    //выражение, значение которого не нужно. присваивание локальной или глобальной переменной
+    //в таком случае не оставляет копию значения на стеке, а i = i + 1 и s = s + i становятся одной инструкцией
+    private void compileDiscarded(Expr expr){
+        if(expr instanceof Expr.Increment){
+            var increment = (Expr.Increment)expr;
+            String name = increment.assign.name.lexeme;
+            int slot = resolveLocal(name);
+            line = increment.assign.name.line;
+            if(slot>=0 && slot<=0xff){
+                emitCounted(INCREMENT_LOCAL, slot, constant(increment), 0);
+                return;
+            }
+            if(slot<0 && resolveUpvalue(name)<0){
+                emitShort(INCREMENT_GLOBAL, constant(increment), 0);
+                return;
+            }
+            expr = increment.assign;
+        }
+        if(expr instanceof Expr.Assign){
+            var assign = (Expr.Assign)expr;
+            int slot = resolveLocal(assign.name.lexeme);
+            boolean global = slot<0 && resolveUpvalue(assign.name.lexeme)<0;
+            if(isUpdate(assign) && (global || slot>=0 && slot<=0xff)){
+                var operation = (Expr.Binary)assign.value;
+                byte code = arithmetic(operation.operator.type);
+                compile(operation.right);
+                line = operation.operator.line;
+                if(global){
+                    emitCounted(UPDATE_GLOBAL, code, constant(assign), -1);
+                }else{
+                    emitCounted(UPDATE_LOCAL, slot, constant(assign), -1);
+                    chunk.write(code, line);
+                }
+                return;
+            }
+            if(slot>=0){
+                compile(assign.value);
+                line = assign.name.line;
+                emitShort(STORE_LOCAL, slot, -1);
+                return;
+            }
+            if(global){
+                compile(assign.value);
+                line = assign.name.line;
+                emitShort(STORE_GLOBAL, constant(assign), -1);
+                return;
+            }
+        }
+        compile(expr);
+        emit(POP, -1);
+    }
+
+    //x = x + y, где y - переменная или литерал: вычисление y не может изменить x,
+    //поэтому x читается после y одной инструкцией вместе с операцией и записью
+    private static boolean isUpdate(Expr.Assign assign){
+        if(!(assign.value instanceof Expr.Binary)) return false;
+        var operation = (Expr.Binary)assign.value;
+        return isArithmetic(operation.operator.type) && operation.left instanceof Expr.Variable
+            && ((Expr.Variable)operation.left).name.lexeme.equals(assign.name.lexeme)
+            && (operation.right instanceof Expr.Variable || operation.right instanceof Expr.Literal);
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        int elseJump = emitConditionJump(stmt.condition);
+        compile(stmt.thenBranch);
+        if(stmt.elseBranch==null){
+            patchJump(elseJump);
+            return null;
+        }
+        int endJump = emitJump(JUMP, 0);
+        patchJump(elseJump);
+        compile(stmt.elseBranch);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if(stmt.initializer!=null){
+            compile(stmt.initializer);
+        }else{
+            emit(NIL, 1);
+        }
+        declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int start = chunk.count;
+        int exitJump = emitConditionJump(stmt.condition);
+        loop = new Loop(loop, scopeDepth, start, false);
+        compile(stmt.body);
+        emitLoop(start);
+        endLoop(exitJump);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        //переменная из инициализатора принадлежит охватывающей области, как у Resolver
+        if(stmt.init!=null) compile(stmt.init);
+        compileLoop(stmt);
+        return null;
+    }
+
+    private void compileLoop(Stmt.For stmt){
+        int start = chunk.count;
+        int exitJump = emitConditionJump(stmt.condition);
+        loop = new Loop(loop, scopeDepth, start, true);
+        compile(stmt.body);
+        for(int jump : loop.continues) patchJump(jump);
+        if(stmt.increment!=null){ //исполняем инкремент даже если мы использовали continue
+            compileDiscarded(stmt.increment);
+        }
+        emitLoop(start);
+        endLoop(exitJump);
+    }
+
+    //счётчик в локальном слоте: шаг, условие и переход назад исполняет одна инструкция FOR_LOOP после тела,
+    //а условие перед первой итерацией проверяется как обычно. граница должна быть числом или локальной
+    //переменной, которую FOR_LOOP читает после шага, как и обычный цикл. на верхнем уровне счётчик глобальный,
+    //и такой цикл компилируется как обычный for
+    @Override
+    public Void visitCountedForStmt(Stmt.CountedFor stmt) {
+        if(isGlobalScope()) return visitForStmt(stmt.loop);
+        compile(stmt.variable);
+        int slot = locals.size() - 1;
+        var condition = stmt.condition;
+        int bound = condition.right!=null ? resolveLocal(condition.right.name.lexeme) : -1;
+        if(slot>0xff || condition.right!=null && bound<0){
+            compileLoop(stmt.loop);
+            return null;
+        }
+        int exitJump = emitConditionJump(condition);
+        int start = chunk.count;
+        loop = new Loop(loop, scopeDepth, start, true);
+        compile(stmt.loop.body);
+        for(int jump : loop.continues) patchJump(jump);
+        line = stmt.increment.assign.name.line;
+        emitCounted(FOR_LOOP, slot, constant(stmt), 0);
+        int offset = chunk.count + 2 - start;
+        if(offset>0xffffff) throw new RuntimeError(new Token(TokenType.EOF, "", null, line), "Loop body too large.");
+        chunk.write(comparison(condition.binary.operator.type) | offset << 8, line);
+        chunk.write(bound, line);
+        endLoop(exitJump);
+        return null;
+    }
+
+    private void endLoop(int exitJump){
+        patchJump(exitJump);
+        for(int jump : loop.breaks) patchJump(jump);
+        loop = loop.enclosing;
+    }
+
+    @Override
+    public Void visitControlStatementStmt(Stmt.ControlStatement stmt) {
+        line = stmt.parameter.line;
+        if(loop==null) return null; //BreakContinueChecker не пропускает break и continue вне цикла
+        boolean isBreak = stmt.parameter.type==TokenType.BREAK;
+        if(!isBreak && stmt.parameter.type!=TokenType.CONTINUE) return null;
+
+        int depth = stackDepth;
+        discardLocals(loop.scopeDepth);
+        if(isBreak){
+            loop.breaks.add(emitJump(JUMP, 0));
+        }else if(loop.continueForward){
+            loop.continues.add(emitJump(JUMP, 0));
+        }else{
+            emitLoop(loop.start);
+        }
+        stackDepth = depth; //снятые переменные по-прежнему на стеке в коде после перехода
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        if(isGlobalScope()){
+            function(stmt, stmt.name.lexeme, false, false);
+            emitShort(DEFINE_GLOBAL, constant(stmt.name.lexeme), -1);
+        }else{
+            addLocal(stmt.name.lexeme); //объявлена до тела, чтобы функция видела себя
+            function(stmt, stmt.name.lexeme, false, false);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        int slot = stmt.value instanceof Expr.Variable && !proto.isInitializer
+            ? resolveLocal(((Expr.Variable)stmt.value).name.lexeme) : -1;
+        if(slot>=0){
+            emitShort(RETURN_LOCAL, slot, 0);
+        }else if(stmt.value!=null){
+            compile(stmt.value);
+            if(proto.isInitializer){
+                emit(POP, -1);
+                emitShort(GET_LOCAL, 0, 1);
+            }
+            emit(RETURN, -1);
+        }else{
+            emitReturn();
+        }
+        return null;
+    }
+
+    //---------- выражения ----------
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        int slot = resolveLocal(expr.name.lexeme);
+        if(slot>=0){
+            emitShort(SET_LOCAL, slot, 0);
+            return null;
+        }
+        slot = resolveUpvalue(expr.name.lexeme);
+        if(slot>=0){
+            emitShort(SET_UPVALUE, slot, 0);
+            return null;
+        }
+        emitShort(SET_GLOBAL, constant(expr), 0);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        //n - 1, x * 2: число справа не кладётся на стек, а локальная переменная слева читается прямо из слота
+        if(isArithmetic(expr.operator.type) && expr.right instanceof Expr.Literal
+            && ((Expr.Literal)expr.right).value instanceof Double){
+            int slot = expr.left instanceof Expr.Variable ? resolveLocal(((Expr.Variable)expr.left).name.lexeme) : -1;
+            if(slot>=0 && slot<=0xff){
+                line = expr.operator.line;
+                emitCounted(ARITHMETIC_LOCAL_CONSTANT, slot, constant(expr), 1);
+                chunk.write(arithmetic(expr.operator.type), line);
+                return null;
+            }
+            compile(expr.left);
+            line = expr.operator.line;
+            emitCounted(ARITHMETIC_CONSTANT, arithmetic(expr.operator.type), constant(expr), 0);
+            return null;
+        }
+        compile(expr.left);
+        if(expr.operator.type==TokenType.COMMA){
+            emit(POP, -1);
+            compile(expr.right);
+            return null;
+        }
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type){
+            case PLUS: emitShort(ADD, constant(expr), -1); break;
+            case MINUS: emitShort(SUBTRACT, constant(expr), -1); break;
+            case STAR: emitShort(MULTIPLY, constant(expr), -1); break;
+            case SLASH: emitShort(DIVIDE, constant(expr), -1); break;
+            case LESS: emitShort(LESS, constant(expr), -1); break;
+            case LESS_EQUAL: emitShort(LESS_EQUAL, constant(expr), -1); break;
+            case GREATER: emitShort(GREATER, constant(expr), -1); break;
+            case GREATER_EQUAL: emitShort(GREATER_EQUAL, constant(expr), -1); break;
+            case EQUAL_EQUAL: emit(EQUAL, -1); break;
+            case BANG_EQUAL: emit(NOT_EQUAL, -1); break;
+            default:
+                emitPops(2);
+                emit(NIL, 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        if(expr.op1.type!=TokenType.QUESTION || expr.op2.type!=TokenType.COLON){
+            emit(NIL, 1);
+            return null;
+        }
+        compile(expr.left);
+        int elseJump = emitJump(JUMP_IF_FALSE, -1);
+        compile(expr.middle);
+        int endJump = emitJump(JUMP, 0);
+        stackDepth--;
+        patchJump(elseJump);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value==null){
+            emit(NIL, 1);
+        }else if(expr.value.equals(Boolean.TRUE)){
+            emit(TRUE, 1);
+        }else if(expr.value.equals(Boolean.FALSE)){
+            emit(FALSE, 1);
+        }else{
+            emitShort(CONSTANT, constant(expr.value), 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        int endJump;
+        switch (expr.operator.type){
+            case OR: endJump = emitJump(JUMP_IF_TRUE_KEEP, 0); break;
+            case AND: endJump = emitJump(JUMP_IF_FALSE_KEEP, 0); break;
+            default: endJump = -1;
+        }
+        emit(POP, -1);
+        compile(expr.right);
+        if(endJump>=0) patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emitShort(CHECK_INSTANCE, constant(expr), 0);
+        compile(expr.value);
+        line = expr.name.line;
+        emitShort(SET_PROPERTY, constant(expr), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        line = expr.keyword.line;
+        load("this", null);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        line = expr.keyword.line;
+        load("this", null);
+        load("super", null);
+        emitShort(GET_SUPER, constant(expr), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        //-1 и подобные литералы сворачиваются в константу: отрицание числа не может завершиться ошибкой
+        if(expr.operator.type==TokenType.MINUS && expr.right instanceof Expr.Literal
+            && ((Expr.Literal)expr.right).value instanceof Double){
+            emitShort(CONSTANT, constant(-(double)((Expr.Literal)expr.right).value), 1);
+            return null;
+        }
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type){
+            case MINUS: emitShort(NEGATE, constant(expr.operator), 0); break;
+            case BANG: emit(NOT, 0); break;
+            default:
+                emit(POP, -1);
+                emit(NIL, 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        load(expr.name.lexeme, expr);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        int argc = expr.arguments.size();
+        if(argc>0xff) throw new RuntimeError(expr.paren, "Too many arguments.");
+        //у obj.method(...) и super.method(...) метод ищется до вычисления аргументов, как в Interpreter
+        if(expr.calee instanceof Expr.Get){
+            var get = (Expr.Get)expr.calee;
+            compile(get.object);
+            line = get.name.line;
+            emitShort(GET_METHOD, constant(get), 1);
+            compileArguments(expr.arguments);
+            line = expr.paren.line;
+            emitCall(CALL_METHOD, argc, expr.paren, -argc-1);
+            return null;
+        }
+        if(expr.calee instanceof Expr.Super){
+            var superExpr = (Expr.Super)expr.calee;
+            line = superExpr.keyword.line;
+            load("this", null);
+            load("super", null);
+            emitShort(GET_SUPER_METHOD, constant(superExpr), 0);
+            compileArguments(expr.arguments);
+            line = expr.paren.line;
+            emitCall(CALL_METHOD, argc, expr.paren, -argc-1);
+            return null;
+        }
+        compile(expr.calee);
+        compileArguments(expr.arguments);
+        line = expr.paren.line;
+        emitCall(CALL, argc, expr.paren, -argc);
+        return null;
+    }
+
+    private void compileArguments(List<Expr> arguments){
+        for(Expr argument : arguments){
+            compile(argument);
+        }
+    }
+
+    @Override
+    public Void visitAnonFunExpr(Expr.AnonFun expr) {
+        function(expr.declaration, "anon", false, false);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emitShort(GET_PROPERTY, constant(expr), 0);
+        return null;
+    }
+
+    @Override
+    public Void visitIncrementExpr(Expr.Increment expr) {
+        compile(expr.assign);
+        return null;
+    }
+
+    @Override
+    public Void visitCompareExpr(Expr.Compare expr) {
+        compile(expr.binary);
+        return null;
+    }
+
+    @Override
+    public Void visitFieldUpdateExpr(Expr.FieldUpdate expr) {
+        int node = constant(expr);
+        compile(expr.set.object);
+        line = expr.set.name.line;
+        emitShort(BEGIN_FIELD_UPDATE, node, 1);
+        compile(expr.operation.right);
+        line = expr.operation.operator.line;
+        emitCounted(FIELD_UPDATE, arithmetic(expr.operation.operator.type), node, -2);
+        return null;
+    }
+
+    private static boolean isArithmetic(TokenType type){
+        return type==TokenType.PLUS || type==TokenType.MINUS || type==TokenType.STAR || type==TokenType.SLASH;
+    }
+
+    //код инструкции для одной из четырёх арифметических операций
+    private static byte arithmetic(TokenType type){
+        switch (type){
+            case PLUS: return ADD;
+            case MINUS: return SUBTRACT;
+            case STAR: return MULTIPLY;
+            default: return DIVIDE;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package craftinginterpreters.lox.vm;
+
+//коды инструкций. инструкция - слово int: код в младшем байте, операнд в остальных 24 битах.
+//у CALL, CALL_METHOD, CLASS и составных инструкций со слотом или кодом операции второй байт - отдельный операнд,
+//старшие 16 бит - константа. COMPARE_JUMP, COMPARE_LOCAL_JUMP, UPDATE_LOCAL, ARITHMETIC_LOCAL_CONSTANT и FOR_LOOP
+//занимают ещё одно или два слова после инструкции.
+//в комментарии указаны операнды и действие со стеком
+final class OpCode {
+    private OpCode(){}
+
+    static final byte CONSTANT = 0;         //const: -> value
+    static final byte NIL = 1;              // -> nil
+    static final byte TRUE = 2;             // -> true
+    static final byte FALSE = 3;            // -> false
+    static final byte POP = 4;              //value ->
+    static final byte POPN = 5;             //count: снимает count значений
+
+    static final byte GET_LOCAL = 6;        //slot: -> value
+    static final byte SET_LOCAL = 7;        //slot: value -> value
+    static final byte GET_UPVALUE = 8;      //slot: -> value
+    static final byte SET_UPVALUE = 9;      //slot: value -> value
+    static final byte GET_GLOBAL = 10;      //const(Expr.Variable): -> value
+    static final byte SET_GLOBAL = 11;      //const(Expr.Assign): value -> value
+    static final byte DEFINE_GLOBAL = 12;   //const(String): value ->
+
+    static final byte GET_PROPERTY = 13;    //const(Expr.Get): object -> value
+    static final byte CHECK_INSTANCE = 14;  //const(Expr.Set): object -> object
+    static final byte SET_PROPERTY = 15;    //const(Expr.Set): object value -> value
+    static final byte GET_SUPER = 16;       //const(Expr.Super): this superclass -> bound method
+
+    static final byte ADD = 17;             //const(Expr.Binary): left right -> result
+    static final byte SUBTRACT = 18;
+    static final byte MULTIPLY = 19;
+    static final byte DIVIDE = 20;
+    static final byte LESS = 21;
+    static final byte LESS_EQUAL = 22;
+    static final byte GREATER = 23;
+    static final byte GREATER_EQUAL = 24;
+    static final byte EQUAL = 25;           //left right -> boolean
+    static final byte NOT_EQUAL = 26;
+    static final byte NOT = 27;             //value -> boolean
+    static final byte NEGATE = 28;          //const(Token): value -> -value
+
+    static final byte PRINT = 29;           //value ->
+    static final byte JUMP = 30;            //offset: переход вперёд от следующей инструкции
+    static final byte JUMP_IF_FALSE = 31;   //offset: condition ->
+    static final byte JUMP_IF_FALSE_KEEP = 32; //offset: значение остаётся на стеке, используется and
+    static final byte JUMP_IF_TRUE_KEEP = 33;  //offset: то же для or
+    static final byte LOOP = 34;            //offset: переход назад
+
+    static final byte CALL = 35;            //argc const(Token): callee args... -> result
+    static final byte GET_METHOD = 36;      //const(Expr.Get): object -> callee self
+    static final byte GET_SUPER_METHOD = 37; //const(Expr.Super): this superclass -> method this
+    static final byte CALL_METHOD = 38;     //argc const(Token): callee self args... -> result
+    static final byte CLOSURE = 39;         //const(Prototype), затем слово на каждую захваченную переменную: slot<<1 | isLocal
+    static final byte CLOSE_UPVALUE = 40;   //value ->, локальная переменная переносится в свою ячейку
+    static final byte RETURN = 41;          //value -> (в кадр вызывающего)
+
+    static final byte CHECK_SUPERCLASS = 42; //const(Stmt.Class): superclass -> superclass
+    static final byte CLASS = 43;           //const(Stmt.Class) count: [superclass] methods... -> [superclass] class
+    static final byte STORE_LOCAL = 44;     //slot: value ->, присваивание, значение которого не используется
+
+    //составные инструкции: узлы Increment, Compare и FieldUpdate, а также частые формы присваивания,
+    //арифметики с числом и возврата, которые иначе заняли бы несколько инструкций
+    static final byte INCREMENT_LOCAL = 45; //slot const(Expr.Increment): к переменной прибавляется шаг, значение не используется
+    static final byte INCREMENT_GLOBAL = 46; //const(Expr.Increment): то же для глобальной переменной
+    static final byte STORE_GLOBAL = 47;    //const(Expr.Assign): value ->, присваивание, значение которого не используется
+    static final byte COMPARE_JUMP = 48;    //const(Expr.Compare), затем слово: код сравнения | смещение << 8.
+                                            //left [right] ->, переход вперёд, если сравнение ложно.
+                                            //правый операнд берётся из узла, если это число, а не переменная
+    static final byte COMPARE_LOCAL_JUMP = 49; //slot const(Expr.Compare), затем слово как у COMPARE_JUMP:
+                                            //[right] ->, левый операнд - локальная переменная
+    static final byte BEGIN_FIELD_UPDATE = 50; //const(Expr.FieldUpdate): object -> object value
+    static final byte FIELD_UPDATE = 51;    //код операции const(Expr.FieldUpdate): object value operand -> result
+    static final byte ARITHMETIC_CONSTANT = 52; //код операции const(Expr.Binary): value -> result, правый операнд - число из узла
+    static final byte ARITHMETIC_LOCAL_CONSTANT = 53; //slot const(Expr.Binary), затем слово с кодом операции: -> result,
+                                            //левый операнд - локальная переменная, правый - число из узла
+    static final byte UPDATE_LOCAL = 54;    //slot const(Expr.Assign), затем слово с кодом операции: operand ->,
+                                            //x = x + y для локальной переменной, значение не используется
+    static final byte UPDATE_GLOBAL = 55;   //код операции const(Expr.Assign): operand ->, то же для глобальной переменной
+    static final byte RETURN_LOCAL = 56;    //slot: возврат локальной переменной
+    static final byte FOR_LOOP = 57;        //slot const(Stmt.CountedFor), затем слово: код сравнения | смещение назад << 8
+                                            //и слот границы (-1: граница - число из узла). шаг счётчика и переход
+                                            //к началу тела, пока условие истинно
+}
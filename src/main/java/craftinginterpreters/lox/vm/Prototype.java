@@ -0,0 +1,31 @@
+package craftinginterpreters.lox.vm;
+
+import craftinginterpreters.lox.Stmt;
+
+//скомпилированное объявление функции. все замыкания одного объявления разделяют прототип,
+//отличаются только захваченными переменными
+final class Prototype {
+    final Stmt.Function declaration; //нужен LoxFunction для arity, toString и сообщений об ошибках
+    final String name;
+    final int arity;
+    final boolean isMethod;      //в нулевом слоте кадра лежит this
+    final boolean isInitializer; //возвращает this вместо значения return
+    final boolean hasReceiver;   //в нулевом слоте получатель; у остальных функций там лежит сама функция
+    final Chunk chunk = new Chunk();
+    int upvalueCount = 0;
+    int maxStack = 0; //наибольшая глубина стека кадра, включая нулевой слот, параметры и локальные переменные
+
+    Prototype(Stmt.Function declaration, String name, int arity, boolean isMethod, boolean isInitializer){
+        this.declaration = declaration;
+        this.name = name;
+        this.arity = arity;
+        this.isMethod = isMethod;
+        this.isInitializer = isInitializer;
+        this.hasReceiver = isMethod || isInitializer;
+    }
+
+    @Override
+    public String toString(){
+        return "<proto "+name+">";
+    }
+}
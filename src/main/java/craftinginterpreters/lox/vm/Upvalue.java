@@ -0,0 +1,32 @@
+package craftinginterpreters.lox.vm;
+
+//захваченная замыканием локальная переменная. пока её область видимости активна,
+//ячейка указывает на слот стека VM; при выходе из области значение переносится в саму ячейку
+final class Upvalue {
+    private final VM vm;
+    int index; //слот стека или -1 для закрытой ячейки
+    private Object closed;
+    Upvalue next; //следующая открытая ячейка с меньшим индексом
+
+    Upvalue(VM vm, int index){
+        this.vm = vm;
+        this.index = index;
+    }
+
+    Object get(){
+        return index>=0 ? vm.value(index) : closed;
+    }
+
+    void set(Object value){
+        if(index>=0){
+            vm.stack[index] = value;
+        }else{
+            closed = value;
+        }
+    }
+
+    void close(){
+        closed = vm.value(index);
+        index = -1;
+    }
+}
@@ -0,0 +1,931 @@
+package craftinginterpreters.lox.vm;
+
+import craftinginterpreters.lox.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static craftinginterpreters.lox.vm.OpCode.*;
+
+//стековая виртуальная машина: исполняет байткод, полученный от Compiler.
+//вызовы функций Lox не используют стек Java: кадры лежат в массиве frames, значения - в общем стеке.
+//оба растут по мере надобности, и глубину рекурсии ограничивает только бюджет памяти (--stack-budget).
+//глобальные переменные, классы, экземпляры и встроенные функции общие с Interpreter, поэтому
+//нативные функции и импорт работают как прежде, а семантика операторов в медленных случаях
+//(строки, перегрузка, ошибки) берётся из Interpreter.binaryOperation
+public final class VM {
+    public static final long DEFAULT_BUDGET = 256L << 20;
+    //оценка памяти на слот (ссылка в stack и число в numbers) и на кадр (CallFrame и ссылка на него)
+    private static final int SLOT_BYTES = 16;
+    private static final int FRAME_BYTES = 48;
+    private static final int TRACE_TOP = 8; //в трассе переполнения - верхние кадры и несколько нижних
+    private static final int TRACE_BOTTOM = 3;
+    //второй слот CALL_METHOD, когда вызывается значение свойства, а не метод получателя
+    private static final Object NO_RECEIVER = new Object();
+    private static final Object UNBOXED = new Object();
+
+    final Interpreter interpreter;
+    private final Environment globals;
+    private final long budget; //байты на стек значений и кадры вместе
+    //значение слота лежит в stack; число может храниться без упаковки в numbers, тогда в stack лежит UNBOXED.
+    //при росте массивы заменяются, поэтому цикл исполнения перечитывает их после каждого выхода из кода VM
+    Object[] stack = new Object[1 << 10];
+    private double[] numbers = new double[1 << 10];
+    private int sp = 0; //в цикле исполнения хранится в локальной переменной и записывается перед вызовами наружу
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private Upvalue openUpvalues = null; //открытые ячейки по убыванию индекса слота
+
+    public VM(Interpreter interpreter){
+        this(interpreter, DEFAULT_BUDGET);
+    }
+
+    public VM(Interpreter interpreter, long budget){
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+        this.budget = budget;
+    }
+
+    public void execute(List<Stmt> statements){
+        run(Compiler.compileScript(statements));
+    }
+
+    public Object evaluate(Expr expr){
+        return run(Compiler.compileExpression(expr));
+    }
+
+    private Object run(Prototype script){
+        return call(new VmFunction(this, script, new Upvalue[0], null), null, new Object[0]);
+    }
+
+    //вход в VM из Java: программа, нативные функции, перегруженные операторы, классы.
+    //вложенное исполнение начинается над текущей вершиной стека и при любом исходе возвращает её на место
+    Object call(VmFunction function, LoxInstance instance, Object[] arguments){
+        int slot = sp;
+        int entry = frameCount;
+        try{
+            pushFrame(function, slot, slot, null);
+            stack[slot] = function.proto.hasReceiver ? instance : function;
+            System.arraycopy(arguments, 0, stack, slot+1, arguments.length);
+            sp = slot + 1 + arguments.length;
+            return run(entry);
+        }finally{
+            closeUpvalues(slot);
+            frameCount = entry;
+            sp = slot;
+        }
+    }
+
+    private CallFrame pushFrame(VmFunction function, int base, int resultSlot, Token callSite){
+        if(frameCount==frames.length) growFrames(callSite);
+        if(base + function.proto.maxStack > stack.length) growStack(base + function.proto.maxStack, callSite);
+        var frame = frames[frameCount];
+        if(frame==null){
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frame.function = function;
+        frame.code = function.proto.chunk.code;
+        frame.constants = function.proto.chunk.constants;
+        frame.pc = 0;
+        frame.base = base;
+        frame.resultSlot = resultSlot;
+        frame.callSite = callSite;
+        frameCount++;
+        return frame;
+    }
+
+    private void growFrames(Token callSite){
+        long available = (budget - (long)stack.length*SLOT_BYTES) / FRAME_BYTES;
+        int length = (int)Math.min(Math.min((long)frames.length*2, available), Integer.MAX_VALUE-8);
+        if(length<=frameCount) throw overflow(callSite);
+        try{
+            frames = Arrays.copyOf(frames, length);
+        }catch (OutOfMemoryError e){
+            throw overflow(callSite);
+        }
+    }
+
+    private void growStack(int required, Token callSite){
+        long available = (budget - (long)frames.length*FRAME_BYTES) / SLOT_BYTES;
+        int length = (int)Math.min(Math.min(Math.max((long)stack.length*2, required), available), Integer.MAX_VALUE-8);
+        if(length<required) throw overflow(callSite);
+        try{
+            var grownNumbers = Arrays.copyOf(numbers, length);
+            stack = Arrays.copyOf(stack, length);
+            numbers = grownNumbers;
+        }catch (OutOfMemoryError e){
+            throw overflow(callSite);
+        }
+    }
+
+    //ошибка Lox вместо StackOverflowError: с трассой вызовов Lox, в которой середина длинной рекурсии пропущена
+    private RuntimeError overflow(Token callSite){
+        var message = new StringBuilder("Stack overflow: ").append(frameCount)
+            .append(" calls exceed the stack budget of ").append(budget >> 20).append(" MB.");
+        for(int i=frameCount-1;i>=0;i--){
+            if(i==frameCount-1-TRACE_TOP && i>=TRACE_BOTTOM){
+                message.append("\n    ... ").append(i-TRACE_BOTTOM+1).append(" more calls");
+                i = TRACE_BOTTOM;
+                continue;
+            }
+            var frame = frames[i];
+            message.append("\n    in ").append(frame.function.proto.name);
+            if(frame.callSite!=null) message.append(" called at [line ").append(frame.callSite.line).append("]");
+        }
+        return new RuntimeError(callSite!=null ? callSite : new Token(TokenType.IDENTIFIER, "", null, -1),
+            message.toString());
+    }
+
+    private Object run(int entry){
+        try{
+            outer:
+            for(;;){
+                //состояние текущего кадра перечитывается после вызова кода вне VM и входа в функцию,
+                //которая перегружает оператор. обычные вызовы и возвраты переключают кадр прямо в цикле.
+                //массивы стека перечитываются здесь же: код вне VM или рост стека мог их заменить
+                final Object[] stack = this.stack;
+                final double[] numbers = this.numbers;
+                CallFrame frame = frames[frameCount-1];
+                int[] code = frame.code;
+                Object[] constants = frame.constants;
+                int pc = frame.pc;
+                int base = frame.base;
+                int sp = this.sp;
+                for(;;){
+                    int instruction = code[pc++];
+                    switch ((byte)instruction){
+                        case CONSTANT:
+                            stack[sp++] = constants[instruction >>> 8];
+                            break;
+                        case NIL: stack[sp++] = null; break;
+                        case TRUE: stack[sp++] = Boolean.TRUE; break;
+                        case FALSE: stack[sp++] = Boolean.FALSE; break;
+                        case POP: sp--; break;
+                        case POPN: sp -= instruction >>> 8; break;
+
+                        //число копируется вместе со ссылкой без проверки: рядом с упакованным значением оно не читается
+                        case GET_LOCAL: {
+                            int slot = base + (instruction >>> 8);
+                            numbers[sp] = numbers[slot];
+                            stack[sp++] = stack[slot];
+                            break;
+                        }
+                        case SET_LOCAL: {
+                            int slot = base + (instruction >>> 8);
+                            numbers[slot] = numbers[sp-1];
+                            stack[slot] = stack[sp-1];
+                            break;
+                        }
+                        case STORE_LOCAL: {
+                            int slot = base + (instruction >>> 8);
+                            sp--;
+                            numbers[slot] = numbers[sp];
+                            stack[slot] = stack[sp];
+                            break;
+                        }
+                        case GET_UPVALUE:
+                            stack[sp++] = frame.function.upvalues[instruction >>> 8].get();
+                            break;
+                        case SET_UPVALUE:
+                            frame.function.upvalues[instruction >>> 8].set(value(sp-1));
+                            break;
+                        case GET_GLOBAL: {
+                            var cell = cell((Expr.Variable)constants[instruction >>> 8]);
+                            if(cell.isUnboxed()){
+                                numbers[sp] = cell.number();
+                                stack[sp++] = UNBOXED;
+                            }else{
+                                stack[sp++] = cell.get();
+                            }
+                            break;
+                        }
+                        case SET_GLOBAL: {
+                            var cell = cell((Expr.Assign)constants[instruction >>> 8]);
+                            if(stack[sp-1]==UNBOXED){
+                                cell.setDouble(numbers[sp-1]);
+                            }else{
+                                cell.set(stack[sp-1]);
+                            }
+                            break;
+                        }
+                        case STORE_GLOBAL: {
+                            var cell = cell((Expr.Assign)constants[instruction >>> 8]);
+                            sp--;
+                            if(stack[sp]==UNBOXED){
+                                cell.setDouble(numbers[sp]);
+                            }else{
+                                cell.set(stack[sp]);
+                            }
+                            break;
+                        }
+                        case DEFINE_GLOBAL:
+                            globals.define((String)constants[instruction >>> 8], value(--sp));
+                            break;
+
+                        case GET_PROPERTY: {
+                            var get = (Expr.Get)constants[instruction >>> 8];
+                            stack[sp-1] = Interpreter.getProperty(value(sp-1), get);
+                            break;
+                        }
+                        case CHECK_INSTANCE: {
+                            var set = (Expr.Set)constants[instruction >>> 8];
+                            if(!(stack[sp-1] instanceof LoxInstance)) throw new RuntimeError(set.name, "Only instances have fields.");
+                            break;
+                        }
+                        case SET_PROPERTY: {
+                            var set = (Expr.Set)constants[instruction >>> 8];
+                            Object value = value(--sp);
+                            Interpreter.setProperty((LoxInstance)stack[sp-1], set, value);
+                            stack[sp-1] = value;
+                            break;
+                        }
+                        case GET_SUPER: {
+                            var expr = (Expr.Super)constants[instruction >>> 8];
+                            var method = findSuperMethod(expr, (LoxClass)stack[--sp]);
+                            stack[sp-1] = method.bind((LoxInstance)stack[sp-1]);
+                            break;
+                        }
+
+                        //арифметика над числами не упаковывает результат: он остаётся в numbers
+                        case ADD: {
+                            Object l = stack[sp-2], r = stack[sp-1];
+                            if(isNumber(l) && isNumber(r)){
+                                numbers[sp-2] = number(l, sp-2) + number(r, sp-1);
+                                stack[sp-2] = UNBOXED;
+                                sp--;
+                                break;
+                            }
+                            //строка со строкой или числом склеивается здесь же, как в Interpreter.binaryOperation
+                            if(ConcatString.isString(l) ? ConcatString.isString(r) || isNumber(r)
+                                    : isNumber(l) && ConcatString.isString(r)){
+                                stack[sp-2] = ConcatString.concat(value(sp-2), value(sp-1));
+                                sp--;
+                                break;
+                            }
+                            frame.pc = pc;
+                            slowBinary((Expr.Binary)constants[instruction >>> 8], sp-2);
+                            continue outer;
+                        }
+                        case SUBTRACT: {
+                            Object l = stack[sp-2], r = stack[sp-1];
+                            if(isNumber(l) && isNumber(r)){
+                                numbers[sp-2] = number(l, sp-2) - number(r, sp-1);
+                                stack[sp-2] = UNBOXED;
+                                sp--;
+                                break;
+                            }
+                            frame.pc = pc;
+                            slowBinary((Expr.Binary)constants[instruction >>> 8], sp-2);
+                            continue outer;
+                        }
+                        case MULTIPLY: {
+                            Object l = stack[sp-2], r = stack[sp-1];
+                            if(isNumber(l) && isNumber(r)){
+                                numbers[sp-2] = number(l, sp-2) * number(r, sp-1);
+                                stack[sp-2] = UNBOXED;
+                                sp--;
+                                break;
+                            }
+                            frame.pc = pc;
+                            slowBinary((Expr.Binary)constants[instruction >>> 8], sp-2);
+                            continue outer;
+                        }
+                        case DIVIDE: {
+                            Object l = stack[sp-2], r = stack[sp-1];
+                            if(isNumber(l) && isNumber(r) && number(r, sp-1)!=0.0){
+                                numbers[sp-2] = number(l, sp-2) / number(r, sp-1);
+                                stack[sp-2] = UNBOXED;
+                                sp--;
+                                break;
+                            }
+                            frame.pc = pc;
+                            slowBinary((Expr.Binary)constants[instruction >>> 8], sp-2);
+                            continue outer;
+                        }
+                        case LESS: {
+                            Object l = stack[sp-2], r = stack[sp-1];
+                            if(isNumber(l) && isNumber(r)){
+                                stack[sp-2] = number(l, sp-2) < number(r, sp-1);
+                                sp--;
+                                break;
+                            }
+                            frame.pc = pc;
+                            slowBinary((Expr.Binary)constants[instruction >>> 8], sp-2);
+                            continue outer;
+                        }
+                        case LESS_EQUAL: {
+                            Object l = stack[sp-2], r = stack[sp-1];
+                            if(isNumber(l) && isNumber(r)){
+                                stack[sp-2] = number(l, sp-2) <= number(r, sp-1);
+                                sp--;
+                                break;
+                            }
+                            frame.pc = pc;
+                            slowBinary((Expr.Binary)constants[instruction >>> 8], sp-2);
+                            continue outer;
+                        }
+                        case GREATER: {
+                            Object l = stack[sp-2], r = stack[sp-1];
+                            if(isNumber(l) && isNumber(r)){
+                                stack[sp-2] = number(l, sp-2) > number(r, sp-1);
+                                sp--;
+                                break;
+                            }
+                            frame.pc = pc;
+                            slowBinary((Expr.Binary)constants[instruction >>> 8], sp-2);
+                            continue outer;
+                        }
+                        case GREATER_EQUAL: {
+                            Object l = stack[sp-2], r = stack[sp-1];
+                            if(isNumber(l) && isNumber(r)){
+                                stack[sp-2] = number(l, sp-2) >= number(r, sp-1);
+                                sp--;
+                                break;
+                            }
+                            frame.pc = pc;
+                            slowBinary((Expr.Binary)constants[instruction >>> 8], sp-2);
+                            continue outer;
+                        }
+                        case EQUAL:
+                            sp--;
+                            stack[sp-1] = equal(sp-1, sp);
+                            break;
+                        case NOT_EQUAL:
+                            sp--;
+                            stack[sp-1] = !equal(sp-1, sp);
+                            break;
+                        case NOT:
+                            stack[sp-1] = !isTruthy(sp-1);
+                            break;
+                        case NEGATE: {
+                            var operator = (Token)constants[instruction >>> 8];
+                            Object value = stack[sp-1];
+                            if(value!=UNBOXED){
+                                Interpreter.checkNumberOperand(operator, value);
+                                numbers[sp-1] = (double)value;
+                                stack[sp-1] = UNBOXED;
+                            }
+                            numbers[sp-1] = -numbers[sp-1];
+                            break;
+                        }
+
+                        case PRINT:
+                            --sp;
+                            System.out.println(stack[sp]==UNBOXED
+                                ? Interpreter.stringify(numbers[sp]) : Interpreter.stringify(stack[sp]));
+                            break;
+                        case JUMP:
+                            pc += instruction >>> 8;
+                            break;
+                        case JUMP_IF_FALSE:
+                            if(!isTruthy(--sp)) pc += instruction >>> 8;
+                            break;
+                        case JUMP_IF_FALSE_KEEP:
+                            if(!isTruthy(sp-1)) pc += instruction >>> 8;
+                            break;
+                        case JUMP_IF_TRUE_KEEP:
+                            if(isTruthy(sp-1)) pc += instruction >>> 8;
+                            break;
+                        case LOOP:
+                            pc -= instruction >>> 8;
+                            break;
+
+                        case CALL: {
+                            //вызываемое значение занимает нулевой слот нового кадра
+                            int argc = (instruction >>> 8) & 0xff;
+                            int slot = sp - argc - 1;
+                            Object callee = stack[slot];
+                            frame.pc = pc;
+                            this.sp = sp;
+                            CallFrame next;
+                            if(callee instanceof VmFunction){
+                                var function = (VmFunction)callee;
+                                var paren = (Token)constants[instruction >>> 16];
+                                if(argc!=function.proto.arity) Interpreter.checkArity(function, argc, paren);
+                                next = pushFrame(function, slot, slot, paren);
+                                if(function.proto.hasReceiver) this.stack[slot] = function.receiver;
+                            }else{
+                                next = enter(callee, NO_RECEIVER, slot, argc, slot, (Token)constants[instruction >>> 16]);
+                            }
+                            if(this.stack!=stack) continue outer;
+                            if(next==null){
+                                sp = this.sp;
+                                break;
+                            }
+                            //стек не вырос: кадр переключается здесь же, без выхода во внешний цикл
+                            frame = next;
+                            code = next.code;
+                            constants = next.constants;
+                            pc = 0;
+                            base = slot;
+                            break;
+                        }
+                        case CALL_METHOD: {
+                            //метод лежит под получателем, получатель занимает нулевой слот нового кадра
+                            int argc = (instruction >>> 8) & 0xff;
+                            int slot = sp - argc - 1;
+                            frame.pc = pc;
+                            this.sp = sp;
+                            var next = enter(stack[slot-1], stack[slot], slot, argc, slot-1, (Token)constants[instruction >>> 16]);
+                            if(this.stack!=stack) continue outer;
+                            if(next==null){
+                                sp = this.sp;
+                                break;
+                            }
+                            frame = next;
+                            code = next.code;
+                            constants = next.constants;
+                            pc = 0;
+                            base = slot;
+                            break;
+                        }
+                        case GET_METHOD: {
+                            var get = (Expr.Get)constants[instruction >>> 8];
+                            Object object = stack[sp-1];
+                            if(object!=null && object.getClass()==LoxInstance.class){
+                                var method = get.cache.findMethod((LoxInstance)object, get.name);
+                                if(method!=null){
+                                    stack[sp-1] = method;
+                                    stack[sp++] = object;
+                                    break;
+                                }
+                            }
+                            stack[sp-1] = Interpreter.getProperty(value(sp-1), get);
+                            stack[sp++] = NO_RECEIVER;
+                            break;
+                        }
+                        case GET_SUPER_METHOD: {
+                            var expr = (Expr.Super)constants[instruction >>> 8];
+                            Object instance = stack[sp-2];
+                            stack[sp-2] = findSuperMethod(expr, (LoxClass)stack[sp-1]);
+                            stack[sp-1] = instance;
+                            break;
+                        }
+                        case CLOSURE: {
+                            var function = (Prototype)constants[instruction >>> 8];
+                            stack[sp++] = closure(function, frame, code, pc, base);
+                            pc += function.upvalueCount;
+                            break;
+                        }
+                        case CLOSE_UPVALUE:
+                            closeUpvalues(sp-1);
+                            sp--;
+                            break;
+                        case RETURN:
+                        case RETURN_LOCAL: {
+                            //return x возвращает локальную переменную прямо из слота, не кладя её на стек
+                            int from = (byte)instruction==RETURN ? --sp : base + (instruction >>> 8);
+                            if(openUpvalues!=null) closeUpvalues(base);
+                            frameCount--;
+                            int result = frame.resultSlot;
+                            stack[result] = stack[from];
+                            numbers[result] = numbers[from];
+                            if(frameCount==entry){
+                                this.sp = result + 1;
+                                return value(result);
+                            }
+                            frame = frames[frameCount-1];
+                            code = frame.code;
+                            constants = frame.constants;
+                            pc = frame.pc;
+                            base = frame.base;
+                            sp = result + 1;
+                            break;
+                        }
+
+                        case CHECK_SUPERCLASS: {
+                            var stmt = (Stmt.Class)constants[instruction >>> 8];
+                            if(!(stack[sp-1] instanceof LoxClass)){
+                                throw new RuntimeError(stmt.superclass.name, "Superclass must be a class");
+                            }
+                            break;
+                        }
+                        case CLASS: {
+                            int count = (instruction >>> 8) & 0xff;
+                            var loxClass = loxClass((Stmt.Class)constants[instruction >>> 16], stack, sp - count, sp);
+                            sp -= count;
+                            stack[sp++] = loxClass;
+                            break;
+                        }
+                        //составные инструкции. медленный случай вычисляет Interpreter, а перегруженный оператор
+                        //может вложенным вызовом нарастить стек, поэтому после него состояние кадра перечитывается
+                        case INCREMENT_LOCAL: {
+                            var increment = (Expr.Increment)constants[instruction >>> 16];
+                            int slot = base + ((instruction >>> 8) & 0xff);
+                            Object value = stack[slot];
+                            if(isNumber(value)){
+                                numbers[slot] = number(value, slot) + increment.delta;
+                                stack[slot] = UNBOXED;
+                                break;
+                            }
+                            Object result = slow(frame, pc, sp, increment.operation, value, step(increment));
+                            this.stack[slot] = result;
+                            continue outer;
+                        }
+                        case INCREMENT_GLOBAL: {
+                            var increment = (Expr.Increment)constants[instruction >>> 8];
+                            var cell = cell(increment.variable);
+                            if(cell.isUnboxed()){
+                                cell.setDouble(cell.number() + increment.delta);
+                                break;
+                            }
+                            Object value = cell.get();
+                            if(value instanceof Double){
+                                cell.setDouble((double)value + increment.delta);
+                                break;
+                            }
+                            cell.set(slow(frame, pc, sp, increment.operation, value, step(increment)));
+                            continue outer;
+                        }
+                        case UPDATE_LOCAL: {
+                            var assign = (Expr.Assign)constants[instruction >>> 16];
+                            int slot = base + ((instruction >>> 8) & 0xff);
+                            int operation = code[pc++];
+                            Object l = stack[slot], r = stack[--sp];
+                            if(isNumber(l) && isNumber(r) && (operation!=DIVIDE || number(r, sp)!=0.0)){
+                                numbers[slot] = arithmetic(operation, number(l, slot), number(r, sp));
+                                stack[slot] = UNBOXED;
+                                break;
+                            }
+                            Object result = slow(frame, pc, sp, (Expr.Binary)assign.value, value(slot), value(sp));
+                            this.stack[slot] = result;
+                            continue outer;
+                        }
+                        case UPDATE_GLOBAL: {
+                            var assign = (Expr.Assign)constants[instruction >>> 16];
+                            int operation = (instruction >>> 8) & 0xff;
+                            var cell = cell(assign);
+                            Object r = stack[--sp];
+                            if(isNumber(r) && (operation!=DIVIDE || number(r, sp)!=0.0)){
+                                if(cell.isUnboxed()){
+                                    cell.setDouble(arithmetic(operation, cell.number(), number(r, sp)));
+                                    break;
+                                }
+                                Object l = cell.get();
+                                if(l instanceof Double){
+                                    cell.setDouble(arithmetic(operation, (double)l, number(r, sp)));
+                                    break;
+                                }
+                            }
+                            cell.set(slow(frame, pc, sp, (Expr.Binary)assign.value, cell.get(), value(sp)));
+                            continue outer;
+                        }
+                        case COMPARE_JUMP: {
+                            var compare = (Expr.Compare)constants[instruction >>> 8];
+                            int jump = code[pc++];
+                            Object r = compare.right!=null ? stack[--sp] : compare.constant;
+                            Object l = stack[--sp];
+                            if(isNumber(l) && isNumber(r)){
+                                if(!compare(jump, number(l, sp), number(r, sp+1))) pc += jump >>> 8;
+                                break;
+                            }
+                            Object right = compare.right!=null ? value(sp+1) : r;
+                            if(!Interpreter.isTruthy(slow(frame, pc, sp, compare.binary, value(sp), right))) frame.pc += jump >>> 8;
+                            continue outer;
+                        }
+                        case COMPARE_LOCAL_JUMP: {
+                            var compare = (Expr.Compare)constants[instruction >>> 16];
+                            int slot = base + ((instruction >>> 8) & 0xff);
+                            int jump = code[pc++];
+                            Object r = compare.right!=null ? stack[--sp] : compare.constant;
+                            Object l = stack[slot];
+                            if(isNumber(l) && isNumber(r)){
+                                if(!compare(jump, number(l, slot), number(r, sp))) pc += jump >>> 8;
+                                break;
+                            }
+                            Object right = compare.right!=null ? value(sp) : r;
+                            if(!Interpreter.isTruthy(slow(frame, pc, sp, compare.binary, value(slot), right))) frame.pc += jump >>> 8;
+                            continue outer;
+                        }
+                        case ARITHMETIC_CONSTANT: {
+                            var binary = (Expr.Binary)constants[instruction >>> 16];
+                            int operation = (instruction >>> 8) & 0xff;
+                            Object value = stack[sp-1];
+                            Object constant = ((Expr.Literal)binary.right).value;
+                            if(isNumber(value) && (operation!=DIVIDE || (double)constant!=0.0)){
+                                numbers[sp-1] = arithmetic(operation, number(value, sp-1), (double)constant);
+                                stack[sp-1] = UNBOXED;
+                                break;
+                            }
+                            Object result = slow(frame, pc, sp, binary, value(sp-1), constant);
+                            this.stack[sp-1] = result;
+                            continue outer;
+                        }
+                        case ARITHMETIC_LOCAL_CONSTANT: {
+                            var binary = (Expr.Binary)constants[instruction >>> 16];
+                            int slot = base + ((instruction >>> 8) & 0xff);
+                            int operation = code[pc++];
+                            Object value = stack[slot];
+                            Object constant = ((Expr.Literal)binary.right).value;
+                            if(isNumber(value) && (operation!=DIVIDE || (double)constant!=0.0)){
+                                numbers[sp] = arithmetic(operation, number(value, slot), (double)constant);
+                                stack[sp++] = UNBOXED;
+                                break;
+                            }
+                            Object result = slow(frame, pc, sp, binary, value(slot), constant);
+                            this.stack[sp] = result;
+                            this.sp = sp + 1;
+                            continue outer;
+                        }
+                        case BEGIN_FIELD_UPDATE: {
+                            var update = (Expr.FieldUpdate)constants[instruction >>> 8];
+                            Object object = stack[sp-1];
+                            if(!(object instanceof LoxInstance)) throw new RuntimeError(update.set.name, "Only instances have fields.");
+                            stack[sp++] = Interpreter.getProperty(object, update.get);
+                            break;
+                        }
+                        case FIELD_UPDATE: {
+                            var update = (Expr.FieldUpdate)constants[instruction >>> 16];
+                            int operation = (instruction >>> 8) & 0xff;
+                            var object = (LoxInstance)stack[sp-3];
+                            Object l = stack[sp-2], r = stack[sp-1];
+                            if(l instanceof Double && isNumber(r) && (operation!=DIVIDE || number(r, sp-1)!=0.0)){
+                                Object result = arithmetic(operation, (double)l, number(r, sp-1));
+                                Interpreter.setProperty(object, update.set, result);
+                                sp -= 2;
+                                stack[sp-1] = result;
+                                break;
+                            }
+                            Object result = slow(frame, pc, sp, update.operation, l, value(sp-1));
+                            Interpreter.setProperty(object, update.set, result);
+                            this.stack[sp-3] = result;
+                            this.sp = sp - 2;
+                            continue outer;
+                        }
+
+                        case FOR_LOOP: {
+                            var loop = (Stmt.CountedFor)constants[instruction >>> 16];
+                            int slot = base + ((instruction >>> 8) & 0xff);
+                            int jump = code[pc++];
+                            int bound = code[pc++];
+                            Object counter = stack[slot];
+                            if(isNumber(counter)){
+                                double next = number(counter, slot) + loop.increment.delta;
+                                numbers[slot] = next;
+                                stack[slot] = UNBOXED;
+                                Object limit = bound<0 ? loop.condition.constant : stack[base+bound];
+                                if(isNumber(limit)){
+                                    if(compare(jump, next, number(limit, base+bound))) pc -= jump >>> 8;
+                                    break;
+                                }
+                            }
+                            frame.pc = pc;
+                            this.sp = sp;
+                            slowForLoop(frame, loop, slot, bound<0 ? -1 : base+bound, jump, !isNumber(counter));
+                            continue outer;
+                        }
+
+                        default:
+                            throw new IllegalStateException("unknown opcode "+(byte)instruction+" in "+frame.function.proto);
+                    }
+                }
+            }
+        }catch (RuntimeError e){
+            //как и в Interpreter, ошибка нативной функции получает строку ближайшего вызова
+            for(int i=frameCount-1;i>=entry;i--){
+                if(frames[i].callSite!=null) e = e.atCallSite(frames[i].callSite);
+            }
+            throw e;
+        }
+    }
+
+    private GlobalCell cell(Expr.Variable variable){
+        var cell = variable.cell;
+        if(cell==null){
+            cell = globals.cell(variable.name);
+            variable.cell = cell;
+        }
+        return cell;
+    }
+
+    private GlobalCell cell(Expr.Assign assign){
+        var cell = assign.cell;
+        if(cell==null){
+            cell = globals.cell(assign.name);
+            assign.cell = cell;
+        }
+        return cell;
+    }
+
+    //---------- числа без упаковки ----------
+
+    //значение слота для кода вне VM: число из numbers упаковывается
+    Object value(int slot){
+        Object value = stack[slot];
+        return value==UNBOXED ? (Object)numbers[slot] : value;
+    }
+
+    private static boolean isNumber(Object value){
+        return value==UNBOXED || value instanceof Double;
+    }
+
+    private double number(Object value, int slot){
+        return value==UNBOXED ? numbers[slot] : (double)value;
+    }
+
+    private boolean isTruthy(int slot){
+        Object value = stack[slot];
+        if(value==UNBOXED){
+            double number = numbers[slot];
+            return number!=0.0 && !Double.isNaN(number);
+        }
+        return Interpreter.isTruthy(value);
+    }
+
+    private boolean equal(int left, int right){
+        Object l = stack[left], r = stack[right];
+        if(isNumber(l) && isNumber(r)){
+            return Double.compare(number(l, left), number(r, right))==0;
+        }
+        return Interpreter.isEqual(value(left), value(right));
+    }
+
+    //comparison - слово с кодом LESS, LESS_EQUAL, GREATER или GREATER_EQUAL в младшем байте
+    private static boolean compare(int comparison, double a, double b){
+        switch ((byte)comparison){
+            case LESS: return a<b;
+            case LESS_EQUAL: return a<=b;
+            case GREATER: return a>b;
+            default: return a>=b;
+        }
+    }
+
+    private static double arithmetic(int operation, double a, double b){
+        switch (operation){
+            case ADD: return a+b;
+            case SUBTRACT: return a-b;
+            case MULTIPLY: return a*b;
+            default: return a/b;
+        }
+    }
+
+    //шаг счётчика как значение Lox: для строк и перегруженных операторов
+    private static Object step(Expr.Increment increment){
+        return ((Expr.Literal)increment.operation.right).value;
+    }
+
+    //медленный случай составной инструкции: состояние кадра сохраняется до вызова Interpreter
+    private Object slow(CallFrame frame, int pc, int sp, Expr.Binary expr, Object left, Object right){
+        frame.pc = pc;
+        this.sp = sp;
+        return interpreter.binaryOperation(expr, left, right);
+    }
+
+    //FOR_LOOP со счётчиком или границей не числом. шаг уже сделан, если счётчик был числом
+    private void slowForLoop(CallFrame frame, Stmt.CountedFor loop, int slot, int bound, int jump, boolean step){
+        if(step){
+            Object next = interpreter.binaryOperation(loop.increment.operation, value(slot), step(loop.increment));
+            stack[slot] = next;
+        }
+        Object limit = bound<0 ? loop.condition.constant : value(bound);
+        if(Interpreter.isTruthy(interpreter.binaryOperation(loop.condition.binary, value(slot), limit))){
+            frame.pc -= jump >>> 8;
+        }
+    }
+
+    //операнды не числа: строки, перегруженные операторы и ошибки. метод Lox, перегружающий оператор,
+    //получает кадр прямо на месте операндов, остальное вычисляет Interpreter
+    private void slowBinary(Expr.Binary expr, int slot){
+        Object left = value(slot);
+        Object right = value(slot+1);
+        var method = Interpreter.operatorMethod(expr, left);
+        if(method instanceof VmFunction){
+            pushFrame((VmFunction)method, slot, slot, null);
+            stack[slot] = left;
+            stack[slot+1] = right;
+            sp = slot + 2;
+            return;
+        }
+        this.sp = slot + 2;
+        Object result = interpreter.binaryOperation(expr, left, right);
+        stack[slot] = result;
+        this.sp = slot + 1;
+    }
+
+    //начинает вызов: функция VM получает новый кадр (он и возвращается), остальные вызываемые объекты
+    //исполняются сразу, и их результат кладётся в resultSlot. self - получатель метода из GET_METHOD
+    private CallFrame enter(Object callee, Object self, int slot, int argc, int resultSlot, Token paren){
+        if(callee instanceof VmFunction){
+            var function = (VmFunction)callee;
+            var receiver = self!=NO_RECEIVER ? (LoxInstance)self : function.receiver;
+            if(argc!=function.proto.arity) Interpreter.checkArity(function, argc, paren);
+            var frame = pushFrame(function, slot, resultSlot, paren);
+            stack[slot] = function.proto.hasReceiver ? receiver : function;
+            return frame;
+        }
+        if(callee!=null && callee.getClass()==LoxClass.class){
+            var initializer = ((LoxClass)callee).initializer();
+            if(initializer instanceof VmFunction){
+                var function = (VmFunction)initializer;
+                if(argc!=function.proto.arity) Interpreter.checkArity(function, argc, paren);
+                var frame = pushFrame(function, slot, resultSlot, paren);
+                stack[slot] = new LoxInstance((LoxClass)callee);
+                return frame;
+            }
+        }
+        Object result;
+        try{
+            result = callForeign(callee, self, slot, argc, paren);
+        }catch (RuntimeError e){
+            throw e.atCallSite(paren);
+        }
+        stack[resultSlot] = result;
+        sp = resultSlot + 1;
+        return null;
+    }
+
+    //вызов объекта, который исполняется не VM: нативные функции и классы, функции других способов исполнения
+    private Object callForeign(Object callee, Object self, int slot, int argc, Token paren){
+        if(callee instanceof LoxFunction){
+            var function = (LoxFunction)callee;
+            var receiver = self!=NO_RECEIVER ? (LoxInstance)self : function.receiver;
+            Interpreter.checkArity(function, argc, paren);
+            var frame = function.newFrame(receiver);
+            for(int i=0;i<argc;i++){
+                frame.define(function.parameterSlot(i), value(slot+1+i));
+            }
+            return function.execute(interpreter, frame, receiver);
+        }
+        if(!(callee instanceof LoxCallable)){
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        var function = (LoxCallable)callee;
+        Interpreter.checkArity(function, argc, paren);
+        switch (argc){
+            case 0: return function.call0(interpreter);
+            case 1: return function.call1(interpreter, value(slot+1));
+            case 2: return function.call2(interpreter, value(slot+1), value(slot+2));
+            case 3: return function.call3(interpreter, value(slot+1), value(slot+2), value(slot+3));
+            default: {
+                List<Object> arguments = new ArrayList<>(argc);
+                for(int i=0;i<argc;i++) arguments.add(value(slot+1+i));
+                return function.callN(interpreter, arguments);
+            }
+        }
+    }
+
+    //метод суперкласса запоминается в узле вместе с суперклассом, для которого он найден
+    private static LoxFunction findSuperMethod(Expr.Super expr, LoxClass superclass){
+        if(expr.superclass==superclass) return expr.target;
+        var method = superclass.findMethod(expr.method.lexeme);
+        if(method==null){
+            throw new RuntimeError(expr.method, "Undefined property `"+expr.method.lexeme+"`.");
+        }
+        expr.superclass = superclass;
+        expr.target = (LoxFunction)method;
+        return expr.target;
+    }
+
+    private Upvalue capture(int index){
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while(upvalue!=null && upvalue.index>index){
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if(upvalue!=null && upvalue.index==index) return upvalue;
+        var created = new Upvalue(this, index);
+        created.next = upvalue;
+        if(previous==null){
+            openUpvalues = created;
+        }else{
+            previous.next = created;
+        }
+        return created;
+    }
+
+    //захваченные переменные CLOSURE описаны словами после инструкции, начиная с pc
+    private VmFunction closure(Prototype function, CallFrame frame, int[] code, int pc, int base){
+        var captured = new Upvalue[function.upvalueCount];
+        for(int i=0;i<captured.length;i++){
+            int operand = code[pc + i];
+            int index = operand >>> 1;
+            boolean isLocal = (operand & 1)==1;
+            captured[i] = isLocal ? capture(base + index) : frame.function.upvalues[index];
+        }
+        return new VmFunction(this, function, captured, null);
+    }
+
+    //методы лежат на стеке в [from, to), суперкласс - под ними
+    private static LoxClass loxClass(Stmt.Class stmt, Object[] stack, int from, int to){
+        Map<String, LoxCallable> methods = new HashMap<>();
+        for(int i=from;i<to;i++){
+            var method = (VmFunction)stack[i];
+            methods.put(method.proto.name, method);
+        }
+        var superclass = stmt.superclass!=null ? (LoxClass)stack[from-1] : null;
+        return new LoxClass(stmt.name.lexeme, superclass, methods);
+    }
+
+    private void closeUpvalues(int from){
+        while(openUpvalues!=null && openUpvalues.index>=from){
+            var upvalue = openUpvalues;
+            upvalue.close();
+            openUpvalues = upvalue.next;
+        }
+    }
+}
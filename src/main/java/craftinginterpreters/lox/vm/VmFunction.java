@@ -0,0 +1,39 @@
+package craftinginterpreters.lox.vm;
+
+import craftinginterpreters.lox.*;
+
+//функция Lox, исполняемая VM. для остального интерпретатора это обычная LoxFunction:
+//нативные функции, классы и перегруженные операторы вызывают её через execute,
+//а VM переносит параметры из окружения вызова на свой стек
+public final class VmFunction extends LoxFunction {
+    final VM vm;
+    final Prototype proto;
+    final Upvalue[] upvalues;
+
+    VmFunction(VM vm, Prototype proto, Upvalue[] upvalues, LoxInstance receiver){
+        super(proto.declaration, null, proto.isInitializer, proto.isMethod, receiver);
+        this.vm = vm;
+        this.proto = proto;
+        this.upvalues = upvalues;
+    }
+
+    @Override
+    public LoxFunction bind(LoxInstance instance){
+        return new VmFunction(vm, proto, upvalues, instance);
+    }
+
+    @Override
+    public Object execute(Interpreter interpreter, Environment frame, LoxInstance instance){
+        var arguments = new Object[proto.arity];
+        for(int i=0;i<arguments.length;i++){
+            arguments[i] = frame.getAt(0, parameterSlot(i));
+        }
+        return vm.call(this, instance, arguments);
+    }
+
+    //у VM свой цикл вызовов, поэтому хвостовой вызов из другого способа исполнения выполняется сразу
+    @Override
+    public boolean acceptsTailCall(){
+        return false;
+    }
+}
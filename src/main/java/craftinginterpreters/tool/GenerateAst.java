@@ -10,6 +10,7 @@ public class GenerateAst {
     //скрипт для генерации повторяющегося кода, нужного для реализации абстрактного синтаксического дерева
     //с его помощью создадим файл craftinginterpreters.lox.Expr.java
     //может быть, перепишем его на python?
+    //поля после `|` изменяемые и не входят в конструктор - в них Resolver записывает результаты разрешения
 
     public static void main(String[] args)  throws IOException {
         if(args.length!=1){
@@ -18,34 +19,45 @@ public class GenerateAst {
         }
         var outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-            "Assign : Token name, Expr value",
-            "Binary : Expr left, Token operator, Expr right",
+            "Assign : Token name, Expr value | int depth = -1, int slot = -1, GlobalCell cell = null",
+            "Binary : Expr left, Token operator, Expr right | Shape operatorShape = null, LoxFunction operatorMethod = null",
             "Ternary : Expr left, Token op1, Expr middle, Token op2, Expr right",
             "Grouping : Expr expression",
             "Literal : Object value",
             "Logical : Expr left, Token operator, Expr right",
-            "Set : Expr object, Token name, Expr value", // object.name = value
-            "This : Token keyword",
-            "Super: Token keyword, Token method",
+            "Set : Expr object, Token name, Expr value | PropertyCache cache = new PropertyCache()", // object.name = value
+            "This : Token keyword | int depth = -1, int slot = -1",
+            "Super: Token keyword, Token method" +
+                " | int depth = -1, int slot = -1, LoxClass superclass = null, LoxFunction target = null",
             "Unary : Token operator, Expr right",
-            "Variable : Token name",
+            "Variable : Token name | int depth = -1, int slot = -1, GlobalCell cell = null",
             "Call : Expr calee, Token paren, List<Expr> arguments",
-            "AnonFun : List<Token> params, List<Stmt> body",
-            "Get : Expr object, Token name" // код вида objectName.name
+            "AnonFun : List<Token> params, List<Stmt> body | Stmt.Function declaration = null",
+            "Get : Expr object, Token name | PropertyCache cache = new PropertyCache()", // код вида objectName.name
+            //суперинструкции, их создаёт Superinstructions. исходное выражение хранится в первом поле
+            "Increment : Expr.Assign assign, Expr.Variable variable, Expr.Binary operation, double delta", // i = i + 1
+            "Compare : Expr.Binary binary, Expr.Variable left, Expr.Variable right, Object constant", // i < n, i < 10
+            "FieldUpdate : Expr.Set set, Expr.Get get, Expr.Binary operation" // obj.field = obj.field + x
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-            "Block : List<Stmt> statements",
-            "Class : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+            "Block : List<Stmt> statements | int frameSize = 0, boolean inline = false", // inline: без своего окружения
+            "Class : Token name, Expr.Variable superclass, List<Stmt.Function> methods | int slot = -1",
             "Expression : Expr expression",
             "If : Expr condition, Stmt thenBranch, Stmt elseBranch",
             "Print : Expr expression",
-            "Var : Token name, Expr initializer",
+            "Var : Token name, Expr initializer | int slot = -1",
             "While : Expr condition, Stmt body",
             "For : Stmt init, Expr condition, Stmt body, Expr increment",
             "ControlStatement : Token parameter",
-            "Function : Token name, List<Token> params, List<Stmt> body, boolean isStaticClassMethod",
-            "Return : Token keyword, Expr value"
+            "Function : Token name, List<Token> params, List<Stmt> body, boolean isStaticClassMethod" +
+                " | int slot = -1, int frameSize = 0, int[] captures = null" +
+                ", int invocations = 0, int backEdges = 0, boolean queued = false" +
+                ", volatile craftinginterpreters.lox.jit.JitCode compiled = null", // captures: откуда копировать переменные плоского замыкания
+            "Return : Token keyword, Expr value | boolean tailCall = false",
+            //цикл со счётчиком, его распознаёт CountedLoops. исходный цикл хранится в первом поле
+            "CountedFor : Stmt.For loop, Stmt.Var variable, Expr.Compare condition, Expr.Increment increment" +
+                ", boolean readsCounter"
         ));
     }
     private static void defineAst(
@@ -95,6 +107,11 @@ public class GenerateAst {
     private static void defineType(
         PrintWriter writer, String baseName, String className, String fieldList
     ) {
+        String resolvedList = null;
+        if(fieldList.contains("|")){
+            resolvedList = fieldList.split("\\|")[1].trim();
+            fieldList = fieldList.split("\\|")[0].trim();
+        }
         writer.println("  public static class " + className + " extends " + baseName + " {");
         writer.println("    " + className + "(" + fieldList + ") {"); //конструктор
         var fields = fieldList.split(", ");
@@ -116,6 +133,11 @@ public class GenerateAst {
         for(String field: fields){
             writer.println("    public final " + field + ";");
         }
+        if(resolvedList!=null){
+            for(String field: resolvedList.split(", ")){
+                writer.println("    public " + field + ";");
+            }
+        }
 
         writer.println("  }");
     }